@@ -0,0 +1,84 @@
+package ee.sk.siddemo.benchmark;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ee.sk.smartid.AuthenticationHash;
+import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.AuthenticationResponseValidator;
+import ee.sk.smartid.SmartIdAuthenticationResponse;
+
+/**
+ * Validation of the authentication response returned by Smart-ID, Smart-ID API calls are not included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthenticationBenchmark {
+
+    private AuthenticationResponseValidator validator;
+    private SmartIdAuthenticationResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var pki = new TestPki();
+        validator = new AuthenticationResponseValidator(new X509Certificate[]{pki.getCaCertificate()});
+
+        AuthenticationHash authenticationHash = AuthenticationHash.generateRandomHash();
+
+        response = new SmartIdAuthenticationResponse();
+        response.setEndResult("OK");
+        response.setSignedHashInBase64(authenticationHash.getHashInBase64());
+        response.setHashType(authenticationHash.getHashType());
+        response.setSignatureValueInBase64(Base64.getEncoder()
+                .encodeToString(pki.signHash(authenticationHash.getHash(), "SHA-512")));
+        response.setAlgorithmName("sha512WithRSAEncryption");
+        response.setCertificate(pki.getPersonCertificate());
+        response.setRequestedCertificateLevel("QUALIFIED");
+        response.setCertificateLevel("QUALIFIED");
+        response.setDocumentNumber("PNO" + TestPki.COUNTRY + "-" + TestPki.IDENTITY_CODE + "-MOCK-Q");
+    }
+
+    @Benchmark
+    public AuthenticationIdentity validate() {
+        return validator.validate(response);
+    }
+}
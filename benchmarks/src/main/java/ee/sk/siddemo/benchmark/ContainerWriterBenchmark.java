@@ -0,0 +1,158 @@
+package ee.sk.siddemo.benchmark;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.DataFile;
+import org.digidoc4j.DataToSign;
+import org.digidoc4j.DigestAlgorithm;
+import org.digidoc4j.SignatureBuilder;
+import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.TSLCertificateSource;
+import org.digidoc4j.impl.asic.tsl.TSLCertificateSourceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ee.sk.siddemo.asic.AsicContainerWriter;
+
+/**
+ * Writing a signed ASiC-E container with digidoc4j (every entry deflated) and with AsicContainerWriter.
+ * <p>
+ * Document mixes: text (XML and plain text), pdf (mostly compressed streams), image (JPEG, incompressible)
+ * and mixed (one of each). Container sizes are printed once per trial, time is the cost of writing only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContainerWriterBenchmark {
+
+    @Param({"text", "pdf", "image", "mixed"})
+    public String documents;
+
+    @Param({"1048576"})
+    public int documentSize;
+
+    @Param({"1", "6"})
+    public int compressionLevel;
+
+    private Container container;
+    private AsicContainerWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        var pki = new TestPki();
+        TSLCertificateSource trustedList = new TSLCertificateSourceImpl();
+        trustedList.addTSLCertificate(pki.getCaCertificate());
+        var configuration = new Configuration(Configuration.Mode.TEST);
+        configuration.setTSL(trustedList);
+
+        var random = new Random(documentSize);
+        ContainerBuilder builder = ContainerBuilder.aContainer().withConfiguration(configuration);
+        switch (documents) {
+            case "text" -> builder.withDataFile(new DataFile(text(random, documentSize), "document.xml", "application/xml"))
+                    .withDataFile(new DataFile(text(random, documentSize / 4), "readme.txt", "text/plain"));
+            case "pdf" -> builder.withDataFile(new DataFile(pdf(random, documentSize), "document.pdf", "application/pdf"));
+            case "image" -> builder.withDataFile(new DataFile(random(random, documentSize), "scan.jpg", "image/jpeg"));
+            case "mixed" -> builder.withDataFile(new DataFile(pdf(random, documentSize), "document.pdf", "application/pdf"))
+                    .withDataFile(new DataFile(random(random, documentSize), "scan.jpg", "image/jpeg"))
+                    .withDataFile(new DataFile(text(random, documentSize / 4), "data.xml", "application/xml"));
+            default -> throw new IllegalArgumentException("Unknown document mix " + documents);
+        }
+        container = builder.build();
+        DataToSign dataToSign = SignatureBuilder.aSignature(container)
+                .withSigningCertificate(pki.getPersonCertificate())
+                .withSignatureDigestAlgorithm(DigestAlgorithm.SHA256)
+                .withSignatureProfile(SignatureProfile.B_BES)
+                .buildDataToSign();
+        container.addSignature(dataToSign.finalize(pki.sign(dataToSign.getDataToSign())));
+
+        writer = new AsicContainerWriter(true, compressionLevel, 7.5);
+
+        var digidoc4j = new ByteArrayOutputStream();
+        container.save(digidoc4j);
+        var tuned = new ByteArrayOutputStream();
+        writer.write(container, tuned);
+        System.out.printf("%n%s: digidoc4j %d bytes, AsicContainerWriter(level %d) %d bytes%n",
+                documents, digidoc4j.size(), compressionLevel, tuned.size());
+    }
+
+    @Benchmark
+    public void digidoc4jSave() {
+        container.save(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void containerWriter() throws IOException {
+        writer.write(container, OutputStream.nullOutputStream());
+    }
+
+    private static byte[] text(Random random, int size) {
+        String[] words = {"<item>", "</item>", "signature", "document", "the", "of", "and", "contract", "party", "date", "\n"};
+        var text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // deflate compressed page and image streams with a little uncompressed object structure between them
+    private static byte[] pdf(Random random, int size) {
+        var pdf = new ByteArrayOutputStream(size);
+        pdf.writeBytes("%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII));
+        int object = 1;
+        while (pdf.size() < size) {
+            pdf.writeBytes((object++ + " 0 obj\n<< /Filter /FlateDecode /Length 8192 >>\nstream\n").getBytes(StandardCharsets.US_ASCII));
+            pdf.writeBytes(random(random, 8192));
+            pdf.writeBytes("\nendstream\nendobj\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        return pdf.toByteArray();
+    }
+
+    private static byte[] random(Random random, int size) {
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,75 @@
+package ee.sk.siddemo.benchmark;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ee.sk.smartid.AuthenticationHash;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.SignableData;
+
+/**
+ * Hashes sent to Smart-ID and the verification codes shown to the user.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+
+    // XAdES SignedInfo, the data to sign of a container, is about this size regardless of the document
+    private byte[] dataToSign;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataToSign = new byte[1024];
+        new Random(1).nextBytes(dataToSign);
+    }
+
+    @Benchmark
+    public String authenticationHashAndVerificationCode() {
+        return AuthenticationHash.generateRandomHash().calculateVerificationCode();
+    }
+
+    @Benchmark
+    public byte[] signableDataHash() {
+        var signableData = new SignableData(dataToSign);
+        signableData.setHashType(HashType.SHA256);
+        return signableData.calculateHash();
+    }
+}
@@ -0,0 +1,145 @@
+package ee.sk.siddemo.benchmark;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.DataFile;
+import org.digidoc4j.DataToSign;
+import org.digidoc4j.DigestAlgorithm;
+import org.digidoc4j.Signature;
+import org.digidoc4j.SignatureBuilder;
+import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.TSLCertificateSource;
+import org.digidoc4j.impl.asic.tsl.TSLCertificateSourceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Container signing steps of SmartIdSignatureServiceImpl for documents of different size.
+ * <p>
+ * B_BES profile is used so that no OCSP or timestamp request leaves the machine,
+ * LT profile adds the network round trips on top of these numbers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SigningBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    public int documentSize;
+
+    private TestPki pki;
+    private Configuration configuration;
+    private Path workDirectory;
+
+    private Container container;
+    private DataToSign dataToSign;
+    private byte[] signatureValue;
+    private Container signedContainer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pki = new TestPki();
+
+        // trusted list with only the test CA, nothing is downloaded
+        TSLCertificateSource trustedList = new TSLCertificateSourceImpl();
+        trustedList.addTSLCertificate(pki.getCaCertificate());
+        configuration = new Configuration(Configuration.Mode.TEST);
+        configuration.setTSL(trustedList);
+
+        workDirectory = Files.createTempDirectory("sid-demo-benchmark-");
+        byte[] document = new byte[documentSize];
+        new Random(documentSize).nextBytes(document);
+        Path documentPath = Files.write(workDirectory.resolve("document.bin"), document);
+
+        container = newContainer(documentPath);
+        dataToSign = buildDataToSign(container);
+        signatureValue = pki.sign(dataToSign.getDataToSign());
+
+        signedContainer = newContainer(documentPath);
+        DataToSign signedContainerDataToSign = buildDataToSign(signedContainer);
+        signedContainer.addSignature(signedContainerDataToSign.finalize(pki.sign(signedContainerDataToSign.getDataToSign())));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(workDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public DataToSign buildDataToSign() {
+        return buildDataToSign(container);
+    }
+
+    @Benchmark
+    public Signature finalizeSignature() {
+        return dataToSign.finalize(signatureValue);
+    }
+
+    @Benchmark
+    public Path saveAsFile() {
+        Path target = workDirectory.resolve("signed.asice");
+        signedContainer.saveAsFile(target.toString());
+        return target;
+    }
+
+    private Container newContainer(Path documentPath) {
+        return ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .withDataFile(new DataFile(documentPath.toString(), "application/octet-stream"))
+                .build();
+    }
+
+    private DataToSign buildDataToSign(Container target) {
+        return SignatureBuilder.aSignature(target)
+                .withSigningCertificate(pki.getPersonCertificate())
+                .withSignatureDigestAlgorithm(DigestAlgorithm.SHA256)
+                .withSignatureProfile(SignatureProfile.B_BES)
+                .buildDataToSign();
+    }
+}
@@ -0,0 +1,160 @@
+package ee.sk.siddemo.benchmark;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Test CA with a Smart-ID like person certificate and key, generated in memory so that benchmarks run offline.
+ */
+public class TestPki {
+
+    // Smart-ID demo environment test person
+    static final String GIVEN_NAME = "OK";
+    static final String SURNAME = "TESTNUMBER";
+    static final String IDENTITY_CODE = "30303039914";
+    static final String COUNTRY = "EE";
+
+    private static final AtomicLong SERIAL = new AtomicLong(1);
+
+    private final KeyPair caKeys;
+    private final X509Certificate caCertificate;
+    private final KeyPair personKeys;
+    private final X509Certificate personCertificate;
+
+    public TestPki() {
+        try {
+            caKeys = newKeyPair();
+            X500Name caName = new X500Name("CN=Benchmark Test CA, O=Smart-ID demo, C=EE");
+            caCertificate = certificate(caName, caName, caKeys, caKeys.getPrivate(),
+                    new BasicConstraints(true), new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+
+            personKeys = newKeyPair();
+            X500Name personName = new X500NameBuilder(BCStyle.INSTANCE)
+                    .addRDN(BCStyle.C, COUNTRY)
+                    .addRDN(BCStyle.CN, SURNAME + "," + GIVEN_NAME + ",PNO" + COUNTRY + "-" + IDENTITY_CODE)
+                    .addRDN(BCStyle.SURNAME, SURNAME)
+                    .addRDN(BCStyle.GIVENNAME, GIVEN_NAME)
+                    .addRDN(BCStyle.SERIALNUMBER, "PNO" + COUNTRY + "-" + IDENTITY_CODE)
+                    .build();
+            // one certificate for both authentication and signing keeps the setup small
+            personCertificate = certificate(caName, personName, personKeys, caKeys.getPrivate(),
+                    new BasicConstraints(false), new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation));
+        } catch (GeneralSecurityException | OperatorCreationException e) {
+            throw new IllegalStateException("Could not create test certificates", e);
+        }
+    }
+
+    public X509Certificate getCaCertificate() {
+        return caCertificate;
+    }
+
+    public X509Certificate getPersonCertificate() {
+        return personCertificate;
+    }
+
+    /**
+     * Signs data the way Smart-ID signs the hash sent to it: RSA over the digest info of the hash.
+     */
+    public byte[] signHash(byte[] hash, String digestAlgorithm) {
+        try {
+            AlgorithmIdentifier algorithm = new AlgorithmIdentifier(switch (digestAlgorithm) {
+                case "SHA-256" -> NISTObjectIdentifiers.id_sha256;
+                case "SHA-384" -> NISTObjectIdentifiers.id_sha384;
+                case "SHA-512" -> NISTObjectIdentifiers.id_sha512;
+                default -> throw new IllegalArgumentException(digestAlgorithm);
+            }, DERNull.INSTANCE);
+
+            Signature signature = Signature.getInstance("NONEwithRSA");
+            signature.initSign(personKeys.getPrivate());
+            signature.update(new DigestInfo(algorithm, hash).getEncoded());
+            return signature.sign();
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Could not sign hash", e);
+        }
+    }
+
+    /**
+     * Signs data with SHA256withRSA, as needed by DataToSign.finalize.
+     */
+    public byte[] sign(byte[] data) {
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(personKeys.getPrivate());
+            signature.update(data);
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign data", e);
+        }
+    }
+
+    private static KeyPair newKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static X509Certificate certificate(X500Name issuer, X500Name subject, KeyPair subjectKeys, PrivateKey issuerKey,
+                                               BasicConstraints basicConstraints, KeyUsage keyUsage)
+            throws GeneralSecurityException, OperatorCreationException {
+        Instant now = Instant.now();
+        try {
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, BigInteger.valueOf(SERIAL.getAndIncrement()),
+                    Date.from(now.minus(Duration.ofDays(1))), Date.from(now.plus(Duration.ofDays(365))), subject, subjectKeys.getPublic())
+                    .addExtension(Extension.basicConstraints, true, basicConstraints)
+                    .addExtension(Extension.keyUsage, true, keyUsage);
+
+            return new JcaX509CertificateConverter()
+                    .getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey)));
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+}
@@ -23,26 +23,60 @@ package ee.sk.siddemo;
  */
 
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.impl.SkOCSPDataLoader;
+import org.digidoc4j.impl.SkTimestampDataLoader;
+import org.digidoc4j.utils.Helper;
+import org.glassfish.jersey.client.ClientConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Scope;
-import org.springframework.context.annotation.ScopedProxyMode;
-import org.springframework.web.context.WebApplicationContext;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
 
-import ee.sk.siddemo.model.UserSidSession;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.siddemo.asic.AsicContainerWriter;
+import ee.sk.siddemo.dataloader.CachingOcspDataLoader;
+import ee.sk.siddemo.dataloader.CoalescingDataLoaderFactory;
+import ee.sk.siddemo.dataloader.OcspResponseCache;
+import ee.sk.siddemo.jfr.SmartIdRequestEventFilter;
+import ee.sk.siddemo.model.AuthenticationSessionInfo;
+import ee.sk.siddemo.model.SigningResult;
+import ee.sk.siddemo.model.SigningSessionInfo;
+import ee.sk.siddemo.services.SmartIdAuthenticationService;
+import ee.sk.siddemo.services.SmartIdSignatureService;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.siddemo.storage.ShardedContainerStorage;
+import ee.sk.siddemo.store.AuthenticationSessionCodec;
+import ee.sk.siddemo.store.FilePendingSessionStore;
+import ee.sk.siddemo.store.InMemoryPendingSessionStore;
+import ee.sk.siddemo.store.PendingSessionStore;
+import ee.sk.siddemo.store.PendingSessions;
+import ee.sk.siddemo.store.SigningSessionCodec;
+import ee.sk.smartid.AuthenticationIdentity;
 import ee.sk.smartid.AuthenticationResponseValidator;
 import ee.sk.smartid.SmartIdClient;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 public class Config {
 
+    // trust stores are on classpath by default, file: prefix loads them from file system
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
     @Value("${sid.client.relyingPartyUuid}")
     private String sidRelyingPartyUuid;
 
@@ -64,9 +98,102 @@ public class Config {
     @Value("${sid.truststore.trusted-root-certs.password}")
     private String sidTrustedRootCertsPassword;
 
+    @Value("${sid.client.session-status-socket-open-time}")
+    private Duration sidSessionStatusSocketOpenTime;
+
+    @Value("${app.signed-files-directory}")
+    private String signedFilesDirectory;
+
+    @Value("${app.signed-files-fsync}")
+    private ShardedContainerStorage.Fsync signedFilesFsync;
+
+    @Value("${app.signed-files-replaced-retention}")
+    private Duration signedFilesReplacedRetention;
+
+    @Value("${app.sign.container-writer.enabled}")
+    private boolean containerWriterEnabled;
+
+    @Value("${app.sign.container-writer.compression-level}")
+    private int containerWriterCompressionLevel;
+
+    @Value("${app.sign.container-writer.entropy-threshold}")
+    private double containerWriterEntropyThreshold;
+
+    @Value("${app.poller.request-threads}")
+    private int pollerRequestThreads;
+
+    @Value("${app.sign.certificate-threads}")
+    private int signCertificateThreads;
+
+    @Value("${app.sign.finalize-threads}")
+    private int signFinalizeThreads;
+
+    @Value("${app.sign.storage-threads}")
+    private int signStorageThreads;
+
+    @Value("${app.sign.validation-threads}")
+    private int signValidationThreads;
+
+    @Value("${app.sign.stage-queue-capacity}")
+    private int signStageQueueCapacity;
+
+    @Value("${app.sign.deferred-augmentation.threads}")
+    private int augmentationThreads;
+
+    @Value("${app.sign.deferred-augmentation.batch-size}")
+    private int augmentationBatchSize;
+
+    @Value("${app.digidoc4j.mode}")
+    private org.digidoc4j.Configuration.Mode digiDocMode;
+
+    @Value("${app.digidoc4j.tsl-refresh-interval}")
+    private Duration tslRefreshInterval;
+
+    @Value("${app.digidoc4j.coalescing-data-loaders.enabled}")
+    private boolean coalescingDataLoaders;
+
+    @Value("${app.sign.signature-profile}")
+    private SignatureProfile signatureProfile;
+
+    @Value("${app.digidoc4j.ocsp-cache.enabled}")
+    private boolean ocspCacheEnabled;
+
+    @Value("${app.digidoc4j.ocsp-cache.max-entries}")
+    private int ocspCacheMaxEntries;
+
+    @Value("${app.digidoc4j.ocsp-cache.ttl-without-next-update}")
+    private Duration ocspCacheTtlWithoutNextUpdate;
+
+    @Value("${app.digidoc4j.ocsp-cache.max-ttl}")
+    private Duration ocspCacheMaxTtl;
+
+    @Value("${app.digidoc4j.ocsp-cache.directory:}")
+    private String ocspCacheDirectory;
+
+    @Value("${app.poller.session-timeout}")
+    private Duration sessionTimeout;
+
+    @Value("${app.pending-sessions.store}")
+    private String pendingSessionStoreType;
+
+    @Value("${app.pending-sessions.directory}")
+    private String pendingSessionDirectory;
+
+    @Value("${app.pending-sessions.result-check-interval}")
+    private Duration pendingSessionResultCheckInterval;
+
+    @Value("${app.pending-sessions.result-retention}")
+    private Duration pendingSessionResultRetention;
+
+    @Value("${app.pending-sessions.max-entries}")
+    private int pendingSessionMaxEntries;
+
+    @Value("${app.pending-sessions.max-bytes}")
+    private DataSize pendingSessionMaxBytes;
+
     @Bean
     public SmartIdClient smartIdClient() throws Exception {
-        InputStream is = Config.class.getResourceAsStream(sidTrustedServerSslCertsFilename);
+        InputStream is = resourceLoader.getResource(sidTrustedServerSslCertsFilename).getInputStream();
         KeyStore trustStore = KeyStore.getInstance("PKCS12");
         trustStore.load(is, sidTrustedServerSslCertsPassword.toCharArray());
 
@@ -76,15 +203,62 @@ public class Config {
         client.setRelyingPartyName(sidRelyingPartyName);
         client.setHostUrl(sidApplicationProviderHost);
         client.setTrustStore(trustStore);
+        // JFR events of Smart-ID API requests, see FlightRecordingEndpoint
+        client.setNetworkConnectionConfig(new ClientConfig().register(new SmartIdRequestEventFilter()));
+        // long poll timeout of a single session status request, see SmartIdSessionPollerImpl
+        client.setSessionStatusResponseSocketOpenTime(TimeUnit.MILLISECONDS, sidSessionStatusSocketOpenTime.toMillis());
 
         return client;
     }
 
+    /**
+     * Pending session state, shared by all nodes when file store is on shared storage.
+     */
+    @Bean
+    public PendingSessionStore pendingSessionStore(MeterRegistry meterRegistry) {
+        // started sessions are kept until the user has seen the result,
+        // at most until the Smart-ID session has timed out and the result retention period has passed
+        Duration ttl = sessionTimeout.plus(pendingSessionResultRetention);
+        return switch (pendingSessionStoreType) {
+            case "memory" -> new InMemoryPendingSessionStore("memory", ttl, pendingSessionMaxEntries, pendingSessionMaxBytes.toBytes(), meterRegistry);
+            case "file" -> new FilePendingSessionStore("file", Paths.get(pendingSessionDirectory), ttl, meterRegistry);
+            default -> throw new IllegalArgumentException("Unknown app.pending-sessions.store " + pendingSessionStoreType);
+        };
+    }
+
+    /**
+     * Signed containers by content digest, see ShardedContainerStorage.
+     */
+    @Bean
+    public ContainerStorage containerStorage(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        return new ShardedContainerStorage(Paths.get(signedFilesDirectory), signedFilesFsync, signedFilesReplacedRetention, objectMapper,
+                meterRegistry);
+    }
+
+    /**
+     * ASiC-E with stored entries for already compressed documents, see AsicContainerWriter.
+     */
+    @Bean
+    public AsicContainerWriter containerWriter() {
+        return new AsicContainerWriter(containerWriterEnabled, containerWriterCompressionLevel, containerWriterEntropyThreshold);
+    }
+
+    @Bean
+    public PendingSessions<SigningSessionInfo, SigningResult> signingSessions(PendingSessionStore pendingSessionStore,
+                                                                              SmartIdSignatureService signatureService,
+                                                                              TaskScheduler taskScheduler) {
+        return new PendingSessions<>("signing", pendingSessionStore, new SigningSessionCodec(), signatureService::sign,
+                signatureService::cancel, taskScheduler, pendingSessionResultCheckInterval);
+    }
+
     @Bean
-    @Scope(value = WebApplicationContext.SCOPE_SESSION,
-            proxyMode = ScopedProxyMode.TARGET_CLASS)
-    public UserSidSession userSessionSigning() {
-        return new UserSidSession();
+    public PendingSessions<AuthenticationSessionInfo, AuthenticationIdentity> authenticationSessions(PendingSessionStore pendingSessionStore,
+                                                                                                     SmartIdAuthenticationService authenticationService,
+                                                                                                     TaskScheduler taskScheduler) {
+        // authentication has no side effects, every node following the session may complete it
+        return new PendingSessions<>("authentication", pendingSessionStore, new AuthenticationSessionCodec(),
+                (sessionInfo, claim) -> authenticationService.authenticate(sessionInfo), authenticationService::cancel,
+                taskScheduler, pendingSessionResultCheckInterval);
     }
 
     @Bean
@@ -92,7 +266,7 @@ public class Config {
 
         List<X509Certificate> certificates = new ArrayList<>();
 
-        InputStream is = Config.class.getResourceAsStream(sidTrustedRootCertsFilename);
+        InputStream is = resourceLoader.getResource(sidTrustedRootCertsFilename).getInputStream();
 
         KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
         keystore.load(is, sidTrustedRootCertsPassword.toCharArray());
@@ -107,4 +281,119 @@ public class Config {
         return new AuthenticationResponseValidator(certificates.toArray(new X509Certificate[0]));
     }
 
+    /**
+     * Single digidoc4j configuration shared by all signatures.
+     * TSL is refreshed by {@link ee.sk.siddemo.services.TrustedListService},
+     * cache expiration is kept above the refresh interval so that digidoc4j never reloads it lazily on a request thread.
+     * Time-stamp and OCSP requests of all signatures share one digidoc4j loader per service, see CoalescingDataLoader.
+     */
+    @Bean
+    @Primary
+    public org.digidoc4j.Configuration digiDocConfiguration(MeterRegistry meterRegistry) {
+        var configuration = new org.digidoc4j.Configuration(digiDocMode);
+        configuration.setTslCacheExpirationTime(tslRefreshInterval.multipliedBy(2).toMillis());
+        if (coalescingDataLoaders) {
+            configuration.setOcspDataLoaderFactory(new CoalescingDataLoaderFactory("ocsp", ocspLoader(configuration), meterRegistry));
+            var tspLoader = new SkTimestampDataLoader(configuration);
+            tspLoader.setUserAgent(Helper.createBDocUserAgent(signatureProfile));
+            configuration.setTspDataLoaderFactory(new CoalescingDataLoaderFactory("tsp", tspLoader, meterRegistry));
+        }
+        return configuration;
+    }
+
+    /**
+     * Configuration of containers opened for validation, shares the trusted list of digiDocConfiguration.
+     * OCSP responses are reused until their nextUpdate, see OcspResponseCache. Signing does not use the cache,
+     * an LT signature needs an OCSP response produced after its time-stamp.
+     */
+    @Bean
+    public org.digidoc4j.Configuration validationConfiguration(org.digidoc4j.Configuration digiDocConfiguration,
+                                                               MeterRegistry meterRegistry) {
+        var configuration = new org.digidoc4j.Configuration(digiDocMode);
+        // the same instance, refreshed by TrustedListService
+        configuration.setTSL(digiDocConfiguration.getTSL());
+        if (coalescingDataLoaders) {
+            var ocspLoaders = new CoalescingDataLoaderFactory("ocsp", ocspLoader(configuration), meterRegistry);
+            if (ocspCacheEnabled) {
+                var cache = new OcspResponseCache(ocspCacheTtlWithoutNextUpdate, ocspCacheMaxTtl, ocspCacheMaxEntries,
+                        ocspCacheDirectory.isBlank() ? null : Paths.get(ocspCacheDirectory), meterRegistry);
+                configuration.setOcspDataLoaderFactory(() -> new CachingOcspDataLoader(ocspLoaders.create(), cache, meterRegistry));
+            } else {
+                configuration.setOcspDataLoaderFactory(ocspLoaders);
+            }
+        }
+        return configuration;
+    }
+
+    private SkOCSPDataLoader ocspLoader(org.digidoc4j.Configuration configuration) {
+        // digidoc4j sets the User-Agent only on loaders it creates itself
+        var ocspLoader = new SkOCSPDataLoader(configuration);
+        ocspLoader.setUserAgent(Helper.createBDocUserAgent(signatureProfile));
+        return ocspLoader;
+    }
+
+    /**
+     * Sends session status requests for {@link ee.sk.siddemo.services.SmartIdSessionPoller},
+     * each request holds a thread for at most sid.client.session-status-socket-open-time.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor sessionStatusExecutor() {
+        return boundedExecutor("sid-poll-", pollerRequestThreads, 0);
+    }
+
+    /**
+     * Fetches signing certificates in parallel with container construction, see SmartIdSignatureServiceImpl.sendSignatureRequest.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor certificateExecutor() {
+        return boundedExecutor("sid-certificate-", signCertificateThreads, signStageQueueCapacity);
+    }
+
+    /*
+     * Signing pipeline stages after the Smart-ID session has completed, see SmartIdSignatureServiceImpl.sign.
+     * Queue depth of each stage is published by Spring Boot as executor.queued{name=...} metric.
+     */
+
+    @Bean
+    public ThreadPoolTaskExecutor signingFinalizeExecutor() {
+        return boundedExecutor("sid-sign-finalize-", signFinalizeThreads, signStageQueueCapacity);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor signingStorageExecutor() {
+        return boundedExecutor("sid-sign-storage-", signStorageThreads, signStageQueueCapacity);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor signingValidationExecutor() {
+        return boundedExecutor("sid-sign-validation-", signValidationThreads, signStageQueueCapacity);
+    }
+
+    /**
+     * Extends B level signatures to the configured profile, see SignatureAugmentationServiceImpl.
+     * At most one batch is queued, the scheduler does not hand out more than batch-size containers at a time.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor augmentationExecutor() {
+        return boundedExecutor("sid-augment-", augmentationThreads, augmentationBatchSize);
+    }
+
+    /**
+     * Scheduled trusted list refresh, see TrustedListServiceImpl. Nothing is queued, a refresh that is due
+     * while the previous one still runs is skipped.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor trustedListExecutor() {
+        return boundedExecutor("sid-tsl-", 1, 0);
+    }
+
+    private static ThreadPoolTaskExecutor boundedExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        return executor;
+    }
+
 }
@@ -0,0 +1,224 @@
+package ee.sk.siddemo.asic;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.digidoc4j.Container;
+import org.digidoc4j.DataFile;
+import org.digidoc4j.Signature;
+
+/**
+ * Writes ASiC-E containers with the compression method chosen per data file, digidoc4j deflates every file.
+ * <p>
+ * Documents that are already compressed (JPEG, PNG, ZIP based office formats, most PDFs) do not get smaller
+ * when deflated again, they are STORED. The decision is made by media type where it is known to be compressed
+ * or plain text, otherwise by the byte entropy of the first 64 KiB. Data files are streamed from their source
+ * straight into the output, a stored file is read twice (CRC first) instead of being buffered.
+ * <p>
+ * The layout is the one digidoc4j writes: mimetype (stored, first), data files, META-INF/manifest.xml and
+ * META-INF/signatures{n}.xml. Signatures cover the data file content and not the ZIP encoding, so the choice of
+ * compression method does not affect them. Containers of other types are written by digidoc4j.
+ * <p>
+ * Only for containers built by this application from data files and signatures. A container opened from a file may have
+ * entries this writer does not know about (other META-INF files, ZIP comment), it is saved by digidoc4j, which keeps them.
+ * <p>
+ * Depends on digidoc4j and the JDK only, the benchmarks project compiles it as is.
+ */
+public class AsicContainerWriter {
+
+    public static final String MIMETYPE = "application/vnd.etsi.asic-e+zip";
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    // compression does not pay off for smaller files either way
+    private static final int MIN_SAMPLE_SIZE = 512;
+
+    private static final Set<String> COMPRESSED_MEDIA_TYPES = Set.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/heic",
+            "application/zip", "application/gzip", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/vnd.etsi.asic-e+zip", "application/vnd.etsi.asic-s+zip",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.oasis.opendocument.text", "application/vnd.oasis.opendocument.spreadsheet",
+            "application/vnd.oasis.opendocument.presentation");
+
+    private final boolean enabled;
+    private final int compressionLevel;
+    private final double entropyThreshold;
+
+    /**
+     * @param enabled          false leaves writing to digidoc4j (Container.save)
+     * @param compressionLevel 0-9 or -1 (Deflater.DEFAULT_COMPRESSION) for deflated entries
+     * @param entropyThreshold bits per byte (0-8) above which a data file of unknown type is stored
+     */
+    public AsicContainerWriter(boolean enabled, int compressionLevel, double entropyThreshold) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+        }
+        this.enabled = enabled;
+        this.compressionLevel = compressionLevel;
+        this.entropyThreshold = entropyThreshold;
+    }
+
+    /**
+     * Writes the container without closing the stream.
+     */
+    public void write(Container container, OutputStream out) throws IOException {
+        if (!enabled || !Container.DocumentType.ASICE.name().equals(container.getType())) {
+            container.save(out);
+            return;
+        }
+
+        var zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        zip.setLevel(compressionLevel);
+
+        byte[] mimetype = MIMETYPE.getBytes(StandardCharsets.US_ASCII);
+        zip.putNextEntry(storedEntry("mimetype", mimetype.length, crc(mimetype)));
+        zip.write(mimetype);
+        zip.closeEntry();
+
+        for (DataFile dataFile : container.getDataFiles()) {
+            writeDataFile(zip, dataFile);
+        }
+
+        zip.putNextEntry(deflatedEntry("META-INF/manifest.xml"));
+        zip.write(manifest(container.getDataFiles()).getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+
+        List<Signature> signatures = container.getSignatures();
+        for (int i = 0; i < signatures.size(); i++) {
+            zip.putNextEntry(deflatedEntry("META-INF/signatures" + i + ".xml"));
+            zip.write(signatures.get(i).getAdESSignature());
+            zip.closeEntry();
+        }
+
+        // central directory, the underlying stream belongs to the caller
+        zip.finish();
+    }
+
+    /**
+     * @return ZipEntry.STORED or ZipEntry.DEFLATED
+     */
+    public int compressionMethod(DataFile dataFile) throws IOException {
+        String mediaType = dataFile.getMediaType() == null ? "" : dataFile.getMediaType().toLowerCase();
+        if (COMPRESSED_MEDIA_TYPES.contains(mediaType) || mediaType.startsWith("video/") || mediaType.startsWith("audio/")) {
+            return ZipEntry.STORED;
+        }
+        if (mediaType.startsWith("text/") || mediaType.endsWith("/xml") || mediaType.endsWith("+xml") || mediaType.endsWith("/json")) {
+            return ZipEntry.DEFLATED;
+        }
+        byte[] sample;
+        try (InputStream in = dataFile.getStream()) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        }
+        return sample.length >= MIN_SAMPLE_SIZE && entropy(sample) > entropyThreshold ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    }
+
+    private void writeDataFile(ZipOutputStream zip, DataFile dataFile) throws IOException {
+        if (compressionMethod(dataFile) == ZipEntry.STORED) {
+            // size and CRC go into the local header before the content
+            var crc = new CRC32();
+            long size = 0;
+            var buffer = new byte[8192];
+            try (InputStream in = dataFile.getStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+            zip.putNextEntry(storedEntry(dataFile.getName(), size, crc.getValue()));
+        } else {
+            zip.putNextEntry(deflatedEntry(dataFile.getName()));
+        }
+        try (InputStream in = dataFile.getStream()) {
+            in.transferTo(zip);
+        }
+        zip.closeEntry();
+    }
+
+    /**
+     * Shannon entropy in bits per byte, 8 for random or compressed data, around 4-5 for text.
+     */
+    static double entropy(byte[] sample) {
+        var counts = new int[256];
+        for (byte b : sample) {
+            counts[b & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / sample.length;
+                entropy -= p * (Math.log(p) / Math.log(2));
+            }
+        }
+        return entropy;
+    }
+
+    private static String manifest(List<DataFile> dataFiles) {
+        var manifest = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\" ?>\n")
+                .append("<manifest:manifest xmlns:manifest=\"urn:oasis:names:tc:opendocument:xmlns:manifest:1.0\" manifest:version=\"1.2\">\n")
+                .append("<manifest:file-entry manifest:full-path=\"/\" manifest:media-type=\"").append(MIMETYPE).append("\"/>\n");
+        for (DataFile dataFile : dataFiles) {
+            manifest.append("<manifest:file-entry manifest:full-path=\"").append(escape(dataFile.getName()))
+                    .append("\" manifest:media-type=\"").append(escape(dataFile.getMediaType())).append("\"/>\n");
+        }
+        return manifest.append("</manifest:manifest>").toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    private static ZipEntry storedEntry(String name, long size, long crc) {
+        var entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        return entry;
+    }
+
+    private static ZipEntry deflatedEntry(String name) {
+        var entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        return entry;
+    }
+
+    private static long crc(byte[] content) {
+        var crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,188 @@
+package ee.sk.siddemo.controller;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import ee.sk.siddemo.services.SignatureAugmentationService;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves stored containers. On Tomcat the file is handed to the connector with the sendfile request attributes and
+ * written to the socket by the kernel without passing through the heap. Elsewhere the file is opened before the headers
+ * are written and transferred to the servlet output stream, which is not a channel, so FileChannel.transferTo copies it
+ * through a heap buffer. Single byte ranges are supported so that large downloads can be resumed.
+ * <p>
+ * Storage keeps content replaced by an extended signature for a while, a download of the entry looked up here
+ * is not cut short by augmentation finishing in the meantime.
+ * <p>
+ * The container id is the SHA-256 digest of its content and cannot be guessed, knowing it is what allows the download.
+ */
+@RestController
+public class ContainerDownloadController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final MediaType ASICE = MediaType.parseMediaType("application/vnd.etsi.asic-e+zip");
+
+    @Value("${app.download.cache-max-age}")
+    private Duration cacheMaxAge;
+
+    private final ContainerStorage containerStorage;
+    private final SignatureAugmentationService augmentationService;
+
+    public ContainerDownloadController(ContainerStorage containerStorage, SignatureAugmentationService augmentationService) {
+        this.containerStorage = containerStorage;
+        this.augmentationService = augmentationService;
+    }
+
+    @GetMapping(value = "/signature/container/{container}")
+    public void download(@PathVariable String container, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StoredContainer stored = containerStorage.find(container);
+        if (stored == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        // content changes only when the signature is extended, then the digest and the ETag change too
+        String etag = "\"" + stored.digest() + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(container).getHeaderValue());
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+
+        boolean sendfile = Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT));
+        Path path = containerStorage.resolve(stored);
+        try (FileChannel file = sendfile ? null : FileChannel.open(path, StandardOpenOption.READ)) {
+            send(stored, etag, path, file, request, response);
+        }
+    }
+
+    /**
+     * @param file open container file or null to send it with sendfile
+     */
+    private static void send(StoredContainer stored, String etag, Path path, FileChannel file, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        long size = stored.size();
+        long start = 0;
+        long end = size - 1;
+        HttpRange range = range(request, etag);
+        if (range != null) {
+            if (size == 0 || range.getRangeStart(size) >= size) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            start = range.getRangeStart(size);
+            end = range.getRangeEnd(size);
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        }
+
+        response.setContentType((stored.isDetached() ? MediaType.APPLICATION_XML : ASICE).toString());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(stored.id() + "." + stored.extension())
+                .build()
+                .toString());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentLengthLong(end - start + 1);
+
+        if ("HEAD".equals(request.getMethod()) || size == 0) {
+            return;
+        }
+        if (file == null) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else {
+            transfer(file, start, end - start + 1, response);
+        }
+    }
+
+    /**
+     * @return null to send the whole container: no Range header, If-Range of an older version or several ranges
+     */
+    private static HttpRange range(HttpServletRequest request, String etag) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            // malformed Range header is ignored
+            return null;
+        }
+    }
+
+    // extended signature replaces the content, until then the browser must check the ETag
+    private CacheControl cacheControl(String container) {
+        if (augmentationService.isQueued(container)) {
+            return CacheControl.noCache().cachePrivate();
+        }
+        return CacheControl.maxAge(cacheMaxAge).cachePrivate();
+    }
+
+    private static void transfer(FileChannel file, long position, long count, HttpServletResponse response) throws IOException {
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        long transferred = 0;
+        while (transferred < count) {
+            long written = file.transferTo(position + transferred, count - transferred, out);
+            if (written <= 0) {
+                // file is shorter than its index entry says
+                break;
+            }
+            transferred += written;
+        }
+    }
+}
@@ -22,28 +22,48 @@ package ee.sk.siddemo.controller;
  * #L%
  */
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.ui.ModelMap;
 import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import ee.sk.siddemo.exception.FileUploadException;
+import ee.sk.siddemo.exception.ServiceBusyException;
 import ee.sk.siddemo.exception.SidOperationException;
+import ee.sk.siddemo.model.AugmentationStatus;
 import ee.sk.siddemo.model.AuthenticationSessionInfo;
 import ee.sk.siddemo.model.SigningResult;
 import ee.sk.siddemo.model.SigningSessionInfo;
 import ee.sk.siddemo.model.UserRequest;
-import ee.sk.siddemo.model.UserSidSession;
+import ee.sk.siddemo.model.ValidationReport;
+import ee.sk.siddemo.services.SignatureAugmentationService;
+import ee.sk.siddemo.services.SignatureValidationService;
 import ee.sk.siddemo.services.SmartIdAuthenticationService;
 import ee.sk.siddemo.services.SmartIdSignatureService;
+import ee.sk.siddemo.store.PendingSessions;
 import ee.sk.smartid.AuthenticationIdentity;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 
 @RestController
@@ -51,15 +71,27 @@ public class SmartIdController {
 
     private static final Logger logger = LoggerFactory.getLogger(SmartIdController.class);
 
+    private static final String SIGNING_SESSION_COOKIE = "SID_SIGNING_SESSION";
+    private static final String AUTHENTICATION_SESSION_COOKIE = "SID_AUTHENTICATION_SESSION";
+
     private final SmartIdSignatureService signatureService;
     private final SmartIdAuthenticationService authenticationService;
-    private final UserSidSession userSidSession;
+    private final PendingSessions<SigningSessionInfo, SigningResult> signingSessions;
+    private final PendingSessions<AuthenticationSessionInfo, AuthenticationIdentity> authenticationSessions;
+    private final SignatureAugmentationService augmentationService;
+    private final SignatureValidationService validationService;
 
     @Autowired
-    public SmartIdController(SmartIdSignatureService signatureService, SmartIdAuthenticationService authenticationService, UserSidSession userSidSession) {
+    public SmartIdController(SmartIdSignatureService signatureService, SmartIdAuthenticationService authenticationService,
+                             PendingSessions<SigningSessionInfo, SigningResult> signingSessions,
+                             PendingSessions<AuthenticationSessionInfo, AuthenticationIdentity> authenticationSessions,
+                             SignatureAugmentationService augmentationService, SignatureValidationService validationService) {
         this.signatureService = signatureService;
         this.authenticationService = authenticationService;
-        this.userSidSession = userSidSession; // session scope, autowired
+        this.signingSessions = signingSessions;
+        this.authenticationSessions = authenticationSessions;
+        this.augmentationService = augmentationService;
+        this.validationService = validationService;
     }
 
     @GetMapping(value = "/")
@@ -69,7 +101,9 @@ public class SmartIdController {
 
     @PostMapping(value = "/signatureRequest")
     public ModelAndView sendSignatureRequest(@ModelAttribute("userRequest") UserRequest userRequest,
-                                             BindingResult bindingResult, ModelMap model) {
+                                             BindingResult bindingResult, ModelMap model,
+                                             @CookieValue(name = SIGNING_SESSION_COOKIE, required = false) String signingSessionKey,
+                                             HttpServletResponse response) {
 
         if (userRequest.getFile() == null || userRequest.getFile().getOriginalFilename() == null || userRequest.getFile().isEmpty()) {
             bindingResult.rejectValue("file", "error.file", "Please select a file to upload");
@@ -81,52 +115,256 @@ public class SmartIdController {
 
         SigningSessionInfo signingSessionInfo = signatureService.sendSignatureRequest(userRequest);
 
-        userSidSession.setSigningSessionInfo(signingSessionInfo);
+        // Smart-ID session is started right away, the page follows it through /signature/events
+        startSigning(signingSessionInfo, signingSessionKey, response);
 
         model.addAttribute("signingSessionInfo", signingSessionInfo);
 
         return new ModelAndView("/signature", model);
     }
 
-    @PostMapping(value = "/sign")
-    public ModelAndView sign(ModelMap model) {
+    @PostMapping(value = "/hashSignatureRequest")
+    public ModelAndView sendHashSignatureRequest(@ModelAttribute("userRequest") UserRequest userRequest,
+                                                 BindingResult bindingResult, ModelMap model,
+                                                 @CookieValue(name = SIGNING_SESSION_COOKIE, required = false) String signingSessionKey,
+                                                 HttpServletResponse response) {
 
-        SigningResult signingResult = signatureService.sign(userSidSession.getSigningSessionInfo());
+        if (userRequest.getFileName() == null || userRequest.getFileName().isBlank()) {
+            bindingResult.rejectValue("fileName", "error.fileName", "Please enter file name");
+        }
+        if (userRequest.getMimeType() == null || userRequest.getMimeType().isBlank()) {
+            bindingResult.rejectValue("mimeType", "error.mimeType", "Please enter MIME type");
+        }
+        if (!"SHA256".equals(userRequest.getDigestAlgorithm()) && !"SHA512".equals(userRequest.getDigestAlgorithm())) {
+            bindingResult.rejectValue("digestAlgorithm", "error.digestAlgorithm", "Digest algorithm must be SHA256 or SHA512");
+        }
+        if (userRequest.getDigest() == null || userRequest.getDigest().isBlank()) {
+            bindingResult.rejectValue("digest", "error.digest", "Please enter digest of the file");
+        }
 
-        userSidSession.clearSigningSession();
+        if (bindingResult.hasErrors()) {
+            return new ModelAndView("index", "userRequest", userRequest);
+        }
+
+        SigningSessionInfo signingSessionInfo = signatureService.sendHashSignatureRequest(userRequest);
+
+        startSigning(signingSessionInfo, signingSessionKey, response);
+
+        model.addAttribute("signingSessionInfo", signingSessionInfo);
+
+        return new ModelAndView("/signature", model);
+    }
+
+    @GetMapping(value = "/signature/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter signatureEvents(@CookieValue(name = SIGNING_SESSION_COOKIE, required = false) String signingSessionKey) {
+        return sessionEvents(signingSessions.result(signingSessionKey), "/signingResult");
+    }
+
+    @GetMapping(value = "/signingResult")
+    public ModelAndView signingResult(ModelMap model,
+                                      @CookieValue(name = SIGNING_SESSION_COOKIE, required = false) String signingSessionKey,
+                                      HttpServletResponse response) {
+        SigningResult signingResult = completedResult(signingSessions.result(signingSessionKey));
+        signingSessions.remove(signingSessionKey);
+        setSessionCookie(response, SIGNING_SESSION_COOKIE, null);
 
         model.addAttribute("signingResult", signingResult);
 
         return new ModelAndView("signingResult", model);
     }
 
+    /**
+     * Long poll alternative to /signature/events for browsers without JavaScript.
+     */
+    @PostMapping(value = "/sign")
+    public DeferredResult<ModelAndView> sign(ModelMap model,
+                                             @CookieValue(name = SIGNING_SESSION_COOKIE, required = false) String signingSessionKey,
+                                             HttpServletResponse response) {
+        CompletableFuture<SigningResult> signingResult = pendingSession(signingSessions.result(signingSessionKey));
+
+        return toDeferredResult(signingResult, () -> {
+            signingSessions.remove(signingSessionKey);
+            setSessionCookie(response, SIGNING_SESSION_COOKIE, null);
+        }, result -> {
+            model.addAttribute("signingResult", result);
+            return new ModelAndView("signingResult", model);
+        });
+    }
+
+    /**
+     * Progress of extending a container signed at B level, see app.sign.deferred-augmentation.
+     */
+    @GetMapping(value = "/signature/augmentation/{container}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<AugmentationStatus> augmentationStatus(@PathVariable String container) {
+        AugmentationStatus status = augmentationService.getStatus(container);
+        return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+    }
+
+    /**
+     * Validation report of a signed container, PENDING while it is being validated, see app.sign.validation.
+     */
+    @GetMapping(value = "/signature/validation/{container}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ValidationReport> validationReport(@PathVariable String container) {
+        ValidationReport report = validationService.getReport(container);
+        return report == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(report);
+    }
+
     @PostMapping(value = "/authenticationRequest")
     public ModelAndView sendAuthenticationRequest(@ModelAttribute("userRequest") @Valid UserRequest userRequest,
-                                                  BindingResult bindingResult, ModelMap model) {
+                                                  BindingResult bindingResult, ModelMap model,
+                                                  @CookieValue(name = AUTHENTICATION_SESSION_COOKIE, required = false) String authenticationSessionKey,
+                                                  HttpServletResponse response) {
 
         if (bindingResult.hasErrors()) {
-            System.out.println("Input validation error");
+            logger.debug("Input validation error: {}", bindingResult.getAllErrors());
             return new ModelAndView("index", "userRequest", userRequest);
         }
 
+        // Smart-ID session is started right away, the page follows it through /authentication/events
         AuthenticationSessionInfo authenticationSessionInfo = authenticationService.startAuthentication(userRequest);
-        userSidSession.setAuthenticationSessionInfo(authenticationSessionInfo);
+        // an authentication started earlier in the same browser is not followed anymore
+        authenticationSessions.remove(authenticationSessionKey);
+        setSessionCookie(response, AUTHENTICATION_SESSION_COOKIE, authenticationSessions.start(authenticationSessionInfo));
 
         model.addAttribute("verificationCode", authenticationSessionInfo.getVerificationCode());
 
         return new ModelAndView("/authentication", model);
     }
 
-    @PostMapping(value = "/authenticate")
-    public ModelAndView authenticate(ModelMap model) {
-        AuthenticationIdentity person = authenticationService.authenticate(userSidSession.getAuthenticationSessionInfo());
-        model.addAttribute("person", person);
+    @GetMapping(value = "/authentication/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter authenticationEvents(
+            @CookieValue(name = AUTHENTICATION_SESSION_COOKIE, required = false) String authenticationSessionKey) {
+        return sessionEvents(authenticationSessions.result(authenticationSessionKey), "/authenticationResult");
+    }
+
+    @GetMapping(value = "/authenticationResult")
+    public ModelAndView authenticationResult(ModelMap model,
+                                             @CookieValue(name = AUTHENTICATION_SESSION_COOKIE, required = false) String authenticationSessionKey,
+                                             HttpServletResponse response) {
+        AuthenticationIdentity person = completedResult(authenticationSessions.result(authenticationSessionKey));
+        authenticationSessions.remove(authenticationSessionKey);
+        setSessionCookie(response, AUTHENTICATION_SESSION_COOKIE, null);
 
-        userSidSession.clearAuthenticationSessionInfo();
+        model.addAttribute("person", person);
 
         return new ModelAndView("authenticationResult", model);
     }
 
+    /**
+     * Long poll alternative to /authentication/events for browsers without JavaScript.
+     */
+    @PostMapping(value = "/authenticate")
+    public DeferredResult<ModelAndView> authenticate(ModelMap model,
+                                                     @CookieValue(name = AUTHENTICATION_SESSION_COOKIE, required = false) String authenticationSessionKey,
+                                                     HttpServletResponse response) {
+        CompletableFuture<AuthenticationIdentity> person = pendingSession(authenticationSessions.result(authenticationSessionKey));
+
+        return toDeferredResult(person, () -> {
+            authenticationSessions.remove(authenticationSessionKey);
+            setSessionCookie(response, AUTHENTICATION_SESSION_COOKIE, null);
+        }, result -> {
+            model.addAttribute("person", result);
+            return new ModelAndView("authenticationResult", model);
+        });
+    }
+
+    private void startSigning(SigningSessionInfo signingSessionInfo, String previousSessionKey, HttpServletResponse response) {
+        // a signing started earlier in the same browser is not followed anymore
+        signingSessions.remove(previousSessionKey);
+        setSessionCookie(response, SIGNING_SESSION_COOKIE, signingSessions.start(signingSessionInfo));
+    }
+
+    /**
+     * Session key travels with the browser instead of the HTTP session so that any node can serve the next request.
+     */
+    private static void setSessionCookie(HttpServletResponse response, String name, String sessionKey) {
+        var cookie = new Cookie(name, sessionKey);
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setAttribute("SameSite", "Lax");
+        cookie.setMaxAge(sessionKey == null ? 0 : -1);
+        response.addCookie(cookie);
+    }
+
+    /**
+     * Streams RUNNING when the browser connects and COMPLETE or ERROR once the session ends.
+     * No thread is held while waiting, the event is sent from the thread that completes the session.
+     */
+    private SseEmitter sessionEvents(CompletableFuture<?> pending, String resultUrl) {
+        var emitter = new SseEmitter();
+
+        if (pending == null) {
+            sendEvent(emitter, "ERROR", Map.of("state", "ERROR", "message", "No Smart-ID session in progress", "resultUrl", resultUrl));
+            emitter.complete();
+            return emitter;
+        }
+
+        sendEvent(emitter, "RUNNING", Map.of("state", "RUNNING"));
+
+        pending.whenComplete((result, exception) -> {
+            if (exception != null) {
+                sendEvent(emitter, "ERROR", Map.of("state", "ERROR", "message", String.valueOf(unwrap(exception).getMessage()),
+                        "resultUrl", resultUrl));
+            } else {
+                sendEvent(emitter, "COMPLETE", Map.of("state", "COMPLETE", "resultUrl", resultUrl));
+            }
+            emitter.complete();
+        });
+
+        return emitter;
+    }
+
+    private static void sendEvent(SseEmitter emitter, String name, Map<String, String> data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // browser has closed the connection, it will reconnect if still on the page
+            logger.debug("Could not send {} event", name, e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> pendingSession(CompletableFuture<T> pending) {
+        if (pending == null) {
+            throw new SidOperationException("No Smart-ID session in progress");
+        }
+        return pending;
+    }
+
+    private static <T> T completedResult(CompletableFuture<T> pending) {
+        if (!pendingSession(pending).isDone()) {
+            throw new SidOperationException("Smart-ID session has not completed yet");
+        }
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            throw unwrap(e) instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    private static Throwable unwrap(Throwable exception) {
+        return exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+    }
+
+    /**
+     * @param completed runs once the session has ended, before the result is dispatched and the response is written
+     */
+    private static <T> DeferredResult<ModelAndView> toDeferredResult(CompletableFuture<T> future, Runnable completed,
+                                                                     Function<T, ModelAndView> view) {
+        var deferredResult = new DeferredResult<ModelAndView>();
+
+        future.whenComplete((result, exception) -> {
+            completed.run();
+            if (exception != null) {
+                // dispatched back to the exception handlers below
+                deferredResult.setErrorResult(unwrap(exception));
+            } else {
+                deferredResult.setResult(view.apply(result));
+            }
+        });
+
+        return deferredResult;
+    }
+
     @ExceptionHandler(FileUploadException.class)
     public ModelAndView handleFileUploadException(FileUploadException exception) {
         var model = new ModelMap();
@@ -136,6 +374,15 @@ public class SmartIdController {
         return new ModelAndView("sidOperationError", model);
     }
 
+    @ExceptionHandler(ServiceBusyException.class)
+    public ModelAndView handleServiceBusyException(ServiceBusyException exception) {
+        var model = new ModelMap();
+
+        model.addAttribute("errorMessage", exception.getMessage());
+
+        return new ModelAndView("sidOperationError", model, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(SidOperationException.class)
     public ModelAndView handleSidOperationException(SidOperationException exception) {
         var model = new ModelMap();
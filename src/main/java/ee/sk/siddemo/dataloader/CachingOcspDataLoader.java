@@ -0,0 +1,103 @@
+package ee.sk.siddemo.dataloader;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.Req;
+
+import eu.europa.esig.dss.spi.client.http.DataLoader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * OCSP data loader that answers from {@link OcspResponseCache} and fills it with the responses of the delegate.
+ * <p>
+ * Only requests for a single certificate without nonce are cached. A nonce must be echoed in the response,
+ * digidoc4j uses one where the responder supports it to prove that the response was produced for this
+ * signature, after its time-stamp. Such requests always go to the responder.
+ */
+public class CachingOcspDataLoader implements DataLoader {
+
+    private final DataLoader delegate;
+    private final OcspResponseCache cache;
+    private final Counter bypassed;
+
+    public CachingOcspDataLoader(DataLoader delegate, OcspResponseCache cache, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.bypassed = Counter.builder("sid.demo.ocsp.cache.lookups")
+                .tag("result", "bypass")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public byte[] get(String url) {
+        return delegate.get(url);
+    }
+
+    @Override
+    public DataAndUrl get(List<String> urlStrings) {
+        return delegate.get(urlStrings);
+    }
+
+    @Override
+    public byte[] post(String url, byte[] content) {
+        CertificateID certificateId = cacheableCertificate(content);
+        if (certificateId == null) {
+            bypassed.increment();
+            return delegate.post(url, content);
+        }
+
+        byte[] cached = cache.get(certificateId);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] response = delegate.post(url, content);
+        cache.put(certificateId, response);
+        return response;
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+        delegate.setContentType(contentType);
+    }
+
+    private static CertificateID cacheableCertificate(byte[] content) {
+        try {
+            var request = new OCSPReq(content);
+            Req[] certificates = request.getRequestList();
+            if (certificates.length != 1 || request.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce) != null) {
+                return null;
+            }
+            return certificates[0].getCertID();
+        } catch (IOException e) {
+            // not an OCSP request, left to the responder to reject
+            return null;
+        }
+    }
+}
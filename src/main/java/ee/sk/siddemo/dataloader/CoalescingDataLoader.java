@@ -0,0 +1,147 @@
+package ee.sk.siddemo.dataloader;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.spi.client.http.DataLoader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Data loader of the time-stamping authority and OCSP responder.
+ * <p>
+ * Requests are sent by the digidoc4j loader of the service, which applies the proxy, SSL and User-Agent settings
+ * of the configuration. All signatures share that loader instead of getting one each.
+ * A request that is identical (same URL and body) to one already in flight is not sent again,
+ * the caller waits for the response of the first one. Only OCSP requests without nonce can be identical,
+ * time-stamp requests differ by the signature value they cover.
+ */
+public class CoalescingDataLoader implements DataLoader {
+
+    private final String name;
+    private final DataLoader delegate;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param name     loader tag of the request metrics, ocsp or tsp
+     * @param delegate sends the requests, SkOCSPDataLoader or SkTimestampDataLoader created from the configuration
+     */
+    public CoalescingDataLoader(String name, DataLoader delegate, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public byte[] get(String url) {
+        return load(url, null);
+    }
+
+    @Override
+    public DataAndUrl get(List<String> urlStrings) {
+        DSSException lastException = null;
+        for (String url : urlStrings) {
+            try {
+                return new DataAndUrl(url, get(url));
+            } catch (DSSException e) {
+                lastException = e;
+            }
+        }
+        throw lastException != null ? lastException : new DSSException("No URL to load");
+    }
+
+    @Override
+    public byte[] post(String url, byte[] content) {
+        return load(url, content);
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+        delegate.setContentType(contentType);
+    }
+
+    private byte[] load(String url, byte[] content) {
+        String key = content == null ? url : url + " " + sha256(content);
+        var request = new CompletableFuture<byte[]>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, request);
+        if (existing != null) {
+            count("coalesced");
+            return await(url, existing);
+        }
+
+        try {
+            request.complete(send(url, content));
+            count("sent");
+        } catch (RuntimeException e) {
+            request.completeExceptionally(e);
+            count("error");
+        } finally {
+            // later identical requests go to the service again, responses are not cached here
+            inFlight.remove(key, request);
+        }
+        return await(url, request);
+    }
+
+    private byte[] send(String url, byte[] content) {
+        return content == null ? delegate.get(url) : delegate.post(url, content);
+    }
+
+    private static byte[] await(String url, CompletableFuture<byte[]> request) {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DSSException("Interrupted while waiting for " + url, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DSSException cause) {
+                throw cause;
+            }
+            throw new DSSException("Request to " + url + " failed", e.getCause());
+        }
+    }
+
+    private void count(String result) {
+        Counter.builder("sid.demo.dataloader.requests")
+                .tag("loader", name)
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
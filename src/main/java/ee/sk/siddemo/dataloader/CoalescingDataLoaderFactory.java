@@ -0,0 +1,50 @@
+package ee.sk.siddemo.dataloader;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.digidoc4j.DataLoaderFactory;
+
+import eu.europa.esig.dss.spi.client.http.DataLoader;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Creates {@link CoalescingDataLoader}s of one service for digidoc4j.
+ * digidoc4j asks for a new loader for every signature, they all share the digidoc4j loader of the service
+ * and the requests in flight of this factory.
+ */
+public class CoalescingDataLoaderFactory implements DataLoaderFactory {
+
+    private final CoalescingDataLoader dataLoader;
+
+    /**
+     * @param dataLoader digidoc4j loader of the service, see {@link CoalescingDataLoader}
+     */
+    public CoalescingDataLoaderFactory(String name, DataLoader dataLoader, MeterRegistry meterRegistry) {
+        this.dataLoader = new CoalescingDataLoader(name, dataLoader, meterRegistry);
+    }
+
+    @Override
+    public DataLoader create() {
+        return dataLoader;
+    }
+}
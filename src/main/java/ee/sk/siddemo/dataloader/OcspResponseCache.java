@@ -0,0 +1,242 @@
+package ee.sk.siddemo.dataloader;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * OCSP responses by certificate (issuer key hash and serial number), shared by all signatures and validations.
+ * <p>
+ * A response is kept until its nextUpdate, responses without nextUpdate (the responder always has fresh status)
+ * for a short fixed time, and never longer than the maximum time to live. When the entry limit is reached
+ * the least recently used responses are evicted. With a directory the responses are also written to disk
+ * and loaded on startup, so a restart does not send every certificate to the responder again.
+ */
+public class OcspResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(OcspResponseCache.class);
+
+    private static final String SUFFIX = ".ocsp";
+
+    private final Duration ttlWithoutNextUpdate;
+    private final Duration maxTtl;
+    private final int maxEntries;
+    private final Path directory;
+
+    // access ordered, eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * @param directory null keeps the responses in memory only
+     */
+    public OcspResponseCache(Duration ttlWithoutNextUpdate, Duration maxTtl, int maxEntries, Path directory, MeterRegistry meterRegistry) {
+        this.ttlWithoutNextUpdate = ttlWithoutNextUpdate;
+        this.maxTtl = maxTtl;
+        this.maxEntries = maxEntries;
+        this.directory = directory;
+
+        this.hits = lookups(meterRegistry, "hit");
+        this.misses = lookups(meterRegistry, "miss");
+        Gauge.builder("sid.demo.ocsp.cache.size", this, OcspResponseCache::size)
+                .register(meterRegistry);
+        Gauge.builder("sid.demo.ocsp.cache.hit.ratio", this, OcspResponseCache::hitRatio)
+                .description("Share of OCSP lookups answered from the cache since startup")
+                .register(meterRegistry);
+
+        if (directory != null) {
+            load();
+        }
+    }
+
+    /**
+     * @return encoded OCSP response that is still valid, null if the response has to be fetched
+     */
+    public byte[] get(CertificateID certificateId) {
+        String key = key(certificateId);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt().isAfter(Instant.now())) {
+                hits.increment();
+                return entry.response();
+            }
+            if (entry != null) {
+                remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores a successful response that has the status of the certificate, other responses are ignored.
+     */
+    public void put(CertificateID certificateId, byte[] response) {
+        Instant expiresAt = expiresAt(certificateId, response);
+        if (expiresAt == null || !expiresAt.isAfter(Instant.now())) {
+            return;
+        }
+        String key = key(certificateId);
+        synchronized (entries) {
+            entries.put(key, new Entry(response, expiresAt));
+            while (entries.size() > maxEntries) {
+                remove(entries.keySet().iterator().next());
+            }
+        }
+        if (directory != null) {
+            write(key, response);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private double hitRatio() {
+        double lookups = hits.count() + misses.count();
+        return lookups == 0 ? 0 : hits.count() / lookups;
+    }
+
+    private Instant expiresAt(CertificateID certificateId, byte[] response) {
+        try {
+            var ocspResponse = new OCSPResp(response);
+            if (ocspResponse.getStatus() != OCSPResp.SUCCESSFUL || !(ocspResponse.getResponseObject() instanceof BasicOCSPResp basic)) {
+                return null;
+            }
+            for (SingleResp single : basic.getResponses()) {
+                if (single.getCertID().equals(certificateId)) {
+                    Instant thisUpdate = single.getThisUpdate().toInstant();
+                    Instant nextUpdate = single.getNextUpdate() == null
+                            ? thisUpdate.plus(ttlWithoutNextUpdate)
+                            : single.getNextUpdate().toInstant();
+                    Instant latest = Instant.now().plus(maxTtl);
+                    return nextUpdate.isAfter(latest) ? latest : nextUpdate;
+                }
+            }
+            return null;
+        } catch (IOException | OCSPException e) {
+            logger.debug("Not caching unreadable OCSP response", e);
+            return null;
+        }
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create OCSP cache directory " + directory, e);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                loadFile(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not load OCSP responses from {}", directory, e);
+        }
+        logger.info("Loaded {} OCSP responses from {}", size(), directory);
+    }
+
+    private void loadFile(Path file) {
+        try {
+            byte[] response = Files.readAllBytes(file);
+            var ocspResponse = new OCSPResp(response);
+            boolean loaded = false;
+            if (ocspResponse.getResponseObject() instanceof BasicOCSPResp basic && basic.getResponses().length == 1) {
+                CertificateID certificateId = basic.getResponses()[0].getCertID();
+                Instant expiresAt = expiresAt(certificateId, response);
+                if (expiresAt != null && expiresAt.isAfter(Instant.now())) {
+                    synchronized (entries) {
+                        entries.put(key(certificateId), new Entry(response, expiresAt));
+                    }
+                    loaded = true;
+                }
+            }
+            if (!loaded) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException | OCSPException e) {
+            logger.warn("Could not load OCSP response {}", file, e);
+        }
+    }
+
+    private void write(String key, byte[] response) {
+        try {
+            Path temp = Files.createTempFile(directory, "put-", ".tmp");
+            Files.write(temp, response);
+            Files.move(temp, directory.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // the response is still cached in memory
+            logger.warn("Could not write OCSP response {} to {}", key, directory, e);
+        }
+    }
+
+    private void remove(String key) {
+        entries.remove(key);
+        if (directory != null) {
+            try {
+                Files.deleteIfExists(directory.resolve(key + SUFFIX));
+            } catch (IOException e) {
+                logger.warn("Could not delete OCSP response {} from {}", key, directory, e);
+            }
+        }
+    }
+
+    // serial numbers are only unique per issuer
+    private static String key(CertificateID certificateId) {
+        return HexFormat.of().formatHex(certificateId.getIssuerKeyHash()) + "-" + certificateId.getSerialNumber().toString(16);
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("sid.demo.ocsp.cache.lookups")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Entry(byte[] response, Instant expiresAt) {
+    }
+}
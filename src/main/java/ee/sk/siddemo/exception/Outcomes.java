@@ -0,0 +1,79 @@
+package ee.sk.siddemo.exception;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.exception.useraccount.CertificateLevelMismatchException;
+import ee.sk.smartid.exception.useraccount.DocumentUnusableException;
+import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
+import ee.sk.smartid.exception.useraction.SessionTimeoutException;
+import ee.sk.smartid.exception.useraction.UserRefusedException;
+import ee.sk.smartid.exception.useraction.UserSelectedWrongVerificationCodeException;
+
+/**
+ * Low cardinality outcome of an authentication or signing step for metrics and audit log.
+ * Smart-ID errors are wrapped into {@link SidOperationException} by the services, the outcome is taken from the Smart-ID exception underneath.
+ */
+public final class Outcomes {
+
+    public static final String SUCCESS = "success";
+
+    private Outcomes() {
+    }
+
+    /**
+     * @return the exception that actually ended the step, without future and {@link SidOperationException} wrappers
+     */
+    public static Throwable cause(Throwable exception) {
+        Throwable cause = exception;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException || cause instanceof SidOperationException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    public static String outcome(Throwable exception) {
+        Throwable cause = cause(exception);
+        if (cause == null) {
+            return SUCCESS;
+        } else if (cause instanceof UserRefusedException) {
+            return "user-refused";
+        } else if (cause instanceof UserSelectedWrongVerificationCodeException) {
+            return "wrong-verification-code";
+        } else if (cause instanceof SessionTimeoutException) {
+            return "timeout";
+        } else if (cause instanceof UserAccountNotFoundException || cause instanceof DocumentUnusableException
+                || cause instanceof CertificateLevelMismatchException) {
+            return "user-account";
+        } else if (cause instanceof ServerMaintenanceException) {
+            return "maintenance";
+        } else if (cause instanceof ServiceBusyException) {
+            return "busy";
+        }
+        return "error";
+    }
+}
@@ -0,0 +1,47 @@
+package ee.sk.siddemo.health;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import ee.sk.siddemo.services.TrustedListService;
+
+@Component
+public class TrustedListHealthIndicator implements HealthIndicator {
+
+    private final TrustedListService trustedListService;
+
+    public TrustedListHealthIndicator(TrustedListService trustedListService) {
+        this.trustedListService = trustedListService;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = trustedListService.isReady() ? Health.up() : Health.outOfService();
+        return builder
+                .withDetail("certificates", trustedListService.getTrustedCertificateCount())
+                .build();
+    }
+}
@@ -0,0 +1,44 @@
+package ee.sk.siddemo.jfr;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("ee.sk.siddemo.CertificateChoice")
+@Label("Certificate Choice")
+@Description("Signing certificate lookup, from cache or with a certificate choice session")
+@Category({"Smart-ID Demo", "Smart-ID"})
+@StackTrace(false)
+public class CertificateChoiceEvent extends Event {
+
+    @Label("Cached")
+    public boolean cached;
+
+    @Label("Outcome")
+    public String outcome;
+}
@@ -0,0 +1,190 @@
+package ee.sk.siddemo.jfr;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+/**
+ * Starts, dumps and stops flight recordings with the JDK default settings plus the Smart-ID events of this application:
+ * <ul>
+ *     <li>GET /actuator/jfr lists recordings</li>
+ *     <li>POST /actuator/jfr starts a recording, optional maxAge and maxSize limit the data kept on disk</li>
+ *     <li>GET /actuator/jfr/{id} returns what has been recorded so far</li>
+ *     <li>DELETE /actuator/jfr/{id} stops the recording and deletes its dump</li>
+ * </ul>
+ * Only recordings started here are listed and stopped, recordings started with -XX:StartFlightRecording or jcmd are left alone.
+ */
+@Component
+@Endpoint(id = "jfr")
+public class FlightRecordingEndpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecordingEndpoint.class);
+
+    private static final String RECORDING_NAME = "sid-demo";
+
+    private final Resource settings;
+    private final Path dumpDirectory;
+    private final Duration defaultMaxAge;
+    private final DataSize defaultMaxSize;
+
+    public FlightRecordingEndpoint(@Value("${app.jfr.settings}") Resource settings,
+                                   @Value("${app.jfr.dump-directory}") Path dumpDirectory,
+                                   @Value("${app.jfr.max-age}") Duration defaultMaxAge,
+                                   @Value("${app.jfr.max-size}") DataSize defaultMaxSize) {
+        this.settings = settings;
+        this.dumpDirectory = dumpDirectory;
+        this.defaultMaxAge = defaultMaxAge;
+        this.defaultMaxSize = defaultMaxSize;
+    }
+
+    @ReadOperation
+    public List<RecordingDescriptor> recordings() {
+        return FlightRecorder.getFlightRecorder().getRecordings().stream()
+                .filter(FlightRecordingEndpoint::isOwn)
+                .map(RecordingDescriptor::new)
+                .toList();
+    }
+
+    @WriteOperation
+    public RecordingDescriptor start(@Nullable Duration maxAge, @Nullable DataSize maxSize) {
+        var recording = new Recording(recordingSettings());
+        recording.setName(RECORDING_NAME);
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge != null ? maxAge : defaultMaxAge);
+        recording.setMaxSize((maxSize != null ? maxSize : defaultMaxSize).toBytes());
+        recording.start();
+        return new RecordingDescriptor(recording);
+    }
+
+    @ReadOperation(produces = "application/octet-stream")
+    public Resource dump(@Selector long id) throws IOException {
+        Recording recording = find(id);
+        if (recording == null) {
+            return null;
+        }
+        Files.createDirectories(dumpDirectory);
+        // one file per recording, overwritten by the next dump
+        Path dumpFile = dumpFile(id);
+        recording.dump(dumpFile);
+        return new FileSystemResource(dumpFile);
+    }
+
+    @DeleteOperation
+    public void stop(@Selector long id) {
+        Recording recording = find(id);
+        if (recording != null) {
+            recording.close();
+            deleteDump(dumpFile(id));
+        }
+    }
+
+    /**
+     * Dumps of recordings that were not stopped through this endpoint.
+     */
+    @PreDestroy
+    public void deleteDumps() {
+        if (!Files.isDirectory(dumpDirectory)) {
+            return;
+        }
+        try (var dumps = Files.newDirectoryStream(dumpDirectory, RECORDING_NAME + "-*.jfr")) {
+            dumps.forEach(FlightRecordingEndpoint::deleteDump);
+        } catch (IOException e) {
+            logger.warn("Could not list flight recording dumps in {}", dumpDirectory, e);
+        }
+    }
+
+    private Path dumpFile(long id) {
+        return dumpDirectory.resolve(RECORDING_NAME + "-" + id + ".jfr");
+    }
+
+    private static void deleteDump(Path dumpFile) {
+        try {
+            Files.deleteIfExists(dumpFile);
+        } catch (IOException e) {
+            logger.warn("Could not delete flight recording dump {}", dumpFile, e);
+        }
+    }
+
+    private static boolean isOwn(Recording recording) {
+        return RECORDING_NAME.equals(recording.getName());
+    }
+
+    private static Recording find(long id) {
+        return FlightRecorder.getFlightRecorder().getRecordings().stream()
+                .filter(FlightRecordingEndpoint::isOwn)
+                .filter(recording -> recording.getId() == id)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private Map<String, String> recordingSettings() {
+        try (Reader reader = new InputStreamReader(settings.getInputStream(), StandardCharsets.UTF_8)) {
+            Map<String, String> merged = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+            merged.putAll(Configuration.create(reader).getSettings());
+            return merged;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + settings, e);
+        } catch (ParseException e) {
+            throw new IllegalStateException("Invalid JFR settings in " + settings, e);
+        }
+    }
+
+    public record RecordingDescriptor(long id, String name, String state, Instant startTime, Duration maxAge, long size) {
+
+        RecordingDescriptor(Recording recording) {
+            this(recording.getId(), recording.getName(), recording.getState().name(), recording.getStartTime(),
+                    recording.getMaxAge(), recording.getSize());
+        }
+    }
+}
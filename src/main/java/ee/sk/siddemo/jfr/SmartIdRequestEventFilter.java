@@ -0,0 +1,57 @@
+package ee.sk.siddemo.jfr;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import jakarta.ws.rs.client.ClientResponseContext;
+import jakarta.ws.rs.client.ClientResponseFilter;
+
+/**
+ * Emits {@link SmartIdRequestEvent} for every request sent by the Smart-ID client.
+ * Requests that fail without a response (connection errors) are not recorded.
+ */
+public class SmartIdRequestEventFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    private static final String EVENT_PROPERTY = SmartIdRequestEvent.class.getName();
+
+    @Override
+    public void filter(ClientRequestContext requestContext) {
+        var event = new SmartIdRequestEvent();
+        if (event.isEnabled()) {
+            event.method = requestContext.getMethod();
+            event.path = requestContext.getUri().getPath();
+            event.begin();
+            requestContext.setProperty(EVENT_PROPERTY, event);
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) {
+        if (requestContext.getProperty(EVENT_PROPERTY) instanceof SmartIdRequestEvent event) {
+            event.end();
+            event.status = responseContext.getStatus();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ee.sk.siddemo.jfr;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("ee.sk.siddemo.SmartIdSessionStart")
+@Label("Smart-ID Session Start")
+@Description("Authentication or signature session initiated in Smart-ID API")
+@Category({"Smart-ID Demo", "Smart-ID"})
+@StackTrace(false)
+public class SmartIdSessionStartEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Session ID")
+    public String sessionId;
+
+    /**
+     * Runs the session initiation request, the event is committed only if a session was started.
+     */
+    public static String record(String operation, Supplier<String> initiation) {
+        var event = new SmartIdSessionStartEvent();
+        event.begin();
+        String sessionId = initiation.get();
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.sessionId = sessionId;
+            event.commit();
+        }
+        return sessionId;
+    }
+}
@@ -0,0 +1,70 @@
+package ee.sk.siddemo.logging;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.spi.LoggingEventBuilder;
+import org.springframework.stereotype.Component;
+
+import ee.sk.siddemo.exception.Outcomes;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+
+/**
+ * Start and outcome of every authentication and signing session, written as key-value pairs to the AUDIT logger.
+ * logback-spring.xml sends it to a JSON file through an appender that blocks instead of dropping events.
+ */
+@Component
+public class AuditLog {
+
+    private static final Logger audit = LoggerFactory.getLogger("AUDIT");
+
+    public void sessionStarted(String operation, String sessionId, SemanticsIdentifier subject) {
+        audit.atInfo()
+                .setMessage("session started")
+                .addKeyValue("operation", operation)
+                .addKeyValue("sessionId", sessionId)
+                .addKeyValue("subject", subject.getIdentifier())
+                .log();
+    }
+
+    /**
+     * @param container file name of the signed container, null for authentication or failed signing
+     */
+    public void sessionFinished(String operation, String sessionId, SemanticsIdentifier subject, String container, Throwable exception) {
+        Throwable cause = Outcomes.cause(exception);
+        LoggingEventBuilder event = audit.atInfo()
+                .setMessage("session finished")
+                .addKeyValue("operation", operation)
+                .addKeyValue("sessionId", sessionId)
+                .addKeyValue("subject", subject.getIdentifier())
+                .addKeyValue("outcome", Outcomes.outcome(cause));
+        if (cause != null) {
+            event.addKeyValue("exception", cause.getClass().getSimpleName());
+        }
+        if (container != null) {
+            event.addKeyValue("container", container);
+        }
+        event.log();
+    }
+}
@@ -0,0 +1,82 @@
+package ee.sk.siddemo.logging;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Passes only the given share of events below WARN of the loggers under loggerName, warnings and errors always pass.
+ * <p>
+ * As a turbo filter it runs before the event is created, so a dropped event is not formatted or queued.
+ * Level checks such as isTraceEnabled() are left to the logger level, each event is sampled once when it is logged.
+ */
+public class PayloadSamplingFilter extends TurboFilter {
+
+    private String loggerName;
+    private double rate = 1.0;
+
+    public void setLoggerName(String loggerName) {
+        this.loggerName = loggerName;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    @Override
+    public void start() {
+        if (loggerName == null) {
+            addError("loggerName must be set");
+            return;
+        }
+        if (rate < 0 || rate > 1) {
+            addError("rate must be between 0 and 1, got " + rate);
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (!isStarted() || level.isGreaterOrEqual(Level.WARN) || !isSampled(logger)) {
+            return FilterReply.NEUTRAL;
+        }
+        if (format == null) {
+            // level check, the event that may follow is sampled
+            return FilterReply.NEUTRAL;
+        }
+        return ThreadLocalRandom.current().nextDouble() < rate ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    private boolean isSampled(Logger logger) {
+        String name = logger.getName();
+        return name.startsWith(loggerName) && (name.length() == loggerName.length() || name.charAt(loggerName.length()) == '.');
+    }
+}
@@ -0,0 +1,57 @@
+package ee.sk.siddemo.logging;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import ch.qos.logback.classic.pattern.ClassicConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Log message cut to the length given as option, for example {@code %truncatedMessage{2000}}.
+ * Keeps Smart-ID API payloads with base64 certificates and signatures readable without writing them out in full.
+ */
+public class TruncatingMessageConverter extends ClassicConverter {
+
+    private int maxLength = 2000;
+
+    @Override
+    public void start() {
+        String option = getFirstOption();
+        if (option != null) {
+            try {
+                maxLength = Integer.parseInt(option);
+            } catch (NumberFormatException e) {
+                addError("Invalid maximum length " + option, e);
+            }
+        }
+        super.start();
+    }
+
+    @Override
+    public String convert(ILoggingEvent event) {
+        String message = event.getFormattedMessage();
+        if (message == null || message.length() <= maxLength) {
+            return message;
+        }
+        return message.substring(0, maxLength) + "... (" + (message.length() - maxLength) + " characters truncated)";
+    }
+}
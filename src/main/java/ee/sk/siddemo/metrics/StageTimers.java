@@ -0,0 +1,89 @@
+package ee.sk.siddemo.metrics;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+import ee.sk.siddemo.exception.Outcomes;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times the stages of authentication and signing as {@code sid.demo.stage} tagged with operation, stage, outcome
+ * and the exception that ended the stage, see {@link Outcomes}.
+ */
+@Component
+public class StageTimers {
+
+    public static final String AUTHENTICATION = "authentication";
+    public static final String SIGNATURE = "signature";
+
+    private final MeterRegistry meterRegistry;
+
+    public StageTimers(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T record(String operation, String stage, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            T result = action.get();
+            stop(operation, stage, start, null);
+            return result;
+        } catch (RuntimeException | Error e) {
+            stop(operation, stage, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Times an asynchronous stage until the returned future completes.
+     */
+    public <T> CompletableFuture<T> recordAsync(String operation, String stage, Supplier<CompletableFuture<T>> action) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = action.get();
+        } catch (RuntimeException | Error e) {
+            stop(operation, stage, start, e);
+            throw e;
+        }
+        return future.whenComplete((result, exception) -> stop(operation, stage, start, exception));
+    }
+
+    private void stop(String operation, String stage, long start, Throwable exception) {
+        Throwable cause = Outcomes.cause(exception);
+        Timer.builder("sid.demo.stage")
+                .description("Duration of authentication and signing stages")
+                .tag("operation", operation)
+                .tag("stage", stage)
+                .tag("outcome", Outcomes.outcome(cause))
+                .tag("exception", cause == null ? "none" : cause.getClass().getSimpleName())
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
@@ -27,18 +27,24 @@ import ee.sk.smartid.rest.dao.SemanticsIdentifier;
 
 public class AuthenticationSessionInfo {
 
+    private final String sessionID;
     private final AuthenticationHash authenticationHash;
     private final String verificationCode;
     private final UserRequest userRequest;
     private final SemanticsIdentifier semanticsIdentifier;
 
     private AuthenticationSessionInfo(Builder builder) {
+        this.sessionID = builder.sessionID;
         this.authenticationHash = builder.authenticationHash;
         this.verificationCode = builder.verificationCode;
         this.userRequest = builder.userRequest;
         this.semanticsIdentifier = builder.semanticsIdentifier;
     }
 
+    public String getSessionID() {
+        return sessionID;
+    }
+
     public AuthenticationHash getAuthenticationHash() {
         return authenticationHash;
     }
@@ -60,6 +66,7 @@ public class AuthenticationSessionInfo {
     }
 
     public static class Builder {
+        private String sessionID;
         private String verificationCode;
         private UserRequest userRequest;
         private AuthenticationHash authenticationHash;
@@ -69,6 +76,11 @@ public class AuthenticationSessionInfo {
         private Builder() {
         }
 
+        public Builder withSessionID(String sessionID) {
+            this.sessionID = sessionID;
+            return this;
+        }
+
         public Builder withAuthenticationHash(AuthenticationHash authenticationHash) {
             this.authenticationHash = authenticationHash;
             return this;
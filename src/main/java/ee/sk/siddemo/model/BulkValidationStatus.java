@@ -0,0 +1,43 @@
+package ee.sk.siddemo.model;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.time.Instant;
+
+/**
+ * Progress of validating every container in the signed files directory, see BulkValidationService.
+ *
+ * @param validated           containers validated in this run, valid or not
+ * @param failed              containers that could not be validated (unreadable, TSL or OCSP not reachable)
+ * @param skipped             containers already in the report of the run that was resumed
+ * @param containersPerSecond validated and failed containers per second of this run
+ */
+public record BulkValidationStatus(State state, String reportFile, boolean resumed, long validated, long invalid, long failed,
+                                   long skipped, double containersPerSecond, Instant startedAt, Instant finishedAt) {
+
+    public enum State {
+        RUNNING,
+        DONE,
+        FAILED
+    }
+}
@@ -30,12 +30,18 @@ public class SigningResult {
     private final Boolean valid;
     private final Date timestamp;
     private final String containerFilePath;
+    private final String containerId;
+    private final boolean augmentationPending;
+    private final boolean validationPending;
 
     private SigningResult(Builder builder) {
         this.result = builder.result;
         this.valid = builder.valid;
         this.timestamp = builder.timestamp;
         this.containerFilePath = builder.containerFilePath;
+        this.containerId = builder.containerId;
+        this.augmentationPending = builder.augmentationPending;
+        this.validationPending = builder.validationPending;
     }
 
     public String getResult() {
@@ -54,6 +60,27 @@ public class SigningResult {
         return containerFilePath;
     }
 
+    /**
+     * @return true if the B level signature is extended to the configured profile in the background
+     */
+    public boolean isAugmentationPending() {
+        return augmentationPending;
+    }
+
+    /**
+     * @return true if the container is validated in the background, valid is null until then
+     */
+    public boolean isValidationPending() {
+        return validationPending;
+    }
+
+    /**
+     * @return id of the container in ContainerStorage, used in augmentation and validation status links
+     */
+    public String getContainerId() {
+        return containerId;
+    }
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -64,6 +91,9 @@ public class SigningResult {
         private Boolean valid;
         private Date timestamp;
         private String containerFilePath;
+        private String containerId;
+        private boolean augmentationPending;
+        private boolean validationPending;
 
         public Builder withResult(String result) {
             this.result = result;
@@ -85,6 +115,21 @@ public class SigningResult {
             return this;
         }
 
+        public Builder withContainerId(String containerId) {
+            this.containerId = containerId;
+            return this;
+        }
+
+        public Builder withAugmentationPending(boolean augmentationPending) {
+            this.augmentationPending = augmentationPending;
+            return this;
+        }
+
+        public Builder withValidationPending(boolean validationPending) {
+            this.validationPending = validationPending;
+            return this;
+        }
+
         public SigningResult build() {
             return new SigningResult(this);
         }
@@ -24,26 +24,40 @@ package ee.sk.siddemo.model;
 
 import org.digidoc4j.Container;
 import org.digidoc4j.DataToSign;
+import org.digidoc4j.SignatureParameters;
 
 import ee.sk.smartid.SignableHash;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
 
+/**
+ * DataToSign and container are only known to the node that started the session. Any node finalizes the signature
+ * from the signature parameters and either the spooled upload or, for a detached signature, the document digest.
+ */
 public class SigningSessionInfo {
 
     private final String sessionID;
     private final String verificationCode;
     private final DataToSign dataToSign;
+    private final SignatureParameters signatureParameters;
     private final Container container;
+    private final DetachedDocument detachedDocument;
     private final SignableHash hashToSign;
 
     private final String documentNumber;
+    private final SemanticsIdentifier semanticsIdentifier;
+    private final SpooledUpload spooledUpload;
 
     private SigningSessionInfo(Builder builder) {
         this.sessionID = builder.sessionID;
         this.verificationCode = builder.verificationCode;
         this.dataToSign = builder.dataToSign;
+        this.signatureParameters = builder.signatureParameters;
         this.container = builder.container;
+        this.detachedDocument = builder.detachedDocument;
         this.hashToSign = builder.hashToSign;
         this.documentNumber = builder.documentNumber;
+        this.semanticsIdentifier = builder.semanticsIdentifier;
+        this.spooledUpload = builder.spooledUpload;
     }
 
     public String getSessionID() {
@@ -58,10 +72,18 @@ public class SigningSessionInfo {
         return dataToSign;
     }
 
+    public SignatureParameters getSignatureParameters() {
+        return signatureParameters;
+    }
+
     public Container getContainer() {
         return container;
     }
 
+    public DetachedDocument getDetachedDocument() {
+        return detachedDocument;
+    }
+
     public String getDocumentNumber() {
         return documentNumber;
     }
@@ -70,6 +92,14 @@ public class SigningSessionInfo {
         return hashToSign;
     }
 
+    public SemanticsIdentifier getSemanticsIdentifier() {
+        return semanticsIdentifier;
+    }
+
+    public SpooledUpload getSpooledUpload() {
+        return spooledUpload;
+    }
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -78,10 +108,14 @@ public class SigningSessionInfo {
         private String sessionID;
         private String verificationCode;
         private DataToSign dataToSign;
+        private SignatureParameters signatureParameters;
         private Container container;
+        private DetachedDocument detachedDocument;
 
         private SignableHash hashToSign;
         private String documentNumber;
+        private SemanticsIdentifier semanticsIdentifier;
+        private SpooledUpload spooledUpload;
 
         private Builder() {
         }
@@ -101,11 +135,21 @@ public class SigningSessionInfo {
             return this;
         }
 
+        public Builder withSignatureParameters(SignatureParameters signatureParameters) {
+            this.signatureParameters = signatureParameters;
+            return this;
+        }
+
         public Builder withContainer(Container container) {
             this.container = container;
             return this;
         }
 
+        public Builder withDetachedDocument(DetachedDocument detachedDocument) {
+            this.detachedDocument = detachedDocument;
+            return this;
+        }
+
         public Builder withDocumentNumber(String documentNumber) {
             this.documentNumber = documentNumber;
             return this;
@@ -116,6 +160,16 @@ public class SigningSessionInfo {
             return this;
         }
 
+        public Builder withSemanticsIdentifier(SemanticsIdentifier semanticsIdentifier) {
+            this.semanticsIdentifier = semanticsIdentifier;
+            return this;
+        }
+
+        public Builder withSpooledUpload(SpooledUpload spooledUpload) {
+            this.spooledUpload = spooledUpload;
+            return this;
+        }
+
         public SigningSessionInfo build() {
             return new SigningSessionInfo(this);
         }
@@ -0,0 +1,99 @@
+package ee.sk.siddemo.model;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Path;
+
+/**
+ * Uploaded document written to the spool directory, the content is never held on heap.
+ */
+public class SpooledUpload {
+
+    private final Path path;
+    // as uploaded, the name of the spool file is sanitised
+    private final String fileName;
+    private final String mimeType;
+    private final long size;
+
+    private SpooledUpload(Builder builder) {
+        this.path = builder.path;
+        this.fileName = builder.fileName;
+        this.mimeType = builder.mimeType;
+        this.size = builder.size;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Path path;
+        private String fileName;
+        private String mimeType;
+        private long size;
+
+        private Builder() {
+        }
+
+        public Builder withPath(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        public Builder withFileName(String fileName) {
+            this.fileName = fileName;
+            return this;
+        }
+
+        public Builder withMimeType(String mimeType) {
+            this.mimeType = mimeType;
+            return this;
+        }
+
+        public Builder withSize(long size) {
+            this.size = size;
+            return this;
+        }
+
+        public SpooledUpload build() {
+            return new SpooledUpload(this);
+        }
+    }
+
+}
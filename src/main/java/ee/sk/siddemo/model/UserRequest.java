@@ -42,6 +42,12 @@ public class UserRequest {
 
     private MultipartFile file;
 
+    // detached hash signing, see SmartIdSignatureService.sendHashSignatureRequest
+    private String fileName;
+    private String mimeType;
+    private String digestAlgorithm = "SHA256";
+    private String digest;
+
     public String getNationalIdentityNumber() {
         return nationalIdentityNumber;
     }
@@ -65,4 +71,36 @@ public class UserRequest {
     public void setCountry(String country) {
         this.country = country;
     }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
 }
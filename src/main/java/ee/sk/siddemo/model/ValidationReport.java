@@ -0,0 +1,48 @@
+package ee.sk.siddemo.model;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Validation result of a signed container, cached by the SHA-256 digest of the container file.
+ *
+ * @param valid  null until validated
+ * @param errors messages of validation errors, empty while pending
+ */
+public record ValidationReport(String digest, State state, Boolean valid, List<String> errors, List<String> warnings,
+                               Instant updatedAt) {
+
+    public enum State {
+        PENDING,
+        DONE,
+        // signature value was verified against the signing certificate right after signing, full validation was skipped
+        VERIFIED,
+        FAILED
+    }
+
+    public static ValidationReport pending(String digest) {
+        return new ValidationReport(digest, State.PENDING, null, List.of(), List.of(), Instant.now());
+    }
+}
@@ -0,0 +1,47 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+import ee.sk.siddemo.model.BulkValidationStatus;
+
+/**
+ * Validates every container in the signed files directory again, for example after the trusted list has changed.
+ * Each result is appended to a report file as a JSON line as soon as the container is validated,
+ * the report doubles as checkpoint for resuming an interrupted run.
+ */
+public interface BulkValidationService {
+
+    /**
+     * Only one run at a time, while a run is in progress its completion is returned.
+     *
+     * @param resume skip containers already in the report instead of starting a new report
+     */
+    CompletableFuture<BulkValidationStatus> start(boolean resume);
+
+    /**
+     * @return null if no run has been started
+     */
+    BulkValidationStatus getStatus();
+}
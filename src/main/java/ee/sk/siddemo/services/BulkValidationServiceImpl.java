@@ -0,0 +1,303 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.siddemo.model.BulkValidationStatus;
+import ee.sk.siddemo.model.BulkValidationStatus.State;
+import ee.sk.siddemo.model.ValidationReport;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Containers are validated on a fork-join pool of app.bulk-validation.parallelism workers (number of cores by default).
+ * All workers share the digidoc4j validation configuration, so the trusted list is loaded once and OCSP responses
+ * of common certificates come from OcspResponseCache. The storage index is read lazily and at most
+ * two containers per worker are queued, memory use does not grow with the number of containers.
+ * <p>
+ * If a report line can not be written, no more containers are queued and the run fails
+ * instead of finishing as DONE with results missing from the report.
+ */
+@Service
+public class BulkValidationServiceImpl implements BulkValidationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkValidationServiceImpl.class);
+
+    private static final String REPORT_FILE = "bulk-validation.ndjson";
+    private static final int PROGRESS_LOG_INTERVAL = 1000;
+
+    @Value("${app.bulk-validation.report-directory}")
+    private String reportDirectory;
+
+    @Value("${app.bulk-validation.parallelism}")
+    private int parallelism;
+
+    private final SignatureValidationService validationService;
+    private final ContainerStorage containerStorage;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    private Run run;
+
+    public BulkValidationServiceImpl(SignatureValidationService validationService, ContainerStorage containerStorage, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.validationService = validationService;
+        this.containerStorage = containerStorage;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public synchronized CompletableFuture<BulkValidationStatus> start(boolean resume) {
+        if (run != null && !run.completion.isDone()) {
+            return run.completion;
+        }
+        Path report = Paths.get(reportDirectory).resolve(REPORT_FILE);
+        var newRun = new Run(report, resume);
+        run = newRun;
+
+        var walker = new Thread(() -> execute(newRun), "bulk-validation");
+        walker.setDaemon(true);
+        walker.start();
+        return newRun.completion;
+    }
+
+    @Override
+    public synchronized BulkValidationStatus getStatus() {
+        return run == null ? null : run.status(State.RUNNING);
+    }
+
+    private void execute(Run run) {
+        int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        var pool = new ForkJoinPool(workers);
+        var queued = new Semaphore(workers * 2);
+        try {
+            Files.createDirectories(run.report.getParent());
+            Set<String> done = run.resumed ? readCheckpoint(run.report) : Set.of();
+            boolean lineCutShort = run.resumed && endsInsideLine(run.report);
+            logger.info("Validating stored containers with {} workers, {} already in {}", workers, done.size(), run.report);
+
+            try (BufferedWriter writer = Files.newBufferedWriter(run.report, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, run.resumed ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+                 Stream<StoredContainer> containers = containerStorage.list()) {
+                if (lineCutShort) {
+                    // the first new line is not appended to the line the interruption cut short
+                    writer.newLine();
+                }
+                Iterator<StoredContainer> iterator = containers.filter(container -> !container.isDetached()).iterator();
+                while (iterator.hasNext() && run.writeFailure.get() == null) {
+                    StoredContainer container = iterator.next();
+                    if (done.contains(container.id())) {
+                        run.skipped.incrementAndGet();
+                        continue;
+                    }
+                    queued.acquire();
+                    pool.execute(() -> {
+                        try {
+                            validate(run, container, writer);
+                        } catch (UncheckedIOException e) {
+                            run.writeFailure.compareAndSet(null, e.getCause());
+                        } finally {
+                            queued.release();
+                        }
+                    });
+                }
+                // every permit is back once the last container has been validated
+                queued.acquire(workers * 2);
+            }
+            if (run.writeFailure.get() != null) {
+                throw run.writeFailure.get();
+            }
+            run.finish(State.DONE);
+            BulkValidationStatus status = run.status(State.DONE);
+            logger.info("Validated {} containers ({} invalid, {} failed) at {} containers/s, report in {}",
+                    status.validated(), status.invalid(), status.failed(), String.format("%.1f", status.containersPerSecond()), run.report);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Bulk validation failed", e);
+            run.finish(State.FAILED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.finish(State.FAILED);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void validate(Run run, StoredContainer container, BufferedWriter writer) {
+        long started = System.nanoTime();
+        ReportLine line;
+        try {
+            ValidationReport report = validationService.revalidate(container);
+            line = new ReportLine(container.id(), report.state(), report.valid(), report.errors(), report.warnings(),
+                    elapsedMillis(started));
+            boolean valid = Boolean.TRUE.equals(report.valid());
+            (valid ? run.valid : run.invalid).incrementAndGet();
+            count(valid ? "valid" : "invalid");
+        } catch (RuntimeException e) {
+            logger.warn("Could not validate {}", container, e);
+            line = new ReportLine(container.id(), ValidationReport.State.FAILED, null,
+                    List.of(String.valueOf(e.getMessage())), List.of(), elapsedMillis(started));
+            run.failed.incrementAndGet();
+            count("failed");
+        }
+        write(writer, line);
+
+        long processed = run.processed();
+        if (processed % PROGRESS_LOG_INTERVAL == 0) {
+            logger.info("Bulk validation: {} containers at {} containers/s", processed,
+                    String.format("%.1f", run.status(State.RUNNING).containersPerSecond()));
+        }
+    }
+
+    // lines are flushed one by one, a run interrupted at any point can be resumed from the report
+    private void write(BufferedWriter writer, ReportLine line) {
+        try {
+            String json = objectMapper.writeValueAsString(line);
+            synchronized (writer) {
+                writer.write(json);
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write bulk validation report", e);
+        }
+    }
+
+    private Set<String> readCheckpoint(Path report) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(report)) {
+            return done;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(report, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JsonNode node = objectMapper.readTree(line);
+                    // containers that could not be validated are tried again
+                    if (node.hasNonNull("container") && !ValidationReport.State.FAILED.name().equals(node.path("state").asText())) {
+                        done.add(node.get("container").asText());
+                    }
+                } catch (JsonProcessingException e) {
+                    // last line may be cut short by the interruption
+                }
+            }
+        }
+        return done;
+    }
+
+    private static boolean endsInsideLine(Path report) throws IOException {
+        if (!Files.exists(report) || Files.size(report) == 0) {
+            return false;
+        }
+        try (var file = new RandomAccessFile(report.toFile(), "r")) {
+            file.seek(file.length() - 1);
+            return file.read() != '\n';
+        }
+    }
+
+    private void count(String result) {
+        Counter.builder("sid.demo.bulk.validation.containers")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static long elapsedMillis(long started) {
+        return Duration.ofNanos(System.nanoTime() - started).toMillis();
+    }
+
+    private record ReportLine(String container, ValidationReport.State state, Boolean valid, List<String> errors, List<String> warnings,
+                      long millis) {
+    }
+
+    private static class Run {
+
+        private final Path report;
+        private final boolean resumed;
+        private final Instant startedAt = Instant.now();
+        private final long startedNanos = System.nanoTime();
+        private final AtomicLong valid = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        // first report line that could not be written
+        private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+        private final CompletableFuture<BulkValidationStatus> completion = new CompletableFuture<>();
+        private volatile Instant finishedAt;
+        private volatile long finishedNanos;
+
+        Run(Path report, boolean resumed) {
+            this.report = report;
+            this.resumed = resumed;
+        }
+
+        long processed() {
+            return valid.get() + invalid.get() + failed.get();
+        }
+
+        void finish(State state) {
+            finishedNanos = System.nanoTime();
+            finishedAt = Instant.now();
+            completion.complete(status(state));
+        }
+
+        BulkValidationStatus status(State runningState) {
+            State state = completion.isDone() ? completion.join().state() : runningState;
+            long elapsedNanos = (finishedAt != null ? finishedNanos : System.nanoTime()) - startedNanos;
+            double perSecond = elapsedNanos <= 0 ? 0 : processed() * 1e9 / elapsedNanos;
+            return new BulkValidationStatus(state, report.toString(), resumed, valid.get() + invalid.get(), invalid.get(),
+                    failed.get(), skipped.get(), perSecond, startedAt, finishedAt);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import ee.sk.siddemo.model.AugmentationStatus;
+
+/**
+ * Extends containers signed at B level to app.sign.signature-profile (LT or LTA) in the background,
+ * so that the user does not wait for the timestamp and OCSP requests.
+ */
+public interface SignatureAugmentationService {
+
+    /**
+     * Queues the container for extension, survives restart until the extension has succeeded or failed for good.
+     *
+     * @param container id in ContainerStorage
+     */
+    void schedule(String container);
+
+    /**
+     * @param container id in ContainerStorage
+     * @return null if the container was never queued or its status has expired
+     */
+    AugmentationStatus getStatus(String container);
+
+    /**
+     * Answered from the marker files shared by all nodes, also after a restart and for containers queued elsewhere.
+     *
+     * @param container id in ContainerStorage
+     * @return true while the container is waiting for extension or being extended
+     */
+    boolean isQueued(String container);
+}
@@ -0,0 +1,362 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.SignatureProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import ee.sk.siddemo.metrics.StageTimers;
+import ee.sk.siddemo.model.AugmentationStatus;
+import ee.sk.siddemo.model.AugmentationStatus.State;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Queued containers are picked up every batch interval. At most batch-size extensions run at the same time,
+ * which bounds the load on the TSA and OCSP responder when many signatures complete together.
+ * <p>
+ * A marker file in the augmentation directory keeps a container queued over restarts. Failed extensions are retried with
+ * exponential backoff, after max-attempts the marker is renamed to .augment-failed for manual handling.
+ * <p>
+ * Nodes sharing the signed files directory may all have the same container queued after a restart. Before extending,
+ * the augmentation thread claims the marker by renaming it to .augment-claimed, the node that loses the rename
+ * drops the job. The scheduler thread only picks the due jobs, all file operations run on the augmentation executor.
+ */
+@Service
+public class SignatureAugmentationServiceImpl implements SignatureAugmentationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignatureAugmentationServiceImpl.class);
+
+    private static final String MARKER_SUFFIX = ".augment";
+    private static final String CLAIMED_MARKER_SUFFIX = ".augment-claimed";
+    private static final String FAILED_MARKER_SUFFIX = ".augment-failed";
+
+    @Value("${app.signed-files-directory}")
+    private String signedFilesDirectory;
+
+    @Value("${app.sign.signature-profile}")
+    private SignatureProfile targetProfile;
+
+    @Value("${app.sign.deferred-augmentation.batch-size}")
+    private int batchSize;
+
+    @Value("${app.sign.deferred-augmentation.max-attempts}")
+    private int maxAttempts;
+
+    @Value("${app.sign.deferred-augmentation.retry-delay}")
+    private Duration retryDelay;
+
+    @Value("${app.sign.deferred-augmentation.claim-timeout}")
+    private Duration claimTimeout;
+
+    @Value("${app.sign.deferred-augmentation.status-retention}")
+    private Duration statusRetention;
+
+    private final Configuration configuration;
+    private final ContainerStorage containerStorage;
+    private final ThreadPoolTaskExecutor augmentationExecutor;
+    private final StageTimers stageTimers;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public SignatureAugmentationServiceImpl(Configuration configuration, ContainerStorage containerStorage,
+                                            @Qualifier("augmentationExecutor") ThreadPoolTaskExecutor augmentationExecutor,
+                                            StageTimers stageTimers, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.containerStorage = containerStorage;
+        this.augmentationExecutor = augmentationExecutor;
+        this.stageTimers = stageTimers;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("sid.demo.augmentation.pending", jobs, j -> j.values().stream().filter(job -> job.status.state() == State.PENDING).count())
+                .description("Containers waiting for extension to the target signature profile")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void schedule(String container) {
+        boolean marked = false;
+        try {
+            Files.createDirectories(markerDirectory());
+            Files.createFile(marker(container));
+            marked = true;
+        } catch (IOException e) {
+            // still extended unless the application restarts before that
+            logger.warn("Could not write augmentation marker of {}", container, e);
+        }
+        addJob(container, marked);
+    }
+
+    @Override
+    public AugmentationStatus getStatus(String container) {
+        Job job = jobs.get(container);
+        return job == null ? null : job.status;
+    }
+
+    @Override
+    public boolean isQueued(String container) {
+        if (Files.exists(marker(container)) || Files.exists(claimedMarker(container))) {
+            return true;
+        }
+        // marker could not be written, the job is only known to this node
+        Job job = jobs.get(container);
+        return job != null && job.status.state() == State.PENDING;
+    }
+
+    /**
+     * Picks up containers queued before restart, including claims of nodes that stopped while extending.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void recover() {
+        Path directory = markerDirectory();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        releaseStaleClaims(directory);
+        try (DirectoryStream<Path> markers = Files.newDirectoryStream(directory, "*" + MARKER_SUFFIX)) {
+            for (Path marker : markers) {
+                String fileName = marker.getFileName().toString();
+                String container = fileName.substring(0, fileName.length() - MARKER_SUFFIX.length());
+                if (containerStorage.find(container) != null) {
+                    addJob(container, true);
+                } else {
+                    Files.deleteIfExists(marker);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read augmentation markers from {}", directory, e);
+        }
+    }
+
+    private void releaseStaleClaims(Path directory) {
+        Instant staleBefore = Instant.now().minus(claimTimeout);
+        try (DirectoryStream<Path> claims = Files.newDirectoryStream(directory, "*" + CLAIMED_MARKER_SUFFIX)) {
+            for (Path claim : claims) {
+                if (Files.getLastModifiedTime(claim).toInstant().isBefore(staleBefore)) {
+                    String fileName = claim.getFileName().toString();
+                    String container = fileName.substring(0, fileName.length() - CLAIMED_MARKER_SUFFIX.length());
+                    release(container);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read augmentation claims from {}", directory, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.sign.deferred-augmentation.batch-interval}")
+    void processBatch() {
+        Instant now = Instant.now();
+        jobs.values().removeIf(job -> job.status.state() != State.PENDING && job.status.updatedAt().plus(statusRetention).isBefore(now));
+
+        List<Job> due = jobs.values().stream()
+                .filter(job -> job.isDue(now))
+                .sorted(Comparator.comparing(job -> job.nextAttempt))
+                .limit(Math.max(0, batchSize - inFlight.get()))
+                .toList();
+
+        for (Job job : due) {
+            job.running = true;
+            inFlight.incrementAndGet();
+            try {
+                augmentationExecutor.execute(() -> extend(job));
+            } catch (RejectedExecutionException e) {
+                job.running = false;
+                inFlight.decrementAndGet();
+                break;
+            }
+        }
+    }
+
+    private void addJob(String container, boolean marked) {
+        jobs.putIfAbsent(container, new Job(container, marked,
+                new AugmentationStatus(container, State.PENDING, targetProfile, 0, null, null, Instant.now())));
+    }
+
+    private void extend(Job job) {
+        AugmentationStatus status = job.status;
+        int attempts = status.attempts() + 1;
+        try {
+            if (job.marked && !claim(job.container)) {
+                // extended by another node
+                logger.debug("Augmentation of {} has been claimed by another node", job.container);
+                jobs.remove(job.container, job);
+                return;
+            }
+            boolean valid = stageTimers.record(StageTimers.SIGNATURE, "augment", () -> extendContainer(job.container));
+            Files.deleteIfExists(claimedMarker(job.container));
+            job.status = new AugmentationStatus(status.container(), State.DONE, targetProfile, attempts, valid, null, Instant.now());
+            countAttempt("done");
+        } catch (IOException | RuntimeException e) {
+            if (attempts < maxAttempts) {
+                logger.warn("Could not extend {} to {}, attempt {} of {}", job.container, targetProfile, attempts, maxAttempts, e);
+                job.nextAttempt = Instant.now().plus(retryDelay.multipliedBy(1L << Math.min(attempts - 1, 16)));
+                if (job.marked) {
+                    release(job.container);
+                }
+                job.status = new AugmentationStatus(status.container(), State.PENDING, targetProfile, attempts, null, e.getMessage(), Instant.now());
+                countAttempt("retry");
+            } else {
+                logger.error("Giving up extending {} to {} after {} attempts", job.container, targetProfile, attempts, e);
+                markFailed(job.container);
+                job.status = new AugmentationStatus(status.container(), State.FAILED, targetProfile, attempts, null, e.getMessage(), Instant.now());
+                countAttempt("failed");
+            }
+        } finally {
+            job.running = false;
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Extended container is stored under the same id, readers see either the old or the new content.
+     *
+     * @return true if all signatures of the extended container are valid
+     */
+    private boolean extendContainer(String id) {
+        StoredContainer stored = containerStorage.find(id);
+        if (stored == null) {
+            throw new IllegalStateException("Container " + id + " is not in storage");
+        }
+        Container container = ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .fromExistingFile(containerStorage.resolve(stored).toString())
+                .build();
+        // timestamp and OCSP requests are made here
+        container.extendSignatureProfile(targetProfile);
+
+        // opened from a file, digidoc4j writes back the entries AsicContainerWriter does not know about
+        containerStorage.replace(id, out -> container.save(out));
+        return container.validate().isValid();
+    }
+
+    /**
+     * @return false if the marker has already been claimed or the container has been extended
+     */
+    private boolean claim(String container) throws IOException {
+        Path claimed = claimedMarker(container);
+        try {
+            // rename fails on every node but one
+            Files.move(marker(container), claimed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            return false;
+        }
+        // rename keeps the time the container was queued, stale claims are found by the time of claiming
+        Files.setLastModifiedTime(claimed, FileTime.from(Instant.now()));
+        return true;
+    }
+
+    private void release(String container) {
+        try {
+            Files.move(claimedMarker(container), marker(container), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            // released by another node
+        } catch (IOException e) {
+            logger.warn("Could not release augmentation claim of {}", container, e);
+        }
+    }
+
+    private void markFailed(String container) {
+        try {
+            Files.move(claimedMarker(container), markerDirectory().resolve(container + FAILED_MARKER_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // not marked, see schedule
+        } catch (IOException e) {
+            logger.warn("Could not mark augmentation of {} failed", container, e);
+        }
+    }
+
+    private Path markerDirectory() {
+        return Paths.get(signedFilesDirectory).resolve("augmentation");
+    }
+
+    private Path marker(String container) {
+        return markerDirectory().resolve(container + MARKER_SUFFIX);
+    }
+
+    private Path claimedMarker(String container) {
+        return markerDirectory().resolve(container + CLAIMED_MARKER_SUFFIX);
+    }
+
+    private void countAttempt(String result) {
+        Counter.builder("sid.demo.augmentation.attempts")
+                .description("Attempts to extend a container to the target signature profile")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static class Job {
+
+        private final String container;
+        // has a marker file to claim
+        private final boolean marked;
+        // written by the extending thread, read by the scheduler and status requests
+        private volatile AugmentationStatus status;
+        private volatile Instant nextAttempt = Instant.MIN;
+        private volatile boolean running;
+
+        Job(String container, boolean marked, AugmentationStatus status) {
+            this.container = container;
+            this.marked = marked;
+            this.status = status;
+        }
+
+        boolean isDue(Instant now) {
+            return !running && status.state() == State.PENDING && !nextAttempt.isAfter(now);
+        }
+    }
+}
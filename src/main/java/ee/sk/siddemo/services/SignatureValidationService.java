@@ -0,0 +1,60 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+import ee.sk.siddemo.model.ValidationReport;
+import ee.sk.siddemo.storage.StoredContainer;
+
+/**
+ * Validates signed containers on the validation pool, away from the request and signing threads.
+ * Reports are cached by container digest, a container is validated again only when its content or the trusted list changes.
+ */
+public interface SignatureValidationService {
+
+    /**
+     * @return cached report or report of the validation started (or already running) for the container
+     */
+    CompletableFuture<ValidationReport> validate(StoredContainer container);
+
+    /**
+     * Records a signature that was just produced and whose value has been verified against the signing certificate,
+     * so that it is not validated again.
+     */
+    void recordVerified(StoredContainer container);
+
+    /**
+     * Validates the container on the calling thread even if it has a cached report, the result is not cached.
+     * Used when the trusted list has changed.
+     */
+    ValidationReport revalidate(StoredContainer container);
+
+    /**
+     * Cached report or the state of a validation already scheduled for the container, does not start a validation.
+     *
+     * @param container id in ContainerStorage
+     * @return null if there is no such container
+     */
+    ValidationReport getReport(String container);
+}
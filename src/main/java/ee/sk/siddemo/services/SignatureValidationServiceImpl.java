@@ -0,0 +1,233 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.ContainerValidationResult;
+import org.digidoc4j.exceptions.DigiDoc4JException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import ee.sk.siddemo.exception.ServiceBusyException;
+import ee.sk.siddemo.jfr.SignatureValidationEvent;
+import ee.sk.siddemo.metrics.StageTimers;
+import ee.sk.siddemo.model.ValidationReport;
+import ee.sk.siddemo.model.ValidationReport.State;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Containers are stored by content digest, which is also the report cache key.
+ * Reports are kept in memory, least recently used ones are dropped above report-cache-size. All reports are dropped
+ * when the trusted list is refreshed, reports of validations against the previous trusted list are not cached.
+ * Concurrent requests for the same container share one validation. Failed validations (TSL or OCSP not reachable)
+ * are not cached, the next request tries again.
+ */
+@Service
+public class SignatureValidationServiceImpl implements SignatureValidationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignatureValidationServiceImpl.class);
+
+    @Value("${app.sign.validation.report-cache-size}")
+    private int reportCacheSize;
+
+    private final Configuration configuration;
+    private final ContainerStorage containerStorage;
+    private final TrustedListService trustedListService;
+    private final ThreadPoolTaskExecutor signingValidationExecutor;
+    private final StageTimers stageTimers;
+    private final MeterRegistry meterRegistry;
+
+    // access ordered, eldest entry is the least recently used one
+    private final LinkedHashMap<String, ValidationReport> reports = new LinkedHashMap<>(16, 0.75f, true);
+    // guarded by reports
+    private long reportsTrustedListVersion;
+    private final Map<String, CompletableFuture<ValidationReport>> inFlight = new ConcurrentHashMap<>();
+
+    public SignatureValidationServiceImpl(@Qualifier("validationConfiguration") Configuration configuration,
+                                          ContainerStorage containerStorage, TrustedListService trustedListService,
+                                          @Qualifier("signingValidationExecutor") ThreadPoolTaskExecutor signingValidationExecutor,
+                                          StageTimers stageTimers, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.containerStorage = containerStorage;
+        this.trustedListService = trustedListService;
+        this.signingValidationExecutor = signingValidationExecutor;
+        this.stageTimers = stageTimers;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public CompletableFuture<ValidationReport> validate(StoredContainer container) {
+        return validate(containerStorage.resolve(container), container.digest());
+    }
+
+    @Override
+    public void recordVerified(StoredContainer container) {
+        cache(new ValidationReport(container.digest(), State.VERIFIED, true, List.of(), List.of(), Instant.now()),
+                trustedListService.getVersion());
+    }
+
+    @Override
+    public ValidationReport revalidate(StoredContainer container) {
+        // a bulk run over every container would replace the reports of recently signed ones
+        return validateContainer(containerStorage.resolve(container), container.digest());
+    }
+
+    @Override
+    public ValidationReport getReport(String container) {
+        StoredContainer stored = containerStorage.find(container);
+        // detached signature can only be validated together with the document
+        if (stored == null || stored.isDetached()) {
+            return null;
+        }
+        String digest = stored.digest();
+        ValidationReport cached = cachedReport(digest);
+        if (cached != null) {
+            return cached;
+        }
+        // only validations scheduled by signing or revalidation are reported, a GET does not start one
+        CompletableFuture<ValidationReport> validation = inFlight.get(digest);
+        if (validation == null || !validation.isDone()) {
+            return ValidationReport.pending(digest);
+        }
+        return validation.exceptionally(e -> new ValidationReport(digest, State.FAILED, null,
+                List.of(String.valueOf(e.getMessage())), List.of(), Instant.now())).join();
+    }
+
+    private CompletableFuture<ValidationReport> validate(Path container, String digest) {
+        ValidationReport cached = cachedReport(digest);
+        if (cached != null) {
+            countLookup("cached");
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        var validation = new CompletableFuture<ValidationReport>();
+        CompletableFuture<ValidationReport> running = inFlight.putIfAbsent(digest, validation);
+        if (running != null) {
+            countLookup("running");
+            return running;
+        }
+        countLookup("validated");
+        try {
+            signingValidationExecutor.execute(() -> runValidation(container, digest, validation));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(digest, validation);
+            validation.completeExceptionally(new ServiceBusyException("Validation service is overloaded, please try again later", e));
+        }
+        return validation;
+    }
+
+    private void runValidation(Path container, String digest, CompletableFuture<ValidationReport> validation) {
+        try {
+            long trustedListVersion = trustedListService.getVersion();
+            ValidationReport report = stageTimers.record(StageTimers.SIGNATURE, "validate", () -> validateContainer(container, digest));
+            cache(report, trustedListVersion);
+            validation.complete(report);
+        } catch (RuntimeException e) {
+            logger.warn("Could not validate {}", container, e);
+            validation.completeExceptionally(e);
+        } finally {
+            inFlight.remove(digest, validation);
+        }
+    }
+
+    // chain building, OCSP and timestamp checks of every signature in the container
+    private ValidationReport validateContainer(Path path, String digest) {
+        var event = new SignatureValidationEvent();
+        event.begin();
+        Container container = ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .fromExistingFile(path.toString())
+                .build();
+        ContainerValidationResult result = container.validate();
+        event.end();
+        if (event.shouldCommit()) {
+            event.valid = result.isValid();
+            event.errors = result.getErrors().size();
+            event.commit();
+        }
+        return new ValidationReport(digest, State.DONE, result.isValid(), messages(result.getErrors()), messages(result.getWarnings()),
+                Instant.now());
+    }
+
+    private static List<String> messages(List<DigiDoc4JException> exceptions) {
+        return exceptions.stream().map(e -> String.valueOf(e.getMessage())).toList();
+    }
+
+    private ValidationReport cachedReport(String digest) {
+        synchronized (reports) {
+            dropReportsOfPreviousTrustedList();
+            return reports.get(digest);
+        }
+    }
+
+    /**
+     * @param trustedListVersion version of the trusted list the container was validated against
+     */
+    private void cache(ValidationReport report, long trustedListVersion) {
+        synchronized (reports) {
+            dropReportsOfPreviousTrustedList();
+            if (trustedListVersion != reportsTrustedListVersion) {
+                // trusted list was refreshed during validation
+                return;
+            }
+            reports.put(report.digest(), report);
+            while (reports.size() > reportCacheSize) {
+                reports.remove(reports.keySet().iterator().next());
+            }
+        }
+    }
+
+    private void dropReportsOfPreviousTrustedList() {
+        long trustedListVersion = trustedListService.getVersion();
+        if (trustedListVersion != reportsTrustedListVersion) {
+            reports.clear();
+            reportsTrustedListVersion = trustedListVersion;
+        }
+    }
+
+    private void countLookup(String result) {
+        Counter.builder("sid.demo.validation.reports")
+                .description("Validation requests by whether the report was cached, already being validated or validated anew")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
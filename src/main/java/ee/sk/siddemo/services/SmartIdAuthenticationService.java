@@ -22,13 +22,29 @@ package ee.sk.siddemo.services;
  * #L%
  */
 
+import java.util.concurrent.CompletableFuture;
+
 import ee.sk.siddemo.model.AuthenticationSessionInfo;
 import ee.sk.siddemo.model.UserRequest;
 import ee.sk.smartid.AuthenticationIdentity;
 
 public interface SmartIdAuthenticationService {
 
+    /**
+     * Starts Smart-ID authentication session and returns immediately.
+     *
+     * @throws ee.sk.siddemo.exception.ServiceBusyException if there is no capacity for another authentication
+     */
     AuthenticationSessionInfo startAuthentication(UserRequest userRequest);
 
-    AuthenticationIdentity authenticate(AuthenticationSessionInfo authenticationSessionInfo);
+    /**
+     * Follows a started session, also one started by another node.
+     * Returned future is completed when the user has entered PIN1 and the response is validated.
+     */
+    CompletableFuture<AuthenticationIdentity> authenticate(AuthenticationSessionInfo authenticationSessionInfo);
+
+    /**
+     * Stops following a session that was dropped from the pending session store.
+     */
+    void cancel(AuthenticationSessionInfo authenticationSessionInfo);
 }
@@ -25,17 +25,24 @@ package ee.sk.siddemo.services;
 import java.time.LocalDate;
 import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import ee.sk.siddemo.exception.ServiceBusyException;
 import ee.sk.siddemo.exception.SidOperationException;
+import ee.sk.siddemo.jfr.SmartIdSessionStartEvent;
+import ee.sk.siddemo.logging.AuditLog;
+import ee.sk.siddemo.metrics.StageTimers;
 import ee.sk.siddemo.model.AuthenticationSessionInfo;
 import ee.sk.siddemo.model.UserRequest;
 import ee.sk.smartid.AuthenticationHash;
 import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.AuthenticationRequestBuilder;
 import ee.sk.smartid.AuthenticationResponseValidator;
 import ee.sk.smartid.SmartIdAuthenticationResponse;
 import ee.sk.smartid.SmartIdClient;
@@ -60,16 +67,27 @@ public class SmartIdAuthenticationServiceImpl implements SmartIdAuthenticationSe
 
     private final SmartIdClient client;
     private final AuthenticationResponseValidator sidAuthenticationResponseValidator;
+    private final SmartIdSessionPoller sessionPoller;
+    private final StageTimers stageTimers;
+    private final AuditLog auditLog;
 
     public SmartIdAuthenticationServiceImpl(SmartIdClient client,
-                                            AuthenticationResponseValidator sidAuthenticationResponseValidator) {
+                                            AuthenticationResponseValidator sidAuthenticationResponseValidator,
+                                            SmartIdSessionPoller sessionPoller,
+                                            StageTimers stageTimers,
+                                            AuditLog auditLog) {
         this.client = client;
         this.sidAuthenticationResponseValidator = sidAuthenticationResponseValidator;
+        this.sessionPoller = sessionPoller;
+        this.stageTimers = stageTimers;
+        this.auditLog = auditLog;
     }
 
     @Override
     public AuthenticationSessionInfo startAuthentication(UserRequest userRequest) {
-
+        if (!sessionPoller.hasCapacity()) {
+            throw new ServiceBusyException("Too many authentications in progress, please try again later", null);
+        }
 
         var semanticsIdentifier = new SemanticsIdentifier(
                 // 3 character identity type
@@ -83,7 +101,13 @@ public class SmartIdAuthenticationServiceImpl implements SmartIdAuthenticationSe
 
         String verificationCode = authenticationHash.calculateVerificationCode();
 
+        String sessionId = stageTimers.record(StageTimers.AUTHENTICATION, "initiate",
+                () -> SmartIdSessionStartEvent.record(StageTimers.AUTHENTICATION,
+                        () -> handleSidErrors(authenticationRequest(semanticsIdentifier, authenticationHash)::initiateAuthentication)));
+        auditLog.sessionStarted(StageTimers.AUTHENTICATION, sessionId, semanticsIdentifier);
+
         return AuthenticationSessionInfo.newBuilder()
+                .withSessionID(sessionId)
                 .withUserRequest(userRequest)
                 .withAuthenticationHash(authenticationHash)
                 .withVerificationCode(verificationCode)
@@ -92,36 +116,55 @@ public class SmartIdAuthenticationServiceImpl implements SmartIdAuthenticationSe
     }
 
     @Override
-    public AuthenticationIdentity authenticate(AuthenticationSessionInfo authenticationSessionInfo) {
-
-        UserRequest userRequest = authenticationSessionInfo.getUserRequest();
-        AuthenticationHash authenticationHash = authenticationSessionInfo.getAuthenticationHash();
-
-        AuthenticationIdentity authIdentity = null;
+    public void cancel(AuthenticationSessionInfo authenticationSessionInfo) {
+        sessionPoller.cancel(authenticationSessionInfo.getSessionID());
+    }
 
-        try {
-            SmartIdAuthenticationResponse response = client
-                    .createAuthentication()
-                    .withSemanticsIdentifier(authenticationSessionInfo.getSemanticsIdentifier())
-                    .withAuthenticationHash(authenticationHash)
-                    .withCertificateLevel("QUALIFIED") // Certificate level can either be "QUALIFIED" or "ADVANCED"
-                    // Smart-ID app will display verification code to the user and user must insert PIN1
-                    .withAllowedInteractionsOrder(
-                            Collections.singletonList(Interaction.displayTextAndPIN(sidAuthDisplayText)
-                            ))
-                    .authenticate();
+    @Override
+    public CompletableFuture<AuthenticationIdentity> authenticate(AuthenticationSessionInfo authenticationSessionInfo) {
+        // request is not sent again, builder is only needed to interpret the session status
+        AuthenticationRequestBuilder authenticationRequest = authenticationRequest(
+                authenticationSessionInfo.getSemanticsIdentifier(), authenticationSessionInfo.getAuthenticationHash());
+
+        // session status is polled by SmartIdSessionPoller, no thread is blocked until the user enters PIN1
+        // smart-id stage is the time the user takes to enter PIN1, tagged with the end result of the session
+        return stageTimers.recordAsync(StageTimers.AUTHENTICATION, "smart-id", () -> sessionPoller.pollUntilComplete(authenticationSessionInfo.getSessionID())
+                        // throws exceptions of user actions (user refused etc) if session did not end with OK
+                        .thenApply(sessionStatus -> handleSidErrors(() -> authenticationRequest.createSmartIdAuthenticationResponse(sessionStatus))))
+                .thenApply(response -> stageTimers.record(StageTimers.AUTHENTICATION, "validate",
+                        () -> handleSidErrors(() -> validateAuthentication(response))))
+                .whenComplete((identity, exception) -> auditLog.sessionFinished(StageTimers.AUTHENTICATION,
+                        authenticationSessionInfo.getSessionID(), authenticationSessionInfo.getSemanticsIdentifier(), null, exception));
+    }
 
+    private AuthenticationRequestBuilder authenticationRequest(SemanticsIdentifier semanticsIdentifier, AuthenticationHash authenticationHash) {
+        return client
+                .createAuthentication()
+                .withSemanticsIdentifier(semanticsIdentifier)
+                .withAuthenticationHash(authenticationHash)
+                .withCertificateLevel("QUALIFIED") // Certificate level can either be "QUALIFIED" or "ADVANCED"
+                // Smart-ID app will display verification code to the user and user must insert PIN1
+                .withAllowedInteractionsOrder(
+                        Collections.singletonList(Interaction.displayTextAndPIN(sidAuthDisplayText)
+                        ));
+    }
 
+    private AuthenticationIdentity validateAuthentication(SmartIdAuthenticationResponse response) {
 // throws SmartIdResponseValidationException if validation doesn't pass
-            authIdentity = sidAuthenticationResponseValidator.validate(response);
+        AuthenticationIdentity authIdentity = sidAuthenticationResponseValidator.validate(response);
 
-            String givenName = authIdentity.getGivenName(); // e.g. Mari-Liis"
-            String surname = authIdentity.getSurname(); // e.g. "Männik"
-            String identityCode = authIdentity.getIdentityCode(); // e.g. "47101010033"
-            String country = authIdentity.getCountry(); // e.g. "EE", "LV", "LT", "BE"
-            Optional<LocalDate> dateOfBirth = authIdentity.getDateOfBirth(); // see next paragraph
+        String givenName = authIdentity.getGivenName(); // e.g. Mari-Liis"
+        String surname = authIdentity.getSurname(); // e.g. "Männik"
+        String identityCode = authIdentity.getIdentityCode(); // e.g. "47101010033"
+        String country = authIdentity.getCountry(); // e.g. "EE", "LV", "LT", "BE"
+        Optional<LocalDate> dateOfBirth = authIdentity.getDateOfBirth(); // see next paragraph
 
+        return authIdentity;
+    }
 
+    private static <T> T handleSidErrors(Supplier<T> sidOperation) {
+        try {
+            return sidOperation.get();
         } catch (UserAccountNotFoundException e) {
             throw new SidOperationException("User account was not found", e);
         } catch (UserRefusedException e) {
@@ -139,7 +182,5 @@ public class SmartIdAuthenticationServiceImpl implements SmartIdAuthenticationSe
         } catch (CertificateLevelMismatchException e) {
             throw new SidOperationException("Certificate Level Mismatch", e);
         }
-
-        return authIdentity;
     }
 }
@@ -24,8 +24,17 @@ package ee.sk.siddemo.services;
 
 import ee.sk.siddemo.model.UserRequest;
 import ee.sk.smartid.SmartIdCertificate;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
 
 public interface SmartIdCertificateService {
 
+    /**
+     * Returns signing certificate and document number of the user, from cache if user has signed recently.
+     */
     SmartIdCertificate getCertificate(UserRequest userRequest);
+
+    /**
+     * Drops cached certificate, for example when Smart-ID reports that the document can no longer be used.
+     */
+    void invalidate(SemanticsIdentifier semanticsIdentifier);
 }
@@ -0,0 +1,51 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+import ee.sk.smartid.rest.dao.SessionStatus;
+
+public interface SmartIdSessionPoller {
+
+    /**
+     * @return false if new session would exceed the maximum number of sessions polled at the same time
+     */
+    boolean hasCapacity();
+
+    /**
+     * Starts tracking Smart-ID session, returned future is completed with the final (COMPLETE) session status.
+     *
+     * @throws ee.sk.siddemo.exception.ServiceBusyException if the maximum number of tracked sessions is reached
+     */
+    CompletableFuture<SessionStatus> pollUntilComplete(String sessionId);
+
+    /**
+     * Stops polling the session, its future fails with CancellationException.
+     *
+     * @return false if the session was not polled by this node (or has already completed)
+     */
+    boolean cancel(String sessionId);
+
+    int getPendingSessionCount();
+}
@@ -0,0 +1,252 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import ee.sk.siddemo.exception.ServiceBusyException;
+import ee.sk.siddemo.exception.SidOperationException;
+import ee.sk.siddemo.jfr.SmartIdSessionEndEvent;
+import ee.sk.smartid.SmartIdClient;
+import ee.sk.smartid.exception.useraction.SessionTimeoutException;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.ws.rs.ProcessingException;
+
+/**
+ * Polls status of all pending Smart-ID sessions with a small scheduler instead of one blocked thread per session.
+ * Every session has its own timer, delay between status requests grows exponentially (with jitter) up to max-interval.
+ */
+@Service
+public class SmartIdSessionPollerImpl implements SmartIdSessionPoller {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmartIdSessionPollerImpl.class);
+
+    private static final String STATE_COMPLETE = "COMPLETE";
+    private static final double JITTER = 0.2;
+
+    @Value("${app.poller.max-sessions}")
+    private int maxSessions;
+
+    @Value("${app.poller.initial-interval}")
+    private Duration initialInterval;
+
+    @Value("${app.poller.max-interval}")
+    private Duration maxInterval;
+
+    @Value("${app.poller.session-timeout}")
+    private Duration sessionTimeout;
+
+    private final SmartIdClient client;
+    private final ThreadPoolTaskExecutor sessionStatusExecutor;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, PolledSession> sessions = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+    private final Timer sessionDuration;
+
+    public SmartIdSessionPollerImpl(SmartIdClient client,
+                                    @Qualifier("sessionStatusExecutor") ThreadPoolTaskExecutor sessionStatusExecutor,
+                                    @Value("${app.poller.scheduler-threads}") int schedulerThreads,
+                                    MeterRegistry meterRegistry) {
+        this.client = client;
+        this.sessionStatusExecutor = sessionStatusExecutor;
+        this.scheduler = Executors.newScheduledThreadPool(schedulerThreads, new CustomizableThreadFactory("sid-poll-timer-"));
+        this.meterRegistry = meterRegistry;
+        this.sessionDuration = Timer.builder("sid.demo.poller.session.duration")
+                .description("Time from the start of polling until Smart-ID session reached final state")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        Gauge.builder("sid.demo.poller.sessions", sessions, Map::size)
+                .description("Smart-ID sessions currently polled")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean hasCapacity() {
+        return sessions.size() < maxSessions;
+    }
+
+    @Override
+    public CompletableFuture<SessionStatus> pollUntilComplete(String sessionId) {
+        if (!hasCapacity()) {
+            throw new ServiceBusyException("Too many Smart-ID sessions in progress, please try again later", null);
+        }
+
+        var session = new PolledSession(sessionId);
+        PolledSession existing = sessions.putIfAbsent(sessionId, session);
+        if (existing != null) {
+            return existing.result;
+        }
+
+        schedule(session, Duration.ZERO);
+        return session.result;
+    }
+
+    @Override
+    public boolean cancel(String sessionId) {
+        PolledSession session = sessions.get(sessionId);
+        return session != null && complete(session, null, new CancellationException("Session " + sessionId + " was cancelled"));
+    }
+
+    @Override
+    public int getPendingSessionCount() {
+        return sessions.size();
+    }
+
+    private void schedule(PolledSession session, Duration delay) {
+        scheduler.schedule(() -> requestStatus(session), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void requestStatus(PolledSession session) {
+        try {
+            sessionStatusExecutor.execute(() -> poll(session));
+        } catch (RejectedExecutionException e) {
+            // all status request threads are busy, try again on next tick
+            countRequest("rejected");
+            reschedule(session);
+        }
+    }
+
+    private void poll(PolledSession session) {
+        if (session.result.isDone()) {
+            // cancelled while waiting for the next request
+            return;
+        }
+        session.attempts++;
+        try {
+            SessionStatus sessionStatus = client.getSmartIdConnector().getSessionStatus(session.sessionId);
+            countRequest(String.valueOf(sessionStatus.getState()));
+
+            if (STATE_COMPLETE.equals(sessionStatus.getState())) {
+                complete(session, sessionStatus, null);
+            } else {
+                reschedule(session);
+            }
+        } catch (ProcessingException e) {
+            logger.warn("Could not get status of session {}, retrying", session.sessionId, e);
+            countRequest("error");
+            reschedule(session);
+        } catch (RuntimeException e) {
+            countRequest("error");
+            complete(session, null, e);
+        }
+    }
+
+    private void reschedule(PolledSession session) {
+        if (System.nanoTime() - session.startNanos > sessionTimeout.toNanos()) {
+            // same cause as a session that timed out on the Smart-ID side
+            complete(session, null, new SidOperationException("Session Timeout", new SessionTimeoutException()));
+            return;
+        }
+        schedule(session, nextDelay(session.attempts));
+    }
+
+    // package private for tests
+    Duration nextDelay(int attempts) {
+        long exponential = initialInterval.toMillis() << Math.min(attempts, 16);
+        long delay = Math.min(exponential, maxInterval.toMillis());
+        double jitter = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Duration.ofMillis((long) (delay * jitter));
+    }
+
+    // false if the session was already completed (cancelled while a status request was in flight)
+    private boolean complete(PolledSession session, SessionStatus sessionStatus, Throwable exception) {
+        if (!sessions.remove(session.sessionId, session)) {
+            return false;
+        }
+        sessionDuration.record(System.nanoTime() - session.startNanos, TimeUnit.NANOSECONDS);
+        commitEndEvent(session, sessionStatus, exception);
+
+        if (exception != null) {
+            session.result.completeExceptionally(exception);
+        } else {
+            session.result.complete(sessionStatus);
+        }
+        return true;
+    }
+
+    private static void commitEndEvent(PolledSession session, SessionStatus sessionStatus, Throwable exception) {
+        SmartIdSessionEndEvent event = session.endEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            event.sessionId = session.sessionId;
+            event.endResult = exception != null ? exception.getClass().getSimpleName()
+                    : sessionStatus.getResult() != null ? sessionStatus.getResult().getEndResult() : null;
+            event.polls = session.attempts;
+            event.commit();
+        }
+    }
+
+    private void countRequest(String state) {
+        Counter.builder("sid.demo.poller.requests")
+                .description("Session status requests sent to Smart-ID API")
+                .tag("state", state)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static class PolledSession {
+
+        private final String sessionId;
+        private final long startNanos = System.nanoTime();
+        private final CompletableFuture<SessionStatus> result = new CompletableFuture<>();
+        private final SmartIdSessionEndEvent endEvent = new SmartIdSessionEndEvent();
+
+        // only modified by the single status request in flight for this session
+        private volatile int attempts;
+
+        PolledSession(String sessionId) {
+            this.sessionId = sessionId;
+            this.endEvent.begin();
+        }
+    }
+}
@@ -22,13 +22,40 @@ package ee.sk.siddemo.services;
  * #L%
  */
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
 import ee.sk.siddemo.model.SigningResult;
 import ee.sk.siddemo.model.SigningSessionInfo;
 import ee.sk.siddemo.model.UserRequest;
 
 public interface SmartIdSignatureService {
 
+    /**
+     * Prepares the container and starts Smart-ID signature session.
+     *
+     * @throws ee.sk.siddemo.exception.ServiceBusyException if there is no capacity for another signature
+     */
     SigningSessionInfo sendSignatureRequest(UserRequest userRequest);
 
-    SigningResult sign(SigningSessionInfo signingSessionInfo);
+    /**
+     * Prepares detached XAdES signature over a digest calculated by the user, document itself is not uploaded.
+     *
+     * @throws ee.sk.siddemo.exception.ServiceBusyException if there is no capacity for another signature
+     */
+    SigningSessionInfo sendHashSignatureRequest(UserRequest userRequest);
+
+    /**
+     * Follows a started signature session, also one started by another node.
+     * Once the user has signed, finalization, storing and validation run on bounded executors.
+     *
+     * @param finalizeClaim acquired before finalization so that only one node finalizes the signature
+     * @return future of the result, completed with null when another node holds the claim
+     */
+    CompletableFuture<SigningResult> sign(SigningSessionInfo signingSessionInfo, BooleanSupplier finalizeClaim);
+
+    /**
+     * Stops following a session that was dropped from the pending session store and deletes its spooled upload.
+     */
+    void cancel(SigningSessionInfo signingSessionInfo);
 }
@@ -24,37 +24,63 @@ package ee.sk.siddemo.services;
 
 import static java.util.Arrays.asList;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 import org.digidoc4j.Configuration;
 import org.digidoc4j.Container;
 import org.digidoc4j.ContainerBuilder;
 import org.digidoc4j.DataFile;
 import org.digidoc4j.DataToSign;
+import org.digidoc4j.DetachedXadesSignatureBuilder;
 import org.digidoc4j.DigestAlgorithm;
+import org.digidoc4j.DigestDataFile;
 import org.digidoc4j.Signature;
 import org.digidoc4j.SignatureBuilder;
+import org.digidoc4j.SignatureFinalizer;
+import org.digidoc4j.SignatureFinalizerBuilder;
 import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.X509Cert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
-import ee.sk.siddemo.exception.FileUploadException;
+import ee.sk.siddemo.asic.AsicContainerWriter;
+import ee.sk.siddemo.exception.ServiceBusyException;
 import ee.sk.siddemo.exception.SidOperationException;
+import ee.sk.siddemo.jfr.ContainerWriteEvent;
+import ee.sk.siddemo.jfr.SmartIdSessionStartEvent;
+import ee.sk.siddemo.logging.AuditLog;
+import ee.sk.siddemo.metrics.StageTimers;
+import ee.sk.siddemo.model.DetachedDocument;
 import ee.sk.siddemo.model.SigningResult;
 import ee.sk.siddemo.model.SigningSessionInfo;
+import ee.sk.siddemo.model.SpooledUpload;
 import ee.sk.siddemo.model.UserRequest;
+import ee.sk.siddemo.model.ValidationReport;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
 import ee.sk.smartid.HashType;
 import ee.sk.smartid.SignableData;
 import ee.sk.smartid.SignableHash;
+import ee.sk.smartid.SignatureRequestBuilder;
 import ee.sk.smartid.SmartIdCertificate;
 import ee.sk.smartid.SmartIdClient;
-import ee.sk.smartid.SmartIdSignature;
 import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
 import ee.sk.smartid.exception.useraccount.DocumentUnusableException;
 import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
@@ -63,12 +89,19 @@ import ee.sk.smartid.exception.useraction.UserRefusedException;
 import ee.sk.smartid.exception.useraction.UserSelectedWrongVerificationCodeException;
 import ee.sk.smartid.rest.dao.Interaction;
 import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import eu.europa.esig.dss.model.FileDocument;
 
 @Service
 public class SmartIdSignatureServiceImpl implements SmartIdSignatureService {
 
     private static final Logger logger = LoggerFactory.getLogger(SmartIdSignatureServiceImpl.class);
 
+    private static final String DEFAULT_MEDIA_TYPE = "application/octet-stream";
+
+    // DER encoded DigestInfo of a SHA-256 digest without the digest itself, see RFC 8017 section 9.2
+    private static final byte[] SHA256_DIGEST_INFO_PREFIX = HexFormat.of().parseHex("3031300d060960864801650304020105000420");
+
     @Value("${sid.sign.displayText}")
     private String sidSignDisplayText;
 
@@ -78,44 +111,151 @@ public class SmartIdSignatureServiceImpl implements SmartIdSignatureService {
     @Value("${sid.client.relyingPartyName}")
     private String sidRelyingPartyName;
 
-    @Value("${app.signed-files-directory}")
-    private String signedFilesDirectory;
+    @Value("${app.sign.signature-profile}")
+    private SignatureProfile signatureProfile;
+
+    @Value("${app.sign.deferred-augmentation.enabled}")
+    private boolean deferredAugmentation;
+
+    @Value("${app.sign.validation.async}")
+    private boolean asyncValidation;
+
+    @Value("${app.sign.validation.skip-revalidation}")
+    private boolean skipRevalidation;
 
     private final SmartIdCertificateService certificateService;
     private final SmartIdClient client;
-
-    public SmartIdSignatureServiceImpl(SmartIdCertificateService certificateService, SmartIdClient client) {
+    private final Configuration configuration;
+
+    private final SmartIdSessionPoller sessionPoller;
+    private final UploadSpoolService uploadSpoolService;
+    private final SignatureAugmentationService augmentationService;
+    private final SignatureValidationService validationService;
+    private final ContainerStorage containerStorage;
+    private final AsicContainerWriter containerWriter;
+    private final StageTimers stageTimers;
+    private final AuditLog auditLog;
+
+    private final ThreadPoolTaskExecutor certificateExecutor;
+    private final ThreadPoolTaskExecutor signingFinalizeExecutor;
+    private final ThreadPoolTaskExecutor signingStorageExecutor;
+
+    public SmartIdSignatureServiceImpl(SmartIdCertificateService certificateService, SmartIdClient client, Configuration configuration,
+                                       SmartIdSessionPoller sessionPoller, UploadSpoolService uploadSpoolService, SignatureAugmentationService augmentationService,
+                                       SignatureValidationService validationService, ContainerStorage containerStorage,
+                                       AsicContainerWriter containerWriter, StageTimers stageTimers, AuditLog auditLog,
+                                       @Qualifier("certificateExecutor") ThreadPoolTaskExecutor certificateExecutor,
+                                       @Qualifier("signingFinalizeExecutor") ThreadPoolTaskExecutor signingFinalizeExecutor,
+                                       @Qualifier("signingStorageExecutor") ThreadPoolTaskExecutor signingStorageExecutor) {
         this.certificateService = certificateService;
         this.client = client;
+        this.configuration = configuration;
+        this.sessionPoller = sessionPoller;
+        this.uploadSpoolService = uploadSpoolService;
+        this.augmentationService = augmentationService;
+        this.validationService = validationService;
+        this.containerStorage = containerStorage;
+        this.containerWriter = containerWriter;
+        this.stageTimers = stageTimers;
+        this.auditLog = auditLog;
+        this.certificateExecutor = certificateExecutor;
+        this.signingFinalizeExecutor = signingFinalizeExecutor;
+        this.signingStorageExecutor = signingStorageExecutor;
     }
 
     @Override
     public SigningSessionInfo sendSignatureRequest(UserRequest userRequest) {
+        checkCapacity();
 
-        var semanticsIdentifier = new SemanticsIdentifier(
-                // 3 character identity type
-                // (PAS-passport, IDC-national identity card or PNO - (national) personal number)
-                SemanticsIdentifier.IdentityType.PNO,
-                userRequest.getCountry(), // 2 character ISO 3166-1 alpha-2 country code
-                userRequest.getNationalIdentityNumber());
+        // certificate is fetched from Smart-ID API while the upload is read and the container is built
+        CompletableFuture<SmartIdCertificate> signingCertFuture = runStage(certificateExecutor,
+                () -> timed("certificate", () -> certificateService.getCertificate(userRequest)));
+
+        SpooledUpload spooledUpload = null;
+        try {
+            spooledUpload = timed("upload", () -> uploadSpoolService.spool(userRequest.getFile()));
+            SpooledUpload upload = spooledUpload;
+
+            Container container = timed("container", () -> newContainer(upload));
+
+            SmartIdCertificate signingCert = timed("certificate-wait", () -> join(signingCertFuture));
+
+            // deferred augmentation: B level signature now, SignatureAugmentationService extends it after the container is saved
+            SignatureProfile profile = deferredAugmentation ? SignatureProfile.B_BES : signatureProfile;
+
+            DataToSign dataToSignExternally = timed("data-to-sign", () -> SignatureBuilder.aSignature(container)
+                    .withSigningCertificate(signingCert.getCertificate())
+                    .withSignatureDigestAlgorithm(DigestAlgorithm.SHA256)
+                    .withSignatureProfile(profile)
+                    .buildDataToSign());
+
+            return newSigningSessionInfo(userRequest, dataToSignExternally, signingCert)
+                    .withContainer(container)
+                    .withSpooledUpload(spooledUpload)
+                    .build();
+        } catch (RuntimeException e) {
+            signingCertFuture.cancel(false);
+            uploadSpoolService.delete(spooledUpload);
+            throw e;
+        }
+    }
 
-        DataFile uploadedFile = getUploadedDataFile(userRequest.getFile());
+    @Override
+    public SigningSessionInfo sendHashSignatureRequest(UserRequest userRequest) {
+        checkCapacity();
 
-        var configuration = new Configuration(Configuration.Mode.TEST);
+        DigestAlgorithm digestAlgorithm = DigestAlgorithm.valueOf(userRequest.getDigestAlgorithm());
+        byte[] digest = decodeDigest(userRequest.getDigest(), digestAlgorithm);
 
-        Container container = ContainerBuilder.aContainer()
-                .withConfiguration(configuration)
-                .withDataFile(uploadedFile)
-                .build();
+        // only the digest of the document is signed, document itself never reaches the server
+        var dataFile = new DigestDataFile(userRequest.getFileName(), digestAlgorithm, digest, userRequest.getMimeType());
 
-        SmartIdCertificate signingCert = certificateService.getCertificate(userRequest);
+        SmartIdCertificate signingCert = timed("certificate", () -> certificateService.getCertificate(userRequest));
 
-        DataToSign dataToSignExternally = SignatureBuilder.aSignature(container)
+        DataToSign dataToSignExternally = timed("data-to-sign", () -> DetachedXadesSignatureBuilder.withConfiguration(configuration)
+                .withDataFile(dataFile)
                 .withSigningCertificate(signingCert.getCertificate())
                 .withSignatureDigestAlgorithm(DigestAlgorithm.SHA256)
-                .withSignatureProfile(SignatureProfile.LT)
-                .buildDataToSign();
+                // detached signature can not be extended later without the document, it is always finalized at the configured profile
+                .withSignatureProfile(signatureProfile)
+                .buildDataToSign());
+
+        return newSigningSessionInfo(userRequest, dataToSignExternally, signingCert)
+                .withDetachedDocument(new DetachedDocument(dataFile.getName(), digestAlgorithm, digest, userRequest.getMimeType()))
+                .build();
+    }
 
+    // file backed data file, document content is streamed from the spool file when needed
+    private Container newContainer(SpooledUpload spooledUpload) {
+        var document = new FileDocument(spooledUpload.getPath().toFile());
+        // spool file name is sanitised, the container keeps the name of the uploaded file
+        document.setName(spooledUpload.getFileName());
+        var dataFile = new DataFile(document);
+        dataFile.setMediaType(spooledUpload.getMimeType() != null ? spooledUpload.getMimeType() : DEFAULT_MEDIA_TYPE);
+        return ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .withDataFile(dataFile)
+                .build();
+    }
+
+    private void checkCapacity() {
+        if (!sessionPoller.hasCapacity()) {
+            logger.warn("Maximum number of pending signatures reached");
+            throw new ServiceBusyException("Too many signatures in progress, please try again later", null);
+        }
+    }
+
+    /**
+     * Starts Smart-ID signature session for the prepared data to sign.
+     */
+    private SigningSessionInfo.Builder newSigningSessionInfo(UserRequest userRequest, DataToSign dataToSignExternally,
+                                                             SmartIdCertificate signingCert) {
+        var semanticsIdentifier = new SemanticsIdentifier(
+                // 3 character identity type
+                // (PAS-passport, IDC-national identity card or PNO - (national) personal number)
+                SemanticsIdentifier.IdentityType.PNO,
+                userRequest.getCountry(), // 2 character ISO 3166-1 alpha-2 country code
+                userRequest.getNationalIdentityNumber());
 
         var signableData = new SignableData(dataToSignExternally.getDataToSign());
         signableData.setHashType(HashType.SHA256);
@@ -124,73 +264,255 @@ public class SmartIdSignatureServiceImpl implements SmartIdSignatureService {
         hashToSign.setHash(signableData.calculateHash());
         hashToSign.setHashType(signableData.getHashType());
 
+        String sessionId = timed("initiate", () -> SmartIdSessionStartEvent.record(StageTimers.SIGNATURE,
+                () -> handleSidErrors(semanticsIdentifier, signatureRequest(signingCert.getDocumentNumber(), hashToSign)::initiateSigning)));
+        auditLog.sessionStarted(StageTimers.SIGNATURE, sessionId, semanticsIdentifier);
 
         return SigningSessionInfo.newBuilder()
+                .withSessionID(sessionId)
                 .withVerificationCode(hashToSign.calculateVerificationCode())
                 .withDataToSign(dataToSignExternally)
-                .withContainer(container)
+                .withSignatureParameters(dataToSignExternally.getSignatureParameters())
                 .withDocumentNumber(signingCert.getDocumentNumber())
                 .withHashToSign(hashToSign)
-                .build();
+                .withSemanticsIdentifier(semanticsIdentifier);
     }
 
-    private DataFile getUploadedDataFile(MultipartFile uploadedFile) {
+    /**
+     * Accepts digest both in hex (sha256sum output) and in base64 (openssl dgst -binary | base64).
+     */
+    private static byte[] decodeDigest(String encodedDigest, DigestAlgorithm digestAlgorithm) {
+        int expectedLength = digestAlgorithm == DigestAlgorithm.SHA512 ? 64 : 32;
+        String trimmed = encodedDigest.trim();
+
+        byte[] digest;
         try {
-            return new DataFile(uploadedFile.getInputStream(), uploadedFile.getOriginalFilename(), uploadedFile.getContentType());
-        } catch (IOException e) {
-            throw new FileUploadException(e.getCause());
+            digest = trimmed.matches("[0-9a-fA-F]{" + expectedLength * 2 + "}")
+                    ? HexFormat.of().parseHex(trimmed)
+                    : Base64.getDecoder().decode(trimmed);
+        } catch (IllegalArgumentException e) {
+            throw new SidOperationException("Digest must be hex or base64 encoded", e);
         }
+
+        if (digest.length != expectedLength) {
+            throw new SidOperationException("Digest length does not match " + digestAlgorithm);
+        }
+        return digest;
     }
 
     @Override
-    public SigningResult sign(SigningSessionInfo signingSessionInfo) {
-        Signature signature;
-        Path targetPath;
+    public CompletableFuture<SigningResult> sign(SigningSessionInfo signingSessionInfo, BooleanSupplier finalizeClaim) {
+        // request is not sent again, builder is only needed to interpret the session status
+        SignatureRequestBuilder signatureRequest = signatureRequest(signingSessionInfo.getDocumentNumber(), signingSessionInfo.getHashToSign());
+
+        // time the user takes to enter PIN2, tagged with the end result of the session
+        return stageTimers.recordAsync(StageTimers.SIGNATURE, "smart-id", () -> sessionPoller.pollUntilComplete(signingSessionInfo.getSessionID())
+                        .thenApply(status -> handleSidErrors(signingSessionInfo.getSemanticsIdentifier(),
+                                () -> signatureRequest.createSmartIdSignature(status).getValue())))
+                .thenCompose(value -> {
+                    if (!finalizeClaim.getAsBoolean()) {
+                        // another node follows the same session and finalizes it, spooled document is still needed there
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return runStage(signingFinalizeExecutor, () -> timed("finalize", () -> finalizeSignature(signingSessionInfo, value)))
+                            .thenCompose(signature -> runStage(signingStorageExecutor, () -> timed("save", () -> saveContainer(signature))))
+                            .thenCompose(this::validate);
+                })
+                // container has been written (or signing failed), spooled document is no longer needed
+                .whenComplete((result, exception) -> {
+                    if (result != null || exception != null) {
+                        uploadSpoolService.delete(signingSessionInfo.getSpooledUpload());
+                        auditLog.sessionFinished(StageTimers.SIGNATURE, signingSessionInfo.getSessionID(), signingSessionInfo.getSemanticsIdentifier(),
+                                result != null ? result.getContainerId() : null, exception);
+                    }
+                });
+    }
 
-        try {
+    @Override
+    public void cancel(SigningSessionInfo signingSessionInfo) {
+        // a polled session fails, the upload is then also deleted by sign()
+        sessionPoller.cancel(signingSessionInfo.getSessionID());
+        uploadSpoolService.delete(signingSessionInfo.getSpooledUpload());
+    }
 
-            SmartIdSignature smartIdSignature = client
-                    .createSignature()
-                    .withDocumentNumber(signingSessionInfo.getDocumentNumber())
-                    .withSignableHash(signingSessionInfo.getHashToSign())
-                    .withCertificateLevel("QUALIFIED")
-                    .withAllowedInteractionsOrder(asList(
-                            Interaction.confirmationMessage("Confirmation message dialogue"),
-                            Interaction.displayTextAndPIN("Do you want to sign the file?")
-                    ))
-                    .sign();
+    private SignatureRequestBuilder signatureRequest(String documentNumber, SignableHash hashToSign) {
+        return client
+                .createSignature()
+                .withDocumentNumber(documentNumber)
+                .withSignableHash(hashToSign)
+                .withCertificateLevel("QUALIFIED")
+                .withAllowedInteractionsOrder(asList(
+                        Interaction.confirmationMessage("Confirmation message dialogue"),
+                        Interaction.displayTextAndPIN("Do you want to sign the file?")
+                ));
+    }
 
-            byte[] signatureValue = smartIdSignature.getValue();
+    // certificate-wait is the time spent waiting for the certificate fetch running in parallel with upload and container stages
+    private <T> T timed(String stage, Supplier<T> action) {
+        return stageTimers.record(StageTimers.SIGNATURE, stage, action);
+    }
 
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
 
-            signature = signingSessionInfo.getDataToSign().finalize(signatureValue);
-            signingSessionInfo.getContainer().addSignature(signature);
+    private static <T> CompletableFuture<T> runStage(Executor executor, Supplier<T> stage) {
+        try {
+            return CompletableFuture.supplyAsync(stage, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new ServiceBusyException("Signing service is overloaded, please try again later", e));
+        }
+    }
 
-            File containerFile = File.createTempFile("sid-demo-container-", ".asice");
-            targetPath = createSavePath(containerFile);
-            signingSessionInfo.getContainer().saveAsFile(targetPath.toString());
+    private <T> T handleSidErrors(SemanticsIdentifier semanticsIdentifier, Supplier<T> sidOperation) {
+        try {
+            return sidOperation.get();
+        } catch (DocumentUnusableException e) {
+            // cached document number can not be used anymore, next signing fetches certificate again
+            certificateService.invalidate(semanticsIdentifier);
+            logger.warn("Smart-ID service returned internal error that cannot be handled locally.");
+            throw new SidOperationException("Smart-ID internal error", e);
         } catch (UserAccountNotFoundException | UserRefusedException | UserSelectedWrongVerificationCodeException | SessionTimeoutException |
-                 DocumentUnusableException | ServerMaintenanceException e) {
+                 ServerMaintenanceException e) {
             logger.warn("Smart-ID service returned internal error that cannot be handled locally.");
             throw new SidOperationException("Smart-ID internal error", e);
-        } catch (IOException e) {
+        }
+    }
+
+    // LT profile: OCSP and timestamp are fetched here and are part of the finalize stage
+    private FinalizedSignature finalizeSignature(SigningSessionInfo signingSessionInfo, byte[] signatureValue) {
+        Container container = signingSessionInfo.getContainer();
+        if (container == null && signingSessionInfo.getSpooledUpload() != null) {
+            // session was started on another node, container is rebuilt from the shared spool directory
+            container = newContainer(signingSessionInfo.getSpooledUpload());
+        }
+        Signature signature = signingSessionInfo.getDataToSign() != null
+                ? signingSessionInfo.getDataToSign().finalize(signatureValue)
+                : signatureFinalizer(signingSessionInfo, container).finalizeSignature(signatureValue);
+        boolean verified = skipRevalidation && verifySignatureValue(signingSessionInfo.getHashToSign(), signature, signatureValue);
+        if (container != null) {
+            container.addSignature(signature);
+        }
+        return new FinalizedSignature(signature, container, verified);
+    }
+
+    /**
+     * Signature parameters carry the signature id and claimed signing time, the rebuilt signature signs
+     * the same data as the one whose hash was sent to Smart-ID.
+     */
+    private SignatureFinalizer signatureFinalizer(SigningSessionInfo signingSessionInfo, Container container) {
+        if (signingSessionInfo.getSignatureParameters() == null) {
+            throw new SidOperationException("Signing session can not be finalized on this node");
+        }
+        if (container != null) {
+            return SignatureFinalizerBuilder.aFinalizer(container, signingSessionInfo.getSignatureParameters());
+        }
+        DetachedDocument document = signingSessionInfo.getDetachedDocument();
+        var dataFile = new DigestDataFile(document.fileName(), document.digestAlgorithm(), document.digest(), document.mimeType());
+        return SignatureFinalizerBuilder.aFinalizer(List.of(dataFile), signingSessionInfo.getSignatureParameters(), configuration,
+                Container.DocumentType.ASICE);
+    }
+
+    /**
+     * Checks the value returned by Smart-ID against the signing certificate, which is all that can go wrong
+     * with a signature we have just built from a certificate and OCSP response digidoc4j has already checked.
+     * Smart-ID signs with RSA, other keys are left to full validation. The hash sent to Smart-ID is known on every node,
+     * it is verified as a PKCS#1 v1.5 DigestInfo.
+     */
+    private static boolean verifySignatureValue(SignableHash hashToSign, Signature signature, byte[] signatureValue) {
+        PublicKey publicKey = signature.getSigningCertificate().getX509Certificate().getPublicKey();
+        if (!"RSA".equals(publicKey.getAlgorithm()) || hashToSign.getHashType() != HashType.SHA256) {
+            return false;
+        }
+        try {
+            var verifier = java.security.Signature.getInstance("NONEwithRSA");
+            verifier.initVerify(publicKey);
+            verifier.update(SHA256_DIGEST_INFO_PREFIX);
+            verifier.update(hashToSign.getHash());
+            return verifier.verify(signatureValue);
+        } catch (GeneralSecurityException e) {
+            logger.warn("Could not verify signature value", e);
+            return false;
+        }
+    }
+
+    private SavedSignature saveContainer(FinalizedSignature finalized) {
+        var event = new ContainerWriteEvent();
+        event.begin();
+        Signature signature = finalized.signature();
+        String signer = signature.getSigningCertificate().getSubjectName(X509Cert.SubjectName.CN);
+        Date signedAt = signature.getTrustedSigningTime() != null ? signature.getTrustedSigningTime() : signature.getClaimedSigningTime();
+
+        SavedSignature saved;
+        try {
+            if (finalized.container() == null) {
+                // detached signature of a digest, saved as XAdES document
+                byte[] xades = signature.getAdESSignature();
+                StoredContainer stored = containerStorage.save("xml", signer, signedAt.toInstant(), out -> out.write(xades));
+                saved = new SavedSignature(signature, stored, containerStorage.resolve(stored), true, false, false);
+            } else {
+                StoredContainer stored = containerStorage.save("asice", signer, signedAt.toInstant(), out -> containerWriter.write(finalized.container(), out));
+                boolean augmentationPending = signature.getProfile() != signatureProfile;
+                if (augmentationPending) {
+                    augmentationService.schedule(stored.id());
+                }
+                saved = new SavedSignature(signature, stored, containerStorage.resolve(stored), false, augmentationPending,
+                        finalized.verified());
+            }
+        } catch (UncheckedIOException e) {
             throw new SidOperationException("Could not create container file.", e);
         }
 
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = saved.stored().size();
+            event.detached = saved.detached();
+            event.commit();
+        }
+        return saved;
+    }
+
+    /**
+     * Validation runs on the validation pool, see SignatureValidationService. With app.sign.validation.async
+     * the result is returned right away and the report is picked up from /signature/validation.
+     */
+    private CompletableFuture<SigningResult> validate(SavedSignature saved) {
+        // detached signature can only be validated together with the document which stays with the user,
+        // B level signature waiting for augmentation is validated after it has been extended
+        if (saved.detached() || saved.augmentationPending()) {
+            return CompletableFuture.completedFuture(signingResult(saved, null, false));
+        }
+        if (saved.verified()) {
+            validationService.recordVerified(saved.stored());
+            return CompletableFuture.completedFuture(signingResult(saved, true, false));
+        }
+        CompletableFuture<ValidationReport> report = validationService.validate(saved.stored());
+        if (asyncValidation) {
+            return CompletableFuture.completedFuture(signingResult(saved, null, true));
+        }
+        return report.thenApply(validated -> signingResult(saved, validated.valid(), false));
+    }
+
+    private static SigningResult signingResult(SavedSignature saved, Boolean valid, boolean validationPending) {
         return SigningResult.newBuilder()
                 .withResult("Signing successful")
-                .withValid(signature.validateSignature().isValid())
-                .withTimestamp(signature.getTimeStampCreationTime())
-                .withContainerFilePath(targetPath.toString())
+                .withValid(valid)
+                .withTimestamp(saved.signature().getTimeStampCreationTime())
+                .withContainerFilePath(saved.containerPath().toString())
+                .withContainerId(saved.stored().id())
+                .withAugmentationPending(saved.augmentationPending())
+                .withValidationPending(validationPending)
                 .build();
     }
 
-    private Path createSavePath(File containerFile) {
-        Path targetDir = Paths.get(signedFilesDirectory);
-        File directory = targetDir.toFile();
-        if (!directory.exists()) {
-            directory.mkdirs();
-        }
-        return targetDir.resolve(containerFile.getName());
+    private record FinalizedSignature(Signature signature, Container container, boolean verified) {
+    }
+
+    private record SavedSignature(Signature signature, StoredContainer stored, Path containerPath, boolean detached,
+                                  boolean augmentationPending, boolean verified) {
     }
 }
@@ -0,0 +1,134 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.TSLCertificateSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+
+@Service
+public class TrustedListServiceImpl implements TrustedListService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrustedListServiceImpl.class);
+
+    @Value("${app.digidoc4j.tsl-preload}")
+    private boolean tslPreload;
+
+    private final Configuration configuration;
+    private final ThreadPoolTaskExecutor trustedListExecutor;
+    private final Timer refreshTimer;
+
+    private final AtomicBoolean ready = new AtomicBoolean();
+    private final AtomicInteger trustedCertificateCount = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+
+    public TrustedListServiceImpl(Configuration configuration,
+                                  @Qualifier("trustedListExecutor") ThreadPoolTaskExecutor trustedListExecutor,
+                                  MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.trustedListExecutor = trustedListExecutor;
+        this.refreshTimer = Timer.builder("sid.demo.tsl.refresh")
+                .description("Time taken to load and validate the trusted list")
+                .register(meterRegistry);
+
+        Gauge.builder("sid.demo.tsl.ready", ready, r -> r.get() ? 1 : 0)
+                .description("1 when the trusted list is loaded and contains certificates")
+                .register(meterRegistry);
+        Gauge.builder("sid.demo.tsl.certificates", trustedCertificateCount, AtomicInteger::get)
+                .description("Number of certificates in the loaded trusted list")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void preload() {
+        if (tslPreload) {
+            refresh();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${app.digidoc4j.tsl-refresh-interval}",
+            fixedDelayString = "${app.digidoc4j.tsl-refresh-interval}")
+    void scheduledRefresh() {
+        // download may take minutes, the shared scheduler threads also complete pending sessions
+        try {
+            trustedListExecutor.execute(this::refresh);
+        } catch (RejectedExecutionException e) {
+            logger.info("Previous trusted list refresh is still running, skipping");
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready.get();
+    }
+
+    @Override
+    public int getTrustedCertificateCount() {
+        return trustedCertificateCount.get();
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public void refresh() {
+        long start = System.nanoTime();
+        try {
+            TSLCertificateSource tsl = configuration.getTSL();
+            tsl.refresh();
+
+            int count = tsl.getCertificates().size();
+            trustedCertificateCount.set(count);
+            // refresh has replaced the list even if it came back empty, nothing validates until the next refresh
+            ready.set(count > 0);
+            if (count > 0) {
+                // reports of the previous list are dropped, an empty list leaves them to the next successful refresh
+                version.incrementAndGet();
+            }
+            logger.info("Trusted list loaded with {} certificates", count);
+        } catch (RuntimeException e) {
+            logger.warn("Could not load trusted list", e);
+        } finally {
+            refreshTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
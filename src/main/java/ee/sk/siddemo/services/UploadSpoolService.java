@@ -0,0 +1,38 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.springframework.web.multipart.MultipartFile;
+
+import ee.sk.siddemo.model.SpooledUpload;
+
+public interface UploadSpoolService {
+
+    /**
+     * Streams the upload to the spool directory. The file on disk has a sanitised name,
+     * {@link SpooledUpload#getFileName()} is the name the user uploaded.
+     */
+    SpooledUpload spool(MultipartFile file);
+
+    void delete(SpooledUpload spooledUpload);
+}
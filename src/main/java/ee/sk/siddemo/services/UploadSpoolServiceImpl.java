@@ -0,0 +1,145 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import ee.sk.siddemo.exception.FileUploadException;
+import ee.sk.siddemo.model.SpooledUpload;
+
+@Service
+public class UploadSpoolServiceImpl implements UploadSpoolService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSpoolServiceImpl.class);
+
+    private static final String DEFAULT_FILE_NAME = "document";
+    private static final String UPLOAD_DIRECTORY_PREFIX = "upload-";
+
+    @Value("${app.upload.spool-directory}")
+    private String spoolDirectory;
+
+    @Value("${app.upload.max-age}")
+    private Duration maxAge;
+
+    @Override
+    public SpooledUpload spool(MultipartFile file) {
+        try {
+            Path spoolDir = Paths.get(spoolDirectory);
+            Files.createDirectories(spoolDir);
+
+            // every upload gets its own directory, only the name on disk is sanitised,
+            // the container keeps the name the user uploaded
+            String fileName = originalFileName(file.getOriginalFilename());
+            Path target = Files.createTempDirectory(spoolDir, UPLOAD_DIRECTORY_PREFIX).resolve(sanitizeFileName(fileName));
+
+            long size;
+            try (InputStream in = file.getInputStream()) {
+                size = Files.copy(in, target);
+            }
+
+            return SpooledUpload.newBuilder()
+                    .withPath(target)
+                    .withFileName(fileName)
+                    .withMimeType(file.getContentType())
+                    .withSize(size)
+                    .build();
+        } catch (IOException e) {
+            throw new FileUploadException(e);
+        }
+    }
+
+    @Override
+    public void delete(SpooledUpload spooledUpload) {
+        if (spooledUpload == null) {
+            return;
+        }
+        try {
+            FileSystemUtils.deleteRecursively(spooledUpload.getPath().getParent());
+        } catch (IOException e) {
+            logger.warn("Could not delete spooled upload {}", spooledUpload.getPath(), e);
+        }
+    }
+
+    /**
+     * Uploads of sessions that never completed on any node: the node crashed or the pending session was evicted
+     * before it could be picked up by another one.
+     */
+    @Scheduled(fixedDelayString = "${app.upload.sweep-interval}")
+    void deleteOrphans() {
+        Path spoolDir = Paths.get(spoolDirectory);
+        if (!Files.isDirectory(spoolDir)) {
+            return;
+        }
+        Instant cutoff = Instant.now().minus(maxAge);
+        try (DirectoryStream<Path> uploads = Files.newDirectoryStream(spoolDir, UPLOAD_DIRECTORY_PREFIX + "*")) {
+            for (Path upload : uploads) {
+                deleteIfOlder(upload, cutoff);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not sweep spool directory {}", spoolDir, e);
+        }
+    }
+
+    private static void deleteIfOlder(Path upload, Instant cutoff) {
+        try {
+            if (Files.getLastModifiedTime(upload).toInstant().isBefore(cutoff)) {
+                logger.info("Deleting orphaned upload {}", upload);
+                FileSystemUtils.deleteRecursively(upload);
+            }
+        } catch (NoSuchFileException e) {
+            // deleted by the signing session or another node in the meantime
+        } catch (IOException e) {
+            logger.warn("Could not delete orphaned upload {}", upload, e);
+        }
+    }
+
+    private static String originalFileName(String originalFilename) {
+        if (originalFilename == null) {
+            return DEFAULT_FILE_NAME;
+        }
+        // some browsers send the full client side path
+        String name = originalFilename.substring(Math.max(originalFilename.lastIndexOf('/'), originalFilename.lastIndexOf('\\')) + 1);
+        return name.isBlank() ? DEFAULT_FILE_NAME : name;
+    }
+
+    private static String sanitizeFileName(String fileName) {
+        String sanitized = fileName.replaceAll("[^\\p{L}\\p{N}._ -]", "_");
+        return sanitized.startsWith(".") ? DEFAULT_FILE_NAME + sanitized : sanitized;
+    }
+}
@@ -0,0 +1,69 @@
+package ee.sk.siddemo.storage;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+/**
+ * Signed containers addressed by content digest, written atomically so that readers never see a partial file.
+ */
+public interface ContainerStorage {
+
+    /**
+     * Container content that already exists is not written again, the existing entry is returned.
+     *
+     * @param extension asice or xml
+     */
+    StoredContainer save(String extension, String signer, Instant signedAt, ContentWriter content);
+
+    /**
+     * Stores new content (an extended signature) under an existing id. Content found through the previous entry
+     * stays readable for a while, a download that started before the replace is completed.
+     */
+    StoredContainer replace(String id, ContentWriter content);
+
+    /**
+     * @return null if there is no such container
+     */
+    StoredContainer find(String id);
+
+    /**
+     * @return file holding the current content of the container
+     */
+    Path resolve(StoredContainer container);
+
+    /**
+     * All containers in the store, read lazily from the index. The stream must be closed.
+     */
+    Stream<StoredContainer> list();
+
+    @FunctionalInterface
+    interface ContentWriter {
+
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
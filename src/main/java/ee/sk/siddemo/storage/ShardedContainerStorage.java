@@ -0,0 +1,282 @@
+package ee.sk.siddemo.storage;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.DirectoryStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps containers under objects/ab/cd/abcd....asice, where abcd... is the SHA-256 digest of the content,
+ * and a small JSON index entry per container under index/ab/cd/{id}.json. Two directory levels of 256 entries
+ * keep every directory small with millions of containers, and a container is found without listing anything.
+ * <p>
+ * Content is written to a temporary file in the same file system and renamed into place. With fsync FILE the file
+ * is forced to disk before the rename, with DIRECTORY the rename itself is also forced, so a container reported
+ * as saved survives a power loss.
+ * <p>
+ * Content replaced by an extended signature is not deleted right away, a reader that looked up the previous entry
+ * (a download served with sendfile opens the file by name) still finds it. An empty file under superseded/ names
+ * the previous content, it is deleted by the first replace after replaced-retention has passed.
+ */
+public class ShardedContainerStorage implements ContainerStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedContainerStorage.class);
+
+    private static final Pattern ID = Pattern.compile("[0-9a-f]{64}");
+
+    public enum Fsync {
+        NONE,
+        FILE,
+        DIRECTORY
+    }
+
+    private final Path objects;
+    private final Path index;
+    private final Path temp;
+    private final Path superseded;
+    private final Fsync fsync;
+    private final Duration replacedRetention;
+    private final ObjectMapper objectMapper;
+    private final Counter stored;
+    private final Counter deduplicated;
+
+    public ShardedContainerStorage(Path root, Fsync fsync, Duration replacedRetention, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objects = root.resolve("objects");
+        this.index = root.resolve("index");
+        this.temp = root.resolve("tmp");
+        this.superseded = root.resolve("superseded");
+        this.fsync = fsync;
+        this.replacedRetention = replacedRetention;
+        this.objectMapper = objectMapper;
+        this.stored = writes(meterRegistry, "stored");
+        this.deduplicated = writes(meterRegistry, "deduplicated");
+        try {
+            Files.createDirectories(objects);
+            Files.createDirectories(index);
+            Files.createDirectories(temp);
+            Files.createDirectories(superseded);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create container storage in " + root, e);
+        }
+    }
+
+    @Override
+    public StoredContainer save(String extension, String signer, Instant signedAt, ContentWriter content) {
+        try {
+            Written written = write(content);
+            StoredContainer existing = find(written.digest());
+            if (existing != null) {
+                Files.deleteIfExists(written.file());
+                deduplicated.increment();
+                return existing;
+            }
+            moveIntoPlace(written, extension);
+            var container = new StoredContainer(written.digest(), written.digest(), extension, signer, signedAt, written.size(), Instant.now());
+            writeIndex(container);
+            stored.increment();
+            return container;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store container", e);
+        }
+    }
+
+    @Override
+    public StoredContainer replace(String id, ContentWriter content) {
+        StoredContainer previous = find(id);
+        if (previous == null) {
+            throw new IllegalArgumentException("No container " + id);
+        }
+        deleteSuperseded();
+        try {
+            Written written = write(content);
+            moveIntoPlace(written, previous.extension());
+            var container = new StoredContainer(id, written.digest(), previous.extension(), previous.signer(), previous.signedAt(),
+                    written.size(), Instant.now());
+            writeIndex(container);
+            stored.increment();
+            if (!previous.digest().equals(written.digest())) {
+                // readers holding the previous entry may not have opened the file yet
+                Files.write(superseded.resolve(resolve(previous).getFileName()), new byte[0]);
+            }
+            return container;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replace container " + id, e);
+        }
+    }
+
+    @Override
+    public StoredContainer find(String id) {
+        // id comes from the request, it must not leave the store
+        if (id == null || !ID.matcher(id).matches()) {
+            return null;
+        }
+        return readIndex(shard(index, id).resolve(id + ".json"));
+    }
+
+    @Override
+    public Path resolve(StoredContainer container) {
+        return shard(objects, container.digest()).resolve(container.digest() + "." + container.extension());
+    }
+
+    @Override
+    public Stream<StoredContainer> list() {
+        try {
+            return Files.walk(index, 3)
+                    .filter(path -> path.getFileName().toString().endsWith(".json"))
+                    .map(this::readIndex)
+                    .filter(container -> container != null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list containers in " + index, e);
+        }
+    }
+
+    private void deleteSuperseded() {
+        Instant deleteBefore = Instant.now().minus(replacedRetention);
+        try (DirectoryStream<Path> markers = Files.newDirectoryStream(superseded)) {
+            for (Path marker : markers) {
+                if (Files.getLastModifiedTime(marker).toInstant().isAfter(deleteBefore)) {
+                    continue;
+                }
+                // marker name is the name of the content file, digest.extension
+                String digest = marker.getFileName().toString().substring(0, 64);
+                Files.deleteIfExists(shard(objects, digest).resolve(marker.getFileName()));
+                Files.deleteIfExists(marker);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete replaced containers in {}", superseded, e);
+        }
+    }
+
+    private Written write(ContentWriter content) throws IOException {
+        Path file = Files.createTempFile(temp, "write-", ".tmp");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+                 OutputStream out = new DigestOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), digest)) {
+                content.writeTo(out);
+                out.flush();
+                if (fsync != Fsync.NONE) {
+                    channel.force(true);
+                }
+            }
+            return new Written(file, HexFormat.of().formatHex(digest.digest()), Files.size(file));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void moveIntoPlace(Written written, String extension) throws IOException {
+        Path target = shard(objects, written.digest()).resolve(written.digest() + "." + extension);
+        if (Files.exists(target)) {
+            // same content stored before under another id
+            Files.deleteIfExists(written.file());
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Files.move(written.file(), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(target.getParent());
+    }
+
+    private void writeIndex(StoredContainer container) throws IOException {
+        Path target = shard(index, container.id()).resolve(container.id() + ".json");
+        Path file = Files.createTempFile(temp, "index-", ".tmp");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer json = ByteBuffer.wrap(objectMapper.writeValueAsBytes(container));
+            while (json.hasRemaining()) {
+                channel.write(json);
+            }
+            if (fsync != Fsync.NONE) {
+                channel.force(true);
+            }
+        }
+        Files.createDirectories(target.getParent());
+        Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(target.getParent());
+    }
+
+    private StoredContainer readIndex(Path path) {
+        try {
+            return objectMapper.readValue(Files.readAllBytes(path), StoredContainer.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read container index entry {}", path, e);
+            return null;
+        }
+    }
+
+    private void forceDirectory(Path directory) {
+        if (fsync != Fsync.DIRECTORY) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on every platform (Windows), the file itself has been forced
+            logger.debug("Could not force directory {}", directory, e);
+        }
+    }
+
+    private static Path shard(Path root, String digest) {
+        return root.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4));
+    }
+
+    private static Counter writes(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("sid.demo.storage.writes")
+                .description("Containers written to storage, deduplicated ones were already stored")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Written(Path file, String digest, long size) {
+    }
+}
@@ -0,0 +1,45 @@
+package ee.sk.siddemo.storage;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.time.Instant;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Index entry of a signed container.
+ *
+ * @param id       digest of the container as first stored, stays the same when the container is extended
+ * @param digest   SHA-256 of the current content, locates the file in the store
+ * @param extension asice for containers, xml for detached signatures
+ * @param signer   common name of the signing certificate
+ */
+public record StoredContainer(String id, String digest, String extension, String signer, Instant signedAt, long size,
+                              Instant storedAt) {
+
+    // derived, not written to the index
+    @JsonIgnore
+    public boolean isDetached() {
+        return "xml".equals(extension);
+    }
+}
@@ -0,0 +1,95 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static ee.sk.siddemo.store.BinaryFields.readBytes;
+import static ee.sk.siddemo.store.BinaryFields.readString;
+import static ee.sk.siddemo.store.BinaryFields.writeBytes;
+import static ee.sk.siddemo.store.BinaryFields.writeString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+
+import ee.sk.siddemo.model.AuthenticationSessionInfo;
+import ee.sk.smartid.AuthenticationHash;
+import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+
+/**
+ * User request is not written, it is not needed after the session has been started.
+ * Of the identity only the fields shown to the user are kept.
+ */
+public class AuthenticationSessionCodec implements SessionCodec<AuthenticationSessionInfo, AuthenticationIdentity> {
+
+    @Override
+    public void writeSessionInfo(AuthenticationSessionInfo sessionInfo, DataOutputStream out) throws IOException {
+        writeString(out, sessionInfo.getSessionID());
+        writeString(out, sessionInfo.getVerificationCode());
+        writeBytes(out, sessionInfo.getAuthenticationHash().getHash());
+        out.writeUTF(sessionInfo.getAuthenticationHash().getHashType().name());
+        out.writeUTF(sessionInfo.getSemanticsIdentifier().getIdentifier());
+    }
+
+    @Override
+    public AuthenticationSessionInfo readSessionInfo(DataInputStream in) throws IOException {
+        String sessionID = readString(in);
+        String verificationCode = readString(in);
+
+        var authenticationHash = new AuthenticationHash();
+        authenticationHash.setHash(readBytes(in));
+        authenticationHash.setHashType(HashType.valueOf(in.readUTF()));
+
+        return AuthenticationSessionInfo.newBuilder()
+                .withSessionID(sessionID)
+                .withVerificationCode(verificationCode)
+                .withAuthenticationHash(authenticationHash)
+                .withSemanticsIdentifier(new SemanticsIdentifier(in.readUTF()))
+                .build();
+    }
+
+    @Override
+    public void writeResult(AuthenticationIdentity identity, DataOutputStream out) throws IOException {
+        writeString(out, identity.getGivenName());
+        writeString(out, identity.getSurname());
+        writeString(out, identity.getIdentityCode());
+        writeString(out, identity.getCountry());
+        writeString(out, identity.getDateOfBirth().map(LocalDate::toString).orElse(null));
+    }
+
+    @Override
+    public AuthenticationIdentity readResult(DataInputStream in) throws IOException {
+        var identity = new AuthenticationIdentity();
+        identity.setGivenName(readString(in));
+        identity.setSurname(readString(in));
+        identity.setIdentityCode(readString(in));
+        identity.setCountry(readString(in));
+        String dateOfBirth = readString(in);
+        if (dateOfBirth != null) {
+            identity.setDateOfBirth(LocalDate.parse(dateOfBirth));
+        }
+        return identity;
+    }
+}
@@ -0,0 +1,182 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps every entry in its own file, a directory on shared storage (NFS, SMB etc) makes pending sessions
+ * visible to all nodes. Files are replaced atomically so that readers never see a partially written value,
+ * expiry is based on file modification time.
+ */
+public class FilePendingSessionStore implements PendingSessionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilePendingSessionStore.class);
+
+    private static final String SUFFIX = ".session";
+
+    private final Path directory;
+    private final Duration ttl;
+    private final Counter expired;
+    private final List<BiConsumer<String, byte[]>> evictionListeners = new CopyOnWriteArrayList<>();
+
+    public FilePendingSessionStore(String name, Path directory, Duration ttl, MeterRegistry meterRegistry) {
+        this.directory = directory;
+        this.ttl = ttl;
+        this.expired = Counter.builder("sid.demo.pending.sessions.evictions")
+                .tag("store", name)
+                .tag("cause", "expired")
+                .register(meterRegistry);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create pending session directory " + directory, e);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        try {
+            Path temp = Files.createTempFile(directory, "put-", ".tmp");
+            Files.write(temp, value);
+            Files.move(temp, path(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store pending session " + key, e);
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value) {
+        if (get(key) != null) {
+            return false;
+        }
+        try {
+            // CREATE_NEW is atomic, only one node can create the file
+            Files.write(path(key), value, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store pending session " + key, e);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Path path = path(key);
+        try {
+            if (isExpired(path)) {
+                evict(path);
+                return null;
+            }
+            return Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read pending session " + key, e);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        delete(path(key));
+    }
+
+    @Override
+    public void evictExpired() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                evictIfExpired(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not evict expired sessions from {}", directory, e);
+        }
+    }
+
+    private void evictIfExpired(Path file) {
+        try {
+            if (isExpired(file)) {
+                evict(file);
+            }
+        } catch (NoSuchFileException e) {
+            // removed by another node in the meantime
+        } catch (IOException e) {
+            logger.warn("Could not check expiry of {}", file, e);
+        }
+    }
+
+    @Override
+    public void addEvictionListener(BiConsumer<String, byte[]> listener) {
+        evictionListeners.add(listener);
+    }
+
+    // every node sweeping the directory may see the same file, listeners must tolerate repeated notifications
+    private void evict(Path path) throws IOException {
+        byte[] value = Files.readAllBytes(path);
+        delete(path);
+        expired.increment();
+        String fileName = path.getFileName().toString();
+        String key = fileName.substring(0, fileName.length() - SUFFIX.length());
+        evictionListeners.forEach(listener -> listener.accept(key, value));
+    }
+
+    private boolean isExpired(Path path) throws IOException {
+        Instant modified = Files.getLastModifiedTime(path).toInstant();
+        return modified.plus(ttl).isBefore(Instant.now());
+    }
+
+    private Path path(String key) {
+        // keys are generated by PendingSessions, this only guards against leaving the directory
+        if (!key.matches("[A-Za-z0-9._-]+")) {
+            throw new IllegalArgumentException("Invalid pending session key");
+        }
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete pending session {}", path, e);
+        }
+    }
+}
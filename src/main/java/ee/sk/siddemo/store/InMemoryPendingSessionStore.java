@@ -0,0 +1,217 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Pending session store of a single node.
+ * Entries expire after a fixed time to live, when entry count or size limit is reached
+ * the least recently used entries are evicted. Eviction listeners are notified after the lock has been released.
+ */
+public class InMemoryPendingSessionStore implements PendingSessionStore {
+
+    // map entry, key and array headers
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private final String name;
+    private final Duration ttl;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // access ordered, eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+
+    private final List<BiConsumer<String, byte[]>> evictionListeners = new CopyOnWriteArrayList<>();
+    private final MeterRegistry meterRegistry;
+
+    public InMemoryPendingSessionStore(String name, Duration ttl, int maxEntries, long maxBytes, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("sid.demo.pending.sessions", this, InMemoryPendingSessionStore::size)
+                .tag("store", name)
+                .register(meterRegistry);
+        Gauge.builder("sid.demo.pending.sessions.bytes", this, InMemoryPendingSessionStore::getResidentBytes)
+                .description("Heap used by pending session state")
+                .tag("store", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        var evicted = new LinkedHashMap<String, byte[]>();
+        synchronized (entries) {
+            putLocked(key, value, evicted);
+        }
+        notifyEvicted(evicted);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value) {
+        var evicted = new LinkedHashMap<String, byte[]>();
+        try {
+            synchronized (entries) {
+                if (getLocked(key, evicted) != null) {
+                    return false;
+                }
+                putLocked(key, value, evicted);
+                return true;
+            }
+        } finally {
+            notifyEvicted(evicted);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        var evicted = new LinkedHashMap<String, byte[]>();
+        try {
+            synchronized (entries) {
+                return getLocked(key, evicted);
+            }
+        } finally {
+            notifyEvicted(evicted);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (entries) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                residentBytes -= entry.weight();
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getResidentBytes() {
+        synchronized (entries) {
+            return residentBytes;
+        }
+    }
+
+    @Override
+    public void evictExpired() {
+        long now = System.nanoTime();
+        var evicted = new LinkedHashMap<String, byte[]>();
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getValue().isExpired(now)) {
+                    iterator.remove();
+                    countEviction(entry.getValue(), "expired");
+                    evicted.put(entry.getKey(), entry.getValue().value());
+                }
+            }
+        }
+        notifyEvicted(evicted);
+    }
+
+    @Override
+    public void addEvictionListener(BiConsumer<String, byte[]> listener) {
+        evictionListeners.add(listener);
+    }
+
+    private void putLocked(String key, byte[] value, Map<String, byte[]> evicted) {
+        Entry entry = newEntry(key, value);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            residentBytes -= previous.weight();
+        }
+        residentBytes += entry.weight();
+        evictOverLimit(evicted);
+    }
+
+    private byte[] getLocked(String key, Map<String, byte[]> evicted) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isExpired(System.nanoTime())) {
+            return entry.value();
+        }
+        evict(key, "expired", evicted);
+        return null;
+    }
+
+    private Entry newEntry(String key, byte[] value) {
+        return new Entry(value, ENTRY_OVERHEAD_BYTES + 2L * key.length() + value.length, System.nanoTime() + ttl.toNanos());
+    }
+
+    private void evictOverLimit(Map<String, byte[]> evicted) {
+        while (entries.size() > maxEntries) {
+            evict(entries.keySet().iterator().next(), "entries", evicted);
+        }
+        // the entry just added is never evicted on its own
+        while (residentBytes > maxBytes && entries.size() > 1) {
+            evict(entries.keySet().iterator().next(), "bytes", evicted);
+        }
+    }
+
+    private void evict(String key, String cause, Map<String, byte[]> evicted) {
+        Entry entry = entries.remove(key);
+        countEviction(entry, cause);
+        evicted.put(key, entry.value());
+    }
+
+    private void countEviction(Entry entry, String cause) {
+        residentBytes -= entry.weight();
+        Counter.builder("sid.demo.pending.sessions.evictions")
+                .tag("store", name)
+                .tag("cause", cause)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void notifyEvicted(Map<String, byte[]> evicted) {
+        evicted.forEach((key, value) -> evictionListeners.forEach(listener -> listener.accept(key, value)));
+    }
+
+    private record Entry(byte[] value, long weight, long expiresAt) {
+
+        boolean isExpired(long now) {
+            return now - expiresAt > 0;
+        }
+    }
+}
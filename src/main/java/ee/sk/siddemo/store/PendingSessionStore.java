@@ -0,0 +1,54 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.function.BiConsumer;
+
+/**
+ * Serialised state of pending Smart-ID sessions, shared by all application nodes when backed by shared storage.
+ * Values expire after the time to live of the store, implementations may also evict entries earlier to stay within their limits.
+ */
+public interface PendingSessionStore {
+
+    void put(String key, byte[] value);
+
+    /**
+     * @return false if the key was already present
+     */
+    boolean putIfAbsent(String key, byte[] value);
+
+    /**
+     * @return stored value or null if it is missing or has expired
+     */
+    byte[] get(String key);
+
+    void remove(String key);
+
+    void evictExpired();
+
+    /**
+     * Listener is called with key and value of every entry the store drops on its own (expiry, limits),
+     * not for {@link #remove(String)}. It is never called while the store holds a lock.
+     */
+    void addEvictionListener(BiConsumer<String, byte[]> listener);
+}
@@ -0,0 +1,49 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.List;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops expired pending sessions of users who never came back for the result.
+ */
+@Component
+public class PendingSessionStoreSweeper {
+
+    private final PendingSessionStore store;
+    private final List<PendingSessions<?, ?>> pendingSessions;
+
+    public PendingSessionStoreSweeper(PendingSessionStore store, List<PendingSessions<?, ?>> pendingSessions) {
+        this.store = store;
+        this.pendingSessions = pendingSessions;
+    }
+
+    @Scheduled(fixedDelayString = "${app.pending-sessions.sweep-interval}")
+    void evictExpired() {
+        store.evictExpired();
+        pendingSessions.forEach(PendingSessions::forgetExpired);
+    }
+}
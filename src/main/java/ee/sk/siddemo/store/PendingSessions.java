@@ -0,0 +1,308 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+
+import ee.sk.siddemo.exception.ServiceBusyException;
+import ee.sk.siddemo.exception.SidOperationException;
+
+/**
+ * Smart-ID sessions that any node can follow and complete.
+ * <p>
+ * Session info and, once known, the result are kept in {@link PendingSessionStore}. The node that started a session
+ * follows it with the future returned by the completion function, other nodes recreate that future from the stored
+ * session info on first access. Side effects of completion (signature finalization) are claimed through the store
+ * so that only one node performs them, the others wait for the stored result.
+ * <p>
+ * When the store drops the session info before the session has completed (limits, expiry), the session is
+ * cancelled: the local future fails and the cancellation function releases what the session holds.
+ *
+ * @param <I> session info
+ * @param <R> session result
+ */
+public class PendingSessions<I, R> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingSessions.class);
+
+    private static final byte FORMAT_VERSION = 4;
+
+    private static final String INFO_SUFFIX = ".info";
+
+    private static final byte RESULT = 0;
+    private static final byte SID_ERROR = 1;
+    private static final byte BUSY_ERROR = 2;
+
+    private final String name;
+    private final PendingSessionStore store;
+    private final SessionCodec<I, R> codec;
+    private final BiFunction<I, BooleanSupplier, CompletableFuture<R>> completion;
+    private final Consumer<I> cancellation;
+    private final TaskScheduler scheduler;
+    private final Duration resultCheckInterval;
+
+    // node local, futures can not be shared and are recreated on demand
+    private final Map<String, CompletableFuture<R>> results = new ConcurrentHashMap<>();
+
+    /**
+     * @param completion completes the session, the claim must be acquired before any side effect.
+     *                   When the claim is not acquired the returned future completes with null
+     * @param cancellation stops following a session evicted from the store or removed before it has completed and
+     *                     releases its resources, may be called on several nodes for the same session
+     */
+    public PendingSessions(String name, PendingSessionStore store, SessionCodec<I, R> codec,
+                           BiFunction<I, BooleanSupplier, CompletableFuture<R>> completion, Consumer<I> cancellation,
+                           TaskScheduler scheduler, Duration resultCheckInterval) {
+        this.name = name;
+        this.store = store;
+        this.codec = codec;
+        this.completion = completion;
+        this.cancellation = cancellation;
+        this.scheduler = scheduler;
+        this.resultCheckInterval = resultCheckInterval;
+        store.addEvictionListener(this::evicted);
+    }
+
+    /**
+     * @return key of the session, needed to follow it from any node
+     */
+    public String start(I sessionInfo) {
+        String key = name + "-" + UUID.randomUUID();
+        store.put(infoKey(key), encodeSessionInfo(sessionInfo));
+        results.put(key, complete(key, sessionInfo));
+        return key;
+    }
+
+    /**
+     * @return future of the session result or null if the session is unknown or has expired
+     */
+    public CompletableFuture<R> result(String key) {
+        if (key == null || !key.startsWith(name + "-")) {
+            return null;
+        }
+        CompletableFuture<R> local = results.get(key);
+        if (local != null) {
+            return local;
+        }
+
+        byte[] storedResult = store.get(resultKey(key));
+        if (storedResult != null) {
+            return decodeResult(storedResult);
+        }
+
+        byte[] storedInfo = store.get(infoKey(key));
+        if (storedInfo == null) {
+            return null;
+        }
+        // session was started on another node
+        logger.debug("Resuming {} session {}", name, key);
+        return results.computeIfAbsent(key, k -> complete(k, decodeSessionInfo(storedInfo)));
+    }
+
+    /**
+     * Forgets the session, a session that has not completed yet is cancelled like an evicted one.
+     */
+    public void remove(String key) {
+        if (key == null || !key.startsWith(name + "-")) {
+            return;
+        }
+        CompletableFuture<R> local = results.remove(key);
+        byte[] storedInfo = store.get(infoKey(key));
+        boolean completed = local != null && local.isDone() || store.get(resultKey(key)) != null;
+        if (storedInfo != null && !completed) {
+            logger.info("Cancelling {} session {} removed before it completed", name, key);
+            cancel(key, storedInfo, local, "Session was cancelled");
+        }
+        // after cancelling, the result of the cancelled session is not left behind
+        store.remove(infoKey(key));
+        store.remove(resultKey(key));
+        store.remove(claimKey(key));
+    }
+
+    /**
+     * Forgets local futures of sessions that have expired from the store.
+     */
+    public void forgetExpired() {
+        results.keySet().removeIf(key -> store.get(infoKey(key)) == null);
+    }
+
+    private void evicted(String storeKey, byte[] value) {
+        if (!storeKey.startsWith(name + "-") || !storeKey.endsWith(INFO_SUFFIX)) {
+            return;
+        }
+        String key = storeKey.substring(0, storeKey.length() - INFO_SUFFIX.length());
+        CompletableFuture<R> local = results.remove(key);
+        if (local != null && local.isDone()) {
+            // completed, the result is only waiting for the user
+            return;
+        }
+        logger.info("Cancelling {} session {} evicted from the store", name, key);
+        store.remove(claimKey(key));
+        cancel(key, value, local, "Session has expired");
+    }
+
+    private void cancel(String key, byte[] storedInfo, CompletableFuture<R> local, String message) {
+        try {
+            cancellation.accept(decodeSessionInfo(storedInfo));
+        } catch (RuntimeException e) {
+            logger.warn("Could not cancel {} session {}", name, key, e);
+        }
+        if (local != null) {
+            local.completeExceptionally(new SidOperationException(message));
+        }
+    }
+
+    private CompletableFuture<R> complete(String key, I sessionInfo) {
+        BooleanSupplier claim = () -> store.putIfAbsent(claimKey(key), new byte[0]);
+
+        CompletableFuture<R> completed;
+        try {
+            completed = completion.apply(sessionInfo, claim);
+        } catch (RuntimeException e) {
+            completed = CompletableFuture.failedFuture(e);
+        }
+        // result is stored before the future completes, other nodes find it as soon as the user is told about it
+        return completed
+                .whenComplete((result, exception) -> {
+                    if (result != null || exception != null) {
+                        storeResult(key, result, exception);
+                    }
+                })
+                .thenCompose(result -> result != null ? CompletableFuture.completedFuture(result) : awaitStoredResult(key));
+    }
+
+    // another node has claimed the session, its result becomes visible in the store
+    private CompletableFuture<R> awaitStoredResult(String key) {
+        var result = new CompletableFuture<R>();
+        ScheduledFuture<?> check = scheduler.scheduleWithFixedDelay(() -> {
+            byte[] storedResult = store.get(resultKey(key));
+            if (storedResult != null) {
+                decodeResult(storedResult).whenComplete((value, exception) -> {
+                    if (exception != null) {
+                        result.completeExceptionally(exception);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } else if (store.get(infoKey(key)) == null) {
+                result.completeExceptionally(new SidOperationException("Session has expired"));
+            }
+        }, resultCheckInterval);
+        result.whenComplete((value, exception) -> check.cancel(false));
+        return result;
+    }
+
+    private void storeResult(String key, R result, Throwable exception) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            Throwable cause = exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+            if (cause == null) {
+                out.writeByte(RESULT);
+                codec.writeResult(result, out);
+            } else {
+                out.writeByte(cause instanceof ServiceBusyException ? BUSY_ERROR : SID_ERROR);
+                BinaryFields.writeString(out, cause.getMessage());
+            }
+            out.flush();
+            store.put(resultKey(key), bytes.toByteArray());
+        } catch (IOException | RuntimeException e) {
+            // the node following the session still has the result, only other nodes miss it
+            logger.warn("Could not store result of {} session {}", name, key, e);
+        }
+    }
+
+    private CompletableFuture<R> decodeResult(byte[] stored) {
+        try (var in = new DataInputStream(new ByteArrayInputStream(stored))) {
+            checkFormatVersion(in);
+            return switch (in.readByte()) {
+                case RESULT -> CompletableFuture.completedFuture(codec.readResult(in));
+                case BUSY_ERROR -> CompletableFuture.failedFuture(new ServiceBusyException(BinaryFields.readString(in), null));
+                default -> CompletableFuture.failedFuture(new SidOperationException(BinaryFields.readString(in)));
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read result of " + name + " session", e);
+        }
+    }
+
+    private byte[] encodeSessionInfo(I sessionInfo) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            codec.writeSessionInfo(sessionInfo, out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + name + " session", e);
+        }
+    }
+
+    private I decodeSessionInfo(byte[] stored) {
+        try (var in = new DataInputStream(new ByteArrayInputStream(stored))) {
+            checkFormatVersion(in);
+            return codec.readSessionInfo(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + name + " session", e);
+        }
+    }
+
+    private static void checkFormatVersion(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported session format version " + version);
+        }
+    }
+
+    private static String infoKey(String key) {
+        return key + INFO_SUFFIX;
+    }
+
+    private static String resultKey(String key) {
+        return key + ".result";
+    }
+
+    private static String claimKey(String key) {
+        return key + ".claim";
+    }
+}
@@ -0,0 +1,42 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary form of session info and result kept in {@link PendingSessionStore}.
+ * Only what is needed to complete the session on another node is written, node local objects are rebuilt.
+ */
+public interface SessionCodec<I, R> {
+
+    void writeSessionInfo(I sessionInfo, DataOutputStream out) throws IOException;
+
+    I readSessionInfo(DataInputStream in) throws IOException;
+
+    void writeResult(R result, DataOutputStream out) throws IOException;
+
+    R readResult(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,212 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static ee.sk.siddemo.store.BinaryFields.readBytes;
+import static ee.sk.siddemo.store.BinaryFields.readString;
+import static ee.sk.siddemo.store.BinaryFields.writeBytes;
+import static ee.sk.siddemo.store.BinaryFields.writeString;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.digidoc4j.DigestAlgorithm;
+import org.digidoc4j.EncryptionAlgorithm;
+import org.digidoc4j.SignatureParameters;
+import org.digidoc4j.SignatureProfile;
+
+import ee.sk.siddemo.model.DetachedDocument;
+import ee.sk.siddemo.model.SigningResult;
+import ee.sk.siddemo.model.SigningSessionInfo;
+import ee.sk.siddemo.model.SpooledUpload;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.SignableHash;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+
+/**
+ * Container is not written, it is rebuilt from the spooled upload which must be on storage shared by all nodes.
+ * DataToSign is not written either, the node that finalizes the signature rebuilds it from the signature parameters
+ * (signing certificate, signature id, signing time, algorithms, profile). Signer roles and production place
+ * are not written, this application does not set them.
+ */
+public class SigningSessionCodec implements SessionCodec<SigningSessionInfo, SigningResult> {
+
+    @Override
+    public void writeSessionInfo(SigningSessionInfo sessionInfo, DataOutputStream out) throws IOException {
+        writeString(out, sessionInfo.getSessionID());
+        writeString(out, sessionInfo.getVerificationCode());
+        writeString(out, sessionInfo.getDocumentNumber());
+        writeBytes(out, sessionInfo.getHashToSign().getHash());
+        out.writeUTF(sessionInfo.getHashToSign().getHashType().name());
+        writeString(out, sessionInfo.getSemanticsIdentifier() == null ? null : sessionInfo.getSemanticsIdentifier().getIdentifier());
+        writeSpooledUpload(sessionInfo.getSpooledUpload(), out);
+        writeSignatureParameters(sessionInfo.getSignatureParameters(), out);
+        writeDetachedDocument(sessionInfo.getDetachedDocument(), out);
+    }
+
+    @Override
+    public SigningSessionInfo readSessionInfo(DataInputStream in) throws IOException {
+        var builder = SigningSessionInfo.newBuilder()
+                .withSessionID(readString(in))
+                .withVerificationCode(readString(in))
+                .withDocumentNumber(readString(in));
+
+        var hashToSign = new SignableHash();
+        hashToSign.setHash(readBytes(in));
+        hashToSign.setHashType(HashType.valueOf(in.readUTF()));
+        builder.withHashToSign(hashToSign);
+
+        String semanticsIdentifier = readString(in);
+        if (semanticsIdentifier != null) {
+            builder.withSemanticsIdentifier(new SemanticsIdentifier(semanticsIdentifier));
+        }
+
+        return builder
+                .withSpooledUpload(readSpooledUpload(in))
+                .withSignatureParameters(readSignatureParameters(in))
+                .withDetachedDocument(readDetachedDocument(in))
+                .build();
+    }
+
+    @Override
+    public void writeResult(SigningResult result, DataOutputStream out) throws IOException {
+        writeString(out, result.getResult());
+        out.writeByte(result.getValid() == null ? -1 : result.getValid() ? 1 : 0);
+        out.writeLong(result.getTimestamp() == null ? Long.MIN_VALUE : result.getTimestamp().getTime());
+        writeString(out, result.getContainerFilePath());
+        out.writeBoolean(result.isAugmentationPending());
+        out.writeBoolean(result.isValidationPending());
+        writeString(out, result.getContainerId());
+    }
+
+    @Override
+    public SigningResult readResult(DataInputStream in) throws IOException {
+        String result = readString(in);
+        byte valid = in.readByte();
+        long timestamp = in.readLong();
+        return SigningResult.newBuilder()
+                .withResult(result)
+                .withValid(valid < 0 ? null : valid == 1)
+                .withTimestamp(timestamp == Long.MIN_VALUE ? null : new Date(timestamp))
+                .withContainerFilePath(readString(in))
+                .withAugmentationPending(in.readBoolean())
+                .withValidationPending(in.readBoolean())
+                .withContainerId(readString(in))
+                .build();
+    }
+
+    private static void writeSpooledUpload(SpooledUpload spooledUpload, DataOutputStream out) throws IOException {
+        out.writeBoolean(spooledUpload != null);
+        if (spooledUpload == null) {
+            return;
+        }
+        out.writeUTF(spooledUpload.getPath().toString());
+        writeString(out, spooledUpload.getFileName());
+        writeString(out, spooledUpload.getMimeType());
+        out.writeLong(spooledUpload.getSize());
+    }
+
+    private static SpooledUpload readSpooledUpload(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return SpooledUpload.newBuilder()
+                .withPath(Paths.get(in.readUTF()))
+                .withFileName(readString(in))
+                .withMimeType(readString(in))
+                .withSize(in.readLong())
+                .build();
+    }
+
+    private static void writeSignatureParameters(SignatureParameters parameters, DataOutputStream out) throws IOException {
+        out.writeBoolean(parameters != null);
+        if (parameters == null) {
+            return;
+        }
+        try {
+            writeBytes(out, parameters.getSigningCertificate().getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not encode signing certificate", e);
+        }
+        out.writeLong(parameters.getClaimedSigningDate() == null ? Long.MIN_VALUE : parameters.getClaimedSigningDate().getTime());
+        writeString(out, parameters.getSignatureId());
+        writeString(out, name(parameters.getSignatureDigestAlgorithm()));
+        writeString(out, name(parameters.getDataFileDigestAlgorithm()));
+        writeString(out, name(parameters.getEncryptionAlgorithm()));
+        writeString(out, name(parameters.getSignatureProfile()));
+    }
+
+    private static SignatureParameters readSignatureParameters(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        var parameters = new SignatureParameters();
+        try {
+            parameters.setSigningCertificate((X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(readBytes(in))));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not decode signing certificate", e);
+        }
+        long claimedSigningDate = in.readLong();
+        parameters.setClaimedSigningDate(claimedSigningDate == Long.MIN_VALUE ? null : new Date(claimedSigningDate));
+        parameters.setSignatureId(readString(in));
+        String signatureDigestAlgorithm = readString(in);
+        parameters.setSignatureDigestAlgorithm(signatureDigestAlgorithm == null ? null : DigestAlgorithm.valueOf(signatureDigestAlgorithm));
+        String dataFileDigestAlgorithm = readString(in);
+        parameters.setDataFileDigestAlgorithm(dataFileDigestAlgorithm == null ? null : DigestAlgorithm.valueOf(dataFileDigestAlgorithm));
+        String encryptionAlgorithm = readString(in);
+        parameters.setEncryptionAlgorithm(encryptionAlgorithm == null ? null : EncryptionAlgorithm.valueOf(encryptionAlgorithm));
+        String signatureProfile = readString(in);
+        parameters.setSignatureProfile(signatureProfile == null ? null : SignatureProfile.valueOf(signatureProfile));
+        return parameters;
+    }
+
+    private static void writeDetachedDocument(DetachedDocument document, DataOutputStream out) throws IOException {
+        out.writeBoolean(document != null);
+        if (document == null) {
+            return;
+        }
+        writeString(out, document.fileName());
+        out.writeUTF(document.digestAlgorithm().name());
+        writeBytes(out, document.digest());
+        writeString(out, document.mimeType());
+    }
+
+    private static DetachedDocument readDetachedDocument(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new DetachedDocument(readString(in), DigestAlgorithm.valueOf(in.readUTF()), readBytes(in), readString(in));
+    }
+
+    private static String name(Enum<?> value) {
+        return value == null ? null : value.name();
+    }
+}
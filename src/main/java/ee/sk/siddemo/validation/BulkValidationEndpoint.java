@@ -0,0 +1,61 @@
+package ee.sk.siddemo.validation;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import ee.sk.siddemo.model.BulkValidationStatus;
+import ee.sk.siddemo.services.BulkValidationService;
+
+/**
+ * Validates every container in the signed files directory again:
+ * <ul>
+ *     <li>POST /actuator/bulkvalidation starts a run, with resume=true containers already in the report are skipped</li>
+ *     <li>GET /actuator/bulkvalidation returns progress and throughput of the last run</li>
+ * </ul>
+ */
+@Component
+@Endpoint(id = "bulkvalidation")
+public class BulkValidationEndpoint {
+
+    private final BulkValidationService bulkValidationService;
+
+    public BulkValidationEndpoint(BulkValidationService bulkValidationService) {
+        this.bulkValidationService = bulkValidationService;
+    }
+
+    @ReadOperation
+    public BulkValidationStatus status() {
+        return bulkValidationService.getStatus();
+    }
+
+    @WriteOperation
+    public BulkValidationStatus start(@Nullable Boolean resume) {
+        bulkValidationService.start(Boolean.TRUE.equals(resume));
+        return bulkValidationService.getStatus();
+    }
+}
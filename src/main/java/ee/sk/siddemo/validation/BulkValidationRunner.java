@@ -0,0 +1,67 @@
+package ee.sk.siddemo.validation;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import ee.sk.siddemo.model.BulkValidationStatus;
+import ee.sk.siddemo.services.BulkValidationService;
+
+/**
+ * Runs bulk validation from the command line and exits, with status 1 if any container is invalid or could not be validated:
+ * <pre>
+ * java -jar smart-id-java-demo.jar --bulk-validate [--resume] --spring.main.web-application-type=none
+ * </pre>
+ */
+@Component
+public class BulkValidationRunner implements ApplicationRunner {
+
+    private static final String OPTION = "bulk-validate";
+
+    private final BulkValidationService bulkValidationService;
+    private final ConfigurableApplicationContext context;
+
+    public BulkValidationRunner(BulkValidationService bulkValidationService, ConfigurableApplicationContext context) {
+        this.bulkValidationService = bulkValidationService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption(OPTION)) {
+            return;
+        }
+        BulkValidationStatus status = bulkValidationService.start(args.containsOption("resume")).join();
+
+        System.out.printf("%s: %d validated, %d invalid, %d failed, %d skipped, %.1f containers/s%nReport: %s%n",
+                status.state(), status.validated(), status.invalid(), status.failed(), status.skipped(),
+                status.containersPerSecond(), status.reportFile());
+
+        int exitCode = status.state() == BulkValidationStatus.State.DONE && status.invalid() == 0 && status.failed() == 0 ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
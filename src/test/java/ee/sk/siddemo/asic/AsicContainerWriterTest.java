@@ -0,0 +1,161 @@
+package ee.sk.siddemo.asic;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.DataFile;
+import org.junit.jupiter.api.Test;
+
+public class AsicContainerWriterTest {
+
+    private final AsicContainerWriter writer = new AsicContainerWriter(true, 6, 7.5);
+
+    @Test
+    public void compressedDocumentsAreStored() throws Exception {
+        byte[] random = new byte[100_000];
+        new Random(1).nextBytes(random);
+        byte[] text = "Smart-ID demo ".repeat(5_000).getBytes(StandardCharsets.UTF_8);
+        Container container = ContainerBuilder.aContainer()
+                .withConfiguration(new Configuration(Configuration.Mode.TEST))
+                .withDataFile(new DataFile(random, "scan.jpg", "image/jpeg"))
+                .withDataFile(new DataFile(random, "data.bin", "application/octet-stream"))
+                .withDataFile(new DataFile(text, "notes.bin", "application/octet-stream"))
+                .withDataFile(new DataFile(text, "notes & \"quotes\".txt", "text/plain"))
+                .build();
+
+        var out = new ByteArrayOutputStream();
+        writer.write(container, out);
+
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEntry(zip, "mimetype", ZipEntry.STORED);
+            assertEntry(zip, "scan.jpg", ZipEntry.STORED);
+            assertEntry(zip, "data.bin", ZipEntry.STORED);
+            assertEntry(zip, "notes.bin", ZipEntry.DEFLATED);
+            assertEntry(zip, "notes & \"quotes\".txt", ZipEntry.DEFLATED);
+            assertEntry(zip, "META-INF/manifest.xml", ZipEntry.DEFLATED);
+        }
+
+        Container read = ContainerBuilder.aContainer()
+                .withConfiguration(new Configuration(Configuration.Mode.TEST))
+                .fromStream(new ByteArrayInputStream(out.toByteArray()))
+                .build();
+        assertEquals(4, read.getDataFiles().size());
+        assertArrayEquals(random, read.getDataFiles().get(0).getBytes());
+        assertArrayEquals(text, read.getDataFiles().get(3).getBytes());
+        assertEquals("text/plain", read.getDataFiles().get(3).getMediaType());
+    }
+
+    @Test
+    public void containerOpenedFromFileKeepsItsEntries() throws Exception {
+        byte[] text = "Smart-ID demo".getBytes(StandardCharsets.UTF_8);
+        Container built = ContainerBuilder.aContainer()
+                .withConfiguration(new Configuration(Configuration.Mode.TEST))
+                .withDataFile(new DataFile(text, "notes.txt", "text/plain"))
+                .build();
+        var original = new ByteArrayOutputStream();
+        writer.write(built, original);
+        byte[] withExtraEntry = addEntry(original.toByteArray(), "META-INF/metadata.xml", "<metadata/>");
+
+        // what SignatureAugmentationServiceImpl does with a stored container
+        Container opened = ContainerBuilder.aContainer()
+                .withConfiguration(new Configuration(Configuration.Mode.TEST))
+                .fromStream(new ByteArrayInputStream(withExtraEntry))
+                .build();
+        var saved = new ByteArrayOutputStream();
+        opened.save(saved);
+
+        List<String> entries = entryNames(saved.toByteArray());
+        assertEquals("mimetype", entries.get(0));
+        assertTrue(entries.contains("notes.txt"));
+        assertTrue(entries.contains("META-INF/manifest.xml"));
+        assertTrue(entries.contains("META-INF/metadata.xml"));
+
+        Container read = ContainerBuilder.aContainer()
+                .withConfiguration(new Configuration(Configuration.Mode.TEST))
+                .fromStream(new ByteArrayInputStream(saved.toByteArray()))
+                .build();
+        assertEquals(1, read.getDataFiles().size());
+        assertArrayEquals(text, read.getDataFiles().get(0).getBytes());
+    }
+
+    private static byte[] addEntry(byte[] container, String name, String content) throws Exception {
+        var out = new ByteArrayOutputStream();
+        try (var in = new ZipInputStream(new ByteArrayInputStream(container));
+             var zip = new ZipOutputStream(out, StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                byte[] bytes = in.readAllBytes();
+                var copy = new ZipEntry(entry.getName());
+                copy.setMethod(entry.getMethod());
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    copy.setSize(bytes.length);
+                    copy.setCompressedSize(bytes.length);
+                    var crc = new CRC32();
+                    crc.update(bytes);
+                    copy.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(copy);
+                zip.write(bytes);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> entryNames(byte[] container) throws Exception {
+        List<String> names = new ArrayList<>();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(container))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    private static void assertEntry(ZipInputStream zip, String name, int method) throws Exception {
+        ZipEntry entry = zip.getNextEntry();
+        assertEquals(name, entry.getName());
+        assertEquals(method, entry.getMethod());
+    }
+}
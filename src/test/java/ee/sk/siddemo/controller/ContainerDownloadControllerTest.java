@@ -0,0 +1,172 @@
+package ee.sk.siddemo.controller;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.siddemo.services.SignatureAugmentationService;
+import ee.sk.siddemo.storage.ShardedContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Downloads as a browser or download manager makes them, without sendfile support of the connector.
+ */
+public class ContainerDownloadControllerTest {
+
+    private static final byte[] CONTENT = "0123456789 signed container".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    private Path root;
+
+    private final SignatureAugmentationService augmentationService = mock(SignatureAugmentationService.class);
+    private StoredContainer stored;
+    private String etag;
+    private MockMvc mvc;
+
+    @BeforeEach
+    public void createController() {
+        var storage = new ShardedContainerStorage(root, ShardedContainerStorage.Fsync.NONE, Duration.ZERO,
+                new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry());
+        stored = storage.save("asice", "OK,TESTNUMBER", Instant.now(), out -> out.write(CONTENT));
+        etag = "\"" + stored.digest() + "\"";
+
+        var controller = new ContainerDownloadController(storage, augmentationService);
+        ReflectionTestUtils.setField(controller, "cacheMaxAge", Duration.ofDays(1));
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    public void wholeContainer() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, CONTENT.length))
+                .andExpect(content().contentType("application/vnd.etsi.asic-e+zip"))
+                .andExpect(content().bytes(CONTENT));
+    }
+
+    @Test
+    public void singleRange() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id())
+                        .header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/" + CONTENT.length))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+                .andExpect(content().bytes(Arrays.copyOfRange(CONTENT, 2, 6)));
+    }
+
+    @Test
+    public void suffixRange() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id())
+                        .header(HttpHeaders.RANGE, "bytes=-9"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE,
+                        "bytes " + (CONTENT.length - 9) + "-" + (CONTENT.length - 1) + "/" + CONTENT.length))
+                .andExpect(content().bytes(Arrays.copyOfRange(CONTENT, CONTENT.length - 9, CONTENT.length)));
+    }
+
+    @Test
+    public void rangeOfCurrentVersion() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id())
+                        .header(HttpHeaders.RANGE, "bytes=10-")
+                        .header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes(Arrays.copyOfRange(CONTENT, 10, CONTENT.length)));
+    }
+
+    @Test
+    public void rangeOfPreviousVersionSendsWholeContainer() throws Exception {
+        // download resumed after the signature was extended
+        mvc.perform(get("/signature/container/{container}", stored.id())
+                        .header(HttpHeaders.RANGE, "bytes=10-")
+                        .header(HttpHeaders.IF_RANGE, "\"" + "0".repeat(64) + "\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(content().bytes(CONTENT));
+    }
+
+    @Test
+    public void rangeBeyondEndIsNotSatisfiable() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id())
+                        .header(HttpHeaders.RANGE, "bytes=" + CONTENT.length + "-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + CONTENT.length));
+    }
+
+    @Test
+    public void multipleRangesSendWholeContainer() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id())
+                        .header(HttpHeaders.RANGE, "bytes=0-1,4-5"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT));
+    }
+
+    @Test
+    public void extendedContainerIsCachedByBrowser() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=86400, private"));
+    }
+
+    @Test
+    public void containerQueuedForExtensionIsCheckedEveryTime() throws Exception {
+        when(augmentationService.isQueued(stored.id())).thenReturn(true);
+
+        mvc.perform(get("/signature/container/{container}", stored.id()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"));
+    }
+
+    @Test
+    public void unchangedContainerIsNotSentAgain() throws Exception {
+        mvc.perform(get("/signature/container/{container}", stored.id())
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void unknownContainerIsNotFound() throws Exception {
+        mvc.perform(get("/signature/container/{container}", "0".repeat(64)))
+                .andExpect(status().isNotFound());
+    }
+}
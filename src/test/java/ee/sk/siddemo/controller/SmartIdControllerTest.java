@@ -0,0 +1,257 @@
+package ee.sk.siddemo.controller;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import ee.sk.siddemo.exception.ServiceBusyException;
+import ee.sk.siddemo.exception.SidOperationException;
+import ee.sk.siddemo.model.AuthenticationSessionInfo;
+import ee.sk.siddemo.model.SigningResult;
+import ee.sk.siddemo.model.SigningSessionInfo;
+import ee.sk.siddemo.services.SignatureAugmentationService;
+import ee.sk.siddemo.services.SignatureValidationService;
+import ee.sk.siddemo.services.SmartIdAuthenticationService;
+import ee.sk.siddemo.services.SmartIdSignatureService;
+import ee.sk.siddemo.store.AuthenticationSessionCodec;
+import ee.sk.siddemo.store.InMemoryPendingSessionStore;
+import ee.sk.siddemo.store.PendingSessionStore;
+import ee.sk.siddemo.store.PendingSessions;
+import ee.sk.siddemo.store.SigningSessionCodec;
+import ee.sk.smartid.AuthenticationHash;
+import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.SignableHash;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.Cookie;
+
+/**
+ * Authentication and signing flows as the browser drives them: start, follow over SSE or long poll, pick up the result.
+ */
+public class SmartIdControllerTest {
+
+    private static final SemanticsIdentifier PERSON = new SemanticsIdentifier("PNOEE-30303039914");
+
+    private final SmartIdSignatureService signatureService = mock(SmartIdSignatureService.class);
+    private final SmartIdAuthenticationService authenticationService = mock(SmartIdAuthenticationService.class);
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+    // completed by the tests in place of Smart-ID
+    private final CompletableFuture<AuthenticationIdentity> authentication = new CompletableFuture<>();
+    private final CompletableFuture<SigningResult> signing = new CompletableFuture<>();
+
+    private PendingSessionStore store;
+    private MockMvc mvc;
+
+    @BeforeEach
+    public void createController() {
+        scheduler.initialize();
+        store = new InMemoryPendingSessionStore("memory", Duration.ofMinutes(5), 100, 1024 * 1024, new SimpleMeterRegistry());
+        var signingSessions = signingSessions();
+        var authenticationSessions = new PendingSessions<AuthenticationSessionInfo, AuthenticationIdentity>("authentication", store,
+                new AuthenticationSessionCodec(), (sessionInfo, claim) -> authentication, authenticationService::cancel,
+                scheduler, Duration.ofMillis(100));
+
+        mvc = MockMvcBuilders.standaloneSetup(new SmartIdController(signatureService, authenticationService, signingSessions,
+                        authenticationSessions, mock(SignatureAugmentationService.class), mock(SignatureValidationService.class)))
+                .build();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void authenticationIsFollowedOverServerSentEvents() throws Exception {
+        when(authenticationService.startAuthentication(any())).thenReturn(authenticationSessionInfo());
+
+        MvcResult started = mvc.perform(post("/authenticationRequest")
+                        .param("country", "EE")
+                        .param("nationalIdentityNumber", "30303039914"))
+                .andExpect(view().name("/authentication"))
+                .andExpect(model().attribute("verificationCode", "1234"))
+                .andReturn();
+        Cookie sessionCookie = started.getResponse().getCookie("SID_AUTHENTICATION_SESSION");
+
+        MvcResult events = mvc.perform(get("/authentication/events").cookie(sessionCookie))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertTrue(events.getResponse().getContentAsString().contains("event:RUNNING"));
+
+        var identity = new AuthenticationIdentity();
+        identity.setGivenName("OK");
+        authentication.complete(identity);
+        assertTrue(events.getResponse().getContentAsString().contains("event:COMPLETE"));
+
+        MvcResult result = mvc.perform(get("/authenticationResult").cookie(sessionCookie))
+                .andExpect(view().name("authenticationResult"))
+                .andExpect(model().attribute("person", identity))
+                .andReturn();
+        assertEquals(0, result.getResponse().getCookie("SID_AUTHENTICATION_SESSION").getMaxAge());
+    }
+
+    @Test
+    public void eventsWithoutSessionReportError() throws Exception {
+        MvcResult events = mvc.perform(get("/signature/events")).andReturn();
+
+        String content = events.getResponse().getContentAsString();
+        assertTrue(content.contains("event:ERROR"), content);
+        assertTrue(content.contains("No Smart-ID session in progress"), content);
+    }
+
+    @Test
+    public void failedSigningIsRenderedByLongPoll() throws Exception {
+        Cookie sessionCookie = startHashSigning();
+
+        MvcResult pending = mvc.perform(post("/sign").cookie(sessionCookie))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        signing.completeExceptionally(new SidOperationException("User refused"));
+
+        mvc.perform(asyncDispatch(pending))
+                .andExpect(view().name("sidOperationError"))
+                .andExpect(model().attribute("errorMessage", "User refused"));
+    }
+
+    @Test
+    public void longPollFollowsSessionOfAnotherNode() throws Exception {
+        // started and completed by another node sharing the store, this node only finds its result there
+        String signingSessionKey = signingSessions().start(hashSigningSessionInfo());
+        var sessionCookie = new Cookie("SID_SIGNING_SESSION", signingSessionKey);
+
+        MvcResult pending = mvc.perform(post("/sign").cookie(sessionCookie))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertNotNull(store.get(signingSessionKey + ".info"));
+
+        SigningResult signed = SigningResult.newBuilder().withResult("Signature created").withContainerId("container").build();
+        signing.complete(signed);
+
+        MvcResult result = mvc.perform(asyncDispatch(pending))
+                .andExpect(view().name("signingResult"))
+                .andExpect(model().attribute("signingResult", hasProperty("containerId", is("container"))))
+                .andReturn();
+        assertEquals(0, result.getResponse().getCookie("SID_SIGNING_SESSION").getMaxAge());
+        assertNull(store.get(signingSessionKey + ".info"));
+        assertNull(store.get(signingSessionKey + ".result"));
+    }
+
+    @Test
+    public void resultIsNotShownBeforeSigningHasCompleted() throws Exception {
+        Cookie sessionCookie = startHashSigning();
+
+        mvc.perform(get("/signingResult").cookie(sessionCookie))
+                .andExpect(view().name("sidOperationError"))
+                .andExpect(model().attribute("errorMessage", containsString("has not completed yet")));
+    }
+
+    @Test
+    public void busySigningServiceAnswersServiceUnavailable() throws Exception {
+        when(signatureService.sendSignatureRequest(any())).thenThrow(new ServiceBusyException("Too many signatures in progress", null));
+
+        mvc.perform(multipart("/signatureRequest")
+                        .file(new MockMultipartFile("file", "document.pdf", "application/pdf", new byte[]{1, 2, 3}))
+                        .param("country", "EE")
+                        .param("nationalIdentityNumber", "30303039914"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(view().name("sidOperationError"));
+    }
+
+    // a node completes the session only if it claims it, otherwise it waits for the stored result
+    private PendingSessions<SigningSessionInfo, SigningResult> signingSessions() {
+        return new PendingSessions<>("signing", store, new SigningSessionCodec(),
+                (sessionInfo, claim) -> claim.getAsBoolean() ? signing : CompletableFuture.completedFuture(null),
+                signatureService::cancel, scheduler, Duration.ofMillis(100));
+    }
+
+    private Cookie startHashSigning() throws Exception {
+        when(signatureService.sendHashSignatureRequest(any())).thenReturn(hashSigningSessionInfo());
+
+        MvcResult started = mvc.perform(post("/hashSignatureRequest")
+                        .param("country", "EE")
+                        .param("nationalIdentityNumber", "30303039914")
+                        .param("fileName", "document.pdf")
+                        .param("mimeType", "application/pdf")
+                        .param("digestAlgorithm", "SHA256")
+                        .param("digest", "00".repeat(32)))
+                .andExpect(view().name("/signature"))
+                .andReturn();
+        return started.getResponse().getCookie("SID_SIGNING_SESSION");
+    }
+
+    private static SigningSessionInfo hashSigningSessionInfo() {
+        var hashToSign = new SignableHash();
+        hashToSign.setHash(new byte[32]);
+        hashToSign.setHashType(HashType.SHA256);
+        return SigningSessionInfo.newBuilder()
+                .withSessionID("signing-session")
+                .withVerificationCode("5678")
+                .withDocumentNumber("PNOEE-30303039914-MOCK-Q")
+                .withHashToSign(hashToSign)
+                .withSemanticsIdentifier(PERSON)
+                .build();
+    }
+
+    private static AuthenticationSessionInfo authenticationSessionInfo() {
+        var authenticationHash = new AuthenticationHash();
+        authenticationHash.setHash(new byte[64]);
+        authenticationHash.setHashType(HashType.SHA512);
+        return AuthenticationSessionInfo.newBuilder()
+                .withSessionID("authentication-session")
+                .withVerificationCode("1234")
+                .withAuthenticationHash(authenticationHash)
+                .withSemanticsIdentifier(PERSON)
+                .build();
+    }
+}
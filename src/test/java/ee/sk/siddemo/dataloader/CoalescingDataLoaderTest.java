@@ -0,0 +1,147 @@
+package ee.sk.siddemo.dataloader;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.digidoc4j.Configuration;
+import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.impl.SkOCSPDataLoader;
+import org.digidoc4j.impl.SkTimestampDataLoader;
+import org.digidoc4j.utils.Helper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ee.sk.siddemo.fake.FakeSmartIdPki;
+import ee.sk.siddemo.fake.FakeTrustServices;
+import ee.sk.siddemo.fake.LatencyDistribution;
+import eu.europa.esig.dss.spi.client.http.DataLoader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CoalescingDataLoaderTest {
+
+    private static final String PERSON = "PNOEE-30303039914";
+
+    private final FakeSmartIdPki pki = new FakeSmartIdPki();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final Configuration configuration = new Configuration(Configuration.Mode.TEST);
+    private FakeTrustServices services;
+
+    @BeforeEach
+    public void startServices() throws IOException {
+        services = new FakeTrustServices(pki, LatencyDistribution.fixed(Duration.ofMillis(300))).start(0);
+    }
+
+    @AfterEach
+    public void stopServices() {
+        executor.shutdownNow();
+        services.close();
+    }
+
+    @Test
+    public void identicalOcspRequestsInFlightAreSentOnce() throws Exception {
+        DataLoader dataLoader = new CoalescingDataLoaderFactory("ocsp", ocspLoader(), meterRegistry).create();
+        byte[] request = ocspRequest(pki.getCertificate(PERSON));
+
+        List<CompletableFuture<byte[]>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            responses.add(CompletableFuture.supplyAsync(() -> dataLoader.post(services.getOcspUrl(), request), executor));
+        }
+
+        byte[] first = responses.get(0).get();
+        assertEquals(OCSPResp.SUCCESSFUL, new OCSPResp(first).getStatus());
+        for (CompletableFuture<byte[]> response : responses) {
+            assertArrayEquals(first, response.get());
+        }
+        assertEquals(1, services.getRequestCount("/ocsp"));
+        assertEquals(7, meterRegistry.counter("sid.demo.dataloader.requests", "loader", "ocsp", "result", "coalesced").count());
+    }
+
+    @Test
+    public void everyTimestampRequestIsSent() throws Exception {
+        var tspLoader = new SkTimestampDataLoader(configuration);
+        tspLoader.setUserAgent(Helper.createBDocUserAgent(SignatureProfile.LT));
+        DataLoader dataLoader = new CoalescingDataLoaderFactory("tsp", tspLoader, meterRegistry).create();
+        var random = new SecureRandom();
+
+        List<CompletableFuture<byte[]>> responses = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            var digest = new byte[32];
+            random.nextBytes(digest);
+            byte[] request = new TimeStampRequestGenerator().generate(NISTObjectIdentifiers.id_sha256, digest).getEncoded();
+            responses.add(CompletableFuture.supplyAsync(() -> dataLoader.post(services.getTspUrl(), request), executor));
+        }
+
+        for (CompletableFuture<byte[]> response : responses) {
+            assertEquals(0, new TimeStampResponse(response.get()).getStatus());
+        }
+        assertEquals(4, services.getRequestCount("/tsa"));
+    }
+
+    @Test
+    public void requestsAreSentByDigidoc4jLoader() throws Exception {
+        DataLoader dataLoader = new CoalescingDataLoaderFactory("ocsp", ocspLoader(), meterRegistry).create();
+
+        dataLoader.post(services.getOcspUrl(), ocspRequest(pki.getCertificate(PERSON)));
+
+        assertEquals(Helper.createBDocUserAgent(SignatureProfile.LT), services.getLastUserAgent("/ocsp"));
+    }
+
+    private SkOCSPDataLoader ocspLoader() {
+        // proxy and SSL settings come from the configuration, digidoc4j refuses OCSP requests without User-Agent
+        var ocspLoader = new SkOCSPDataLoader(configuration);
+        ocspLoader.setUserAgent(Helper.createBDocUserAgent(SignatureProfile.LT));
+        return ocspLoader;
+    }
+
+    private byte[] ocspRequest(X509Certificate certificate) throws Exception {
+        var certificateId = new CertificateID(
+                new JcaDigestCalculatorProviderBuilder().build().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1)),
+                new JcaX509CertificateHolder(pki.getCaCertificate()), certificate.getSerialNumber());
+        // digidoc4j leaves the nonce out in TEST mode, only such requests are identical
+        return new OCSPReqBuilder().addRequest(certificateId).build().getEncoded();
+    }
+}
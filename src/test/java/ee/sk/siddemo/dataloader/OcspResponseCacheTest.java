@@ -0,0 +1,184 @@
+package ee.sk.siddemo.dataloader;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.TSLCertificateSource;
+import org.digidoc4j.impl.SkOCSPDataLoader;
+import org.digidoc4j.impl.asic.tsl.TSLCertificateSourceImpl;
+import org.digidoc4j.utils.Helper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ee.sk.siddemo.Config;
+import ee.sk.siddemo.fake.FakeSigner;
+import ee.sk.siddemo.fake.FakeSmartIdPki;
+import ee.sk.siddemo.fake.FakeTrustServices;
+import ee.sk.siddemo.fake.LatencyDistribution;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class OcspResponseCacheTest {
+
+    private static final String PERSON = "PNOEE-30303039914";
+
+    private final FakeSmartIdPki pki = new FakeSmartIdPki();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FakeTrustServices services;
+
+    @TempDir
+    private Path directory;
+
+    @BeforeEach
+    public void startServices() throws IOException {
+        services = new FakeTrustServices(pki, LatencyDistribution.none()).start(0);
+    }
+
+    @AfterEach
+    public void stopServices() {
+        services.close();
+    }
+
+    @Test
+    public void responseIsReusedUntilRestart() throws Exception {
+        byte[] request = ocspRequest(false);
+
+        byte[] first = dataLoader(newCache()).post(services.getOcspUrl(), request);
+        // a new cache loads the response written by the first one
+        OcspResponseCache reloaded = newCache();
+        byte[] second = dataLoader(reloaded).post(services.getOcspUrl(), request);
+
+        assertArrayEquals(first, second);
+        assertEquals(1, services.getRequestCount("/ocsp"));
+        assertEquals(1, reloaded.size());
+        assertEquals(0.5, meterRegistry.get("sid.demo.ocsp.cache.hit.ratio").gauge().value());
+    }
+
+    @Test
+    public void requestWithNonceIsNotCached() throws Exception {
+        CachingOcspDataLoader dataLoader = dataLoader(newCache());
+
+        dataLoader.post(services.getOcspUrl(), ocspRequest(true));
+        dataLoader.post(services.getOcspUrl(), ocspRequest(true));
+
+        assertEquals(2, services.getRequestCount("/ocsp"));
+        assertEquals(2, meterRegistry.counter("sid.demo.ocsp.cache.lookups", "result", "bypass").count());
+    }
+
+    @Test
+    public void signaturesOfOneCertificateAreNotServedFromCache() {
+        var config = new Config();
+        ReflectionTestUtils.setField(config, "digiDocMode", Configuration.Mode.TEST);
+        ReflectionTestUtils.setField(config, "tslRefreshInterval", Duration.ofHours(1));
+        ReflectionTestUtils.setField(config, "coalescingDataLoaders", true);
+        ReflectionTestUtils.setField(config, "signatureProfile", SignatureProfile.LT);
+        ReflectionTestUtils.setField(config, "ocspCacheEnabled", true);
+        ReflectionTestUtils.setField(config, "ocspCacheMaxEntries", 100);
+        ReflectionTestUtils.setField(config, "ocspCacheTtlWithoutNextUpdate", Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(config, "ocspCacheMaxTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(config, "ocspCacheDirectory", "");
+        Configuration signing = config.digiDocConfiguration(meterRegistry);
+        signing.setTspSource(services.getTspUrl());
+        signing.setOcspSource(services.getOcspUrl());
+        TSLCertificateSource trustedList = new TSLCertificateSourceImpl();
+        trustedList.addTSLCertificate(pki.getCaCertificate());
+        signing.setTSL(trustedList);
+        Configuration validation = config.validationConfiguration(signing, meterRegistry);
+
+        byte[] first = signedContainer(signing);
+        byte[] second = signedContainer(signing);
+
+        // each LT signature needs a response produced after its own time-stamp
+        assertEquals(2, services.getRequestCount("/ocsp"));
+        assertTrue(open(first, validation).validate().isValid());
+        assertTrue(open(second, validation).validate().isValid());
+    }
+
+    private byte[] signedContainer(Configuration configuration) {
+        Container container = ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .withDataFile(new ByteArrayInputStream("document".getBytes(StandardCharsets.UTF_8)), "document.txt", "text/plain")
+                .build();
+        FakeSigner.sign(container, pki, PERSON, SignatureProfile.LT);
+        try (var in = container.saveAsStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Container open(byte[] container, Configuration configuration) {
+        return ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .fromStream(new ByteArrayInputStream(container))
+                .build();
+    }
+
+    private OcspResponseCache newCache() {
+        return new OcspResponseCache(Duration.ofMinutes(5), Duration.ofHours(1), 100, directory, meterRegistry);
+    }
+
+    private CachingOcspDataLoader dataLoader(OcspResponseCache cache) {
+        var ocspLoader = new SkOCSPDataLoader(new Configuration(Configuration.Mode.TEST));
+        ocspLoader.setUserAgent(Helper.createBDocUserAgent(SignatureProfile.LT));
+        var dataLoaders = new CoalescingDataLoaderFactory("ocsp", ocspLoader, meterRegistry);
+        return new CachingOcspDataLoader(dataLoaders.create(), cache, meterRegistry);
+    }
+
+    private byte[] ocspRequest(boolean nonce) throws Exception {
+        var certificateId = new CertificateID(
+                new JcaDigestCalculatorProviderBuilder().build().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1)),
+                new JcaX509CertificateHolder(pki.getCaCertificate()), pki.getCertificate(PERSON).getSerialNumber());
+        var builder = new OCSPReqBuilder().addRequest(certificateId);
+        if (nonce) {
+            builder.setRequestExtensions(new Extensions(new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+                    new DEROctetString(Long.toString(System.nanoTime()).getBytes()))));
+        }
+        return builder.build().getEncoded();
+    }
+}
@@ -0,0 +1,70 @@
+package ee.sk.siddemo.fake;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+import org.digidoc4j.Container;
+import org.digidoc4j.DataToSign;
+import org.digidoc4j.DigestAlgorithm;
+import org.digidoc4j.Signature;
+import org.digidoc4j.SignatureBuilder;
+import org.digidoc4j.SignatureProfile;
+
+/**
+ * Adds signatures to containers with person keys of {@link FakeSmartIdPki}, the way the application signs
+ * through Smart-ID: the hash of the data to sign is signed and the signature is finalized with the value.
+ */
+public final class FakeSigner {
+
+    private FakeSigner() {
+    }
+
+    /**
+     * Timestamp and OCSP requests of LT profiles go to the services set in the configuration of the container.
+     *
+     * @param identifier semantics identifier of the signer, e.g. PNOEE-30303039914
+     */
+    public static Signature sign(Container container, FakeSmartIdPki pki, String identifier, SignatureProfile profile) {
+        DataToSign dataToSign = SignatureBuilder.aSignature(container)
+                .withSigningCertificate(pki.getCertificate(identifier))
+                .withSignatureDigestAlgorithm(DigestAlgorithm.SHA256)
+                .withSignatureProfile(profile)
+                .buildDataToSign();
+
+        FakeSmartIdPki.SignedHash signedHash = pki.signHash(identifier, sha256(dataToSign.getDataToSign()), "SHA256");
+        Signature signature = dataToSign.finalize(Base64.getDecoder().decode(signedHash.valueInBase64()));
+        container.addSignature(signature);
+        return signature;
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ee.sk.siddemo.fake;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Test CA of {@link FakeSmartIdServer}. Person certificates are issued on first use of a semantics identifier,
+ * trust stores in the format of sid.trusted_root_certs.p12 and sid.trusted_server_certs.p12 can be exported.
+ */
+public class FakeSmartIdPki {
+
+    private static final AtomicLong SERIAL = new AtomicLong(System.currentTimeMillis());
+
+    private final X500Name caName = new X500Name("CN=Fake Smart-ID Test CA, O=Smart-ID demo, C=EE");
+    private final KeyPair caKeys;
+    private final X509Certificate caCertificate;
+
+    private final KeyPair serverKeys;
+    private final X509Certificate serverCertificate;
+
+    private final Map<String, Person> persons = new ConcurrentHashMap<>();
+
+    public FakeSmartIdPki() {
+        try {
+            caKeys = newKeyPair();
+            caCertificate = issue(caName, caKeys, new BasicConstraints(true),
+                    new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign), null, null);
+
+            serverKeys = newKeyPair();
+            serverCertificate = issue(new X500Name("CN=localhost"), serverKeys, new BasicConstraints(false),
+                    new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment),
+                    new GeneralNames(new GeneralName(GeneralName.dNSName, "localhost")), null);
+        } catch (GeneralSecurityException | OperatorCreationException | IOException e) {
+            throw new IllegalStateException("Could not create fake Smart-ID CA", e);
+        }
+    }
+
+    public X509Certificate getCaCertificate() {
+        return caCertificate;
+    }
+
+    public X509Certificate getServerCertificate() {
+        return serverCertificate;
+    }
+
+    /**
+     * @param identifier semantics identifier, e.g. PNOEE-30303039914
+     */
+    public X509Certificate getCertificate(String identifier) {
+        return person(identifier).certificate();
+    }
+
+    /**
+     * Signs the hash the way Smart-ID does: RSA over the digest info of the hash.
+     *
+     * @return signature value and algorithm name as returned by Smart-ID API
+     */
+    public SignedHash signHash(String identifier, byte[] hash, String hashType) {
+        try {
+            AlgorithmIdentifier algorithm = new AlgorithmIdentifier(switch (hashType) {
+                case "SHA256" -> NISTObjectIdentifiers.id_sha256;
+                case "SHA384" -> NISTObjectIdentifiers.id_sha384;
+                case "SHA512" -> NISTObjectIdentifiers.id_sha512;
+                default -> throw new IllegalArgumentException("Unsupported hash type " + hashType);
+            }, DERNull.INSTANCE);
+
+            Signature signature = Signature.getInstance("NONEwithRSA");
+            signature.initSign(person(identifier).keys().getPrivate());
+            signature.update(new DigestInfo(algorithm, hash).getEncoded());
+            return new SignedHash(Base64.getEncoder().encodeToString(signature.sign()), hashType.toLowerCase() + "WithRSAEncryption");
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Could not sign hash", e);
+        }
+    }
+
+    /**
+     * Issues a certificate of a trust service, e.g. {@link KeyPurposeId#id_kp_timeStamping} for a TSA
+     * or {@link KeyPurposeId#id_kp_OCSPSigning} for an OCSP responder.
+     */
+    public IssuedKey issueServiceCertificate(String commonName, KeyPurposeId purpose) {
+        try {
+            KeyPair keys = newKeyPair();
+            X509Certificate certificate = issue(new X500Name("CN=" + commonName + ", O=Smart-ID demo, C=EE"), keys,
+                    new BasicConstraints(false), new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation), null, purpose);
+            return new IssuedKey(keys, certificate);
+        } catch (GeneralSecurityException | OperatorCreationException | IOException e) {
+            throw new IllegalStateException("Could not issue certificate for " + commonName, e);
+        }
+    }
+
+    public SSLContext serverSslContext() {
+        try {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(null, null);
+            keyStore.setKeyEntry("server", serverKeys.getPrivate(), new char[0], new Certificate[]{serverCertificate, caCertificate});
+
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, new char[0]);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), null, null);
+            return sslContext;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Could not create server SSL context", e);
+        }
+    }
+
+    /**
+     * Trust store with the test CA, usable both as server SSL and as Smart-ID root certificate trust store.
+     */
+    public KeyStore trustStore() {
+        try {
+            KeyStore trustStore = KeyStore.getInstance("PKCS12");
+            trustStore.load(null, null);
+            trustStore.setCertificateEntry("fake-smart-id-ca", caCertificate);
+            return trustStore;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Could not create trust store", e);
+        }
+    }
+
+    public void writeTrustStore(Path path, String password) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            trustStore().store(out, password.toCharArray());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not write trust store", e);
+        }
+    }
+
+    private Person person(String identifier) {
+        return persons.computeIfAbsent(identifier, this::newPerson);
+    }
+
+    private Person newPerson(String identifier) {
+        // PNOEE-30303039914: identity type, country and identity code
+        String country = identifier.substring(3, 5);
+        try {
+            KeyPair keys = newKeyPair();
+            X500Name subject = new X500NameBuilder(BCStyle.INSTANCE)
+                    .addRDN(BCStyle.C, country)
+                    .addRDN(BCStyle.CN, "TESTNUMBER,OK," + identifier)
+                    .addRDN(BCStyle.SURNAME, "TESTNUMBER")
+                    .addRDN(BCStyle.GIVENNAME, "OK")
+                    .addRDN(BCStyle.SERIALNUMBER, identifier)
+                    .build();
+            // one key for authentication and signing, Smart-ID has separate ones
+            X509Certificate certificate = issue(subject, keys, new BasicConstraints(false),
+                    new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation), null, null);
+            return new Person(keys, certificate);
+        } catch (GeneralSecurityException | OperatorCreationException | IOException e) {
+            throw new IllegalStateException("Could not issue certificate for " + identifier, e);
+        }
+    }
+
+    private X509Certificate issue(X500Name subject, KeyPair subjectKeys, BasicConstraints basicConstraints, KeyUsage keyUsage,
+                                  GeneralNames subjectAlternativeNames, KeyPurposeId extendedKeyUsage)
+            throws GeneralSecurityException, OperatorCreationException, IOException {
+        Instant now = Instant.now();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(caName, BigInteger.valueOf(SERIAL.getAndIncrement()),
+                Date.from(now.minus(Duration.ofDays(1))), Date.from(now.plus(Duration.ofDays(365))), subject, subjectKeys.getPublic())
+                .addExtension(Extension.basicConstraints, true, basicConstraints)
+                .addExtension(Extension.keyUsage, true, keyUsage);
+        if (subjectAlternativeNames != null) {
+            builder.addExtension(Extension.subjectAlternativeName, false, subjectAlternativeNames);
+        }
+        if (extendedKeyUsage != null) {
+            // RFC 3161 requires the time stamping key usage to be the only one and critical
+            builder.addExtension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(extendedKeyUsage));
+        }
+        // CA certificate is self signed
+        return new JcaX509CertificateConverter()
+                .getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate())));
+    }
+
+    private static KeyPair newKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    public record SignedHash(String valueInBase64, String algorithm) {
+    }
+
+    public record IssuedKey(KeyPair keys, X509Certificate certificate) {
+    }
+
+    private record Person(KeyPair keys, X509Certificate certificate) {
+    }
+}
@@ -0,0 +1,325 @@
+package ee.sk.siddemo.fake;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.cert.CertificateEncodingException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Stand-in for Smart-ID RP API v2 (certificate choice, authentication, signature and session status)
+ * for running the application and load tests without network access.
+ * <p>
+ * Sessions complete after a think time drawn from a distribution, a share of them can end with USER_REFUSED or TIMEOUT
+ * and requests starting a session can be answered with HTTP 580 (maintenance). Every response is delayed by the
+ * latency distribution. Certificates are issued by {@link FakeSmartIdPki}, trust its CA on the client side.
+ */
+public class FakeSmartIdServer implements AutoCloseable {
+
+    private static final int MAINTENANCE_STATUS = 580;
+
+    private final FakeSmartIdPki pki;
+    private final LatencyDistribution latency;
+    private final LatencyDistribution thinkTime;
+    private final double userRefusedRate;
+    private final double timeoutRate;
+    private final double maintenanceRate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private HttpsServer server;
+    private ExecutorService executor;
+
+    private FakeSmartIdServer(Builder builder) {
+        this.pki = builder.pki != null ? builder.pki : new FakeSmartIdPki();
+        this.latency = builder.latency;
+        this.thinkTime = builder.thinkTime;
+        this.userRefusedRate = builder.userRefusedRate;
+        this.timeoutRate = builder.timeoutRate;
+        this.maintenanceRate = builder.maintenanceRate;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @param port 0 for any free port
+     */
+    public FakeSmartIdServer start(int port) throws IOException {
+        server = HttpsServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(pki.serverSslContext()));
+        // session status requests are long polls, each one holds a thread
+        executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "fake-smart-id");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return value for SmartIdClient.setHostUrl
+     */
+    public String getHostUrl() {
+        return "https://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    public FakeSmartIdPki getPki() {
+        return pki;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return sessions started and not yet polled to completion
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requestCount.incrementAndGet();
+            sleep(latency.sample(ThreadLocalRandom.current()).toMillis());
+
+            String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+            if ("GET".equals(exchange.getRequestMethod()) && path.length == 2 && "session".equals(path[0])) {
+                sessionStatus(exchange, path[1]);
+            } else if ("POST".equals(exchange.getRequestMethod()) && path.length == 3) {
+                startSession(exchange, path[0], path[1], path[2]);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private void startSession(HttpExchange exchange, String operation, String idType, String id) throws IOException {
+        if (!Set.of("certificatechoice", "authentication", "signature").contains(operation)
+                || !("etsi".equals(idType) || "document".equals(idType))) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < maintenanceRate) {
+            exchange.sendResponseHeaders(MAINTENANCE_STATUS, -1);
+            return;
+        }
+
+        Map<?, ?> request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = objectMapper.readValue(in, Map.class);
+        }
+
+        // document number is the semantics identifier with a device suffix
+        String identifier = "document".equals(idType) ? id.replaceFirst("-MOCK-Q$", "") : id;
+
+        String endResult = "OK";
+        Duration sessionThinkTime = Duration.ZERO;
+        if (!"certificatechoice".equals(operation)) {
+            // user has to confirm authentication and signature in the app
+            sessionThinkTime = thinkTime.sample(random);
+            double outcome = random.nextDouble();
+            if (outcome < userRefusedRate) {
+                endResult = "USER_REFUSED";
+            } else if (outcome < userRefusedRate + timeoutRate) {
+                endResult = "TIMEOUT";
+            }
+        }
+
+        var session = new Session(operation, identifier, (String) request.get("hash"), (String) request.get("hashType"),
+                endResult, System.nanoTime() + sessionThinkTime.toNanos());
+        String sessionId = UUID.randomUUID().toString();
+        sessions.put(sessionId, session);
+
+        writeJson(exchange, Map.of("sessionID", sessionId));
+    }
+
+    private void sessionStatus(HttpExchange exchange, String sessionId) throws IOException {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        // long poll: answer as soon as the session completes, at the latest after timeoutMs
+        long waitMillis = Math.min(timeoutMillis(exchange.getRequestURI()), session.remainingMillis());
+        sleep(waitMillis);
+
+        if (session.remainingMillis() > 0) {
+            writeJson(exchange, Map.of("state", "RUNNING"));
+            return;
+        }
+        // final state is polled once, the server only keeps sessions in progress
+        sessions.remove(sessionId);
+        writeJson(exchange, completedStatus(session));
+    }
+
+    private Map<String, Object> completedStatus(Session session) {
+        var status = new LinkedHashMap<String, Object>();
+        status.put("state", "COMPLETE");
+        if (!"OK".equals(session.endResult())) {
+            status.put("result", Map.of("endResult", session.endResult()));
+            return status;
+        }
+
+        status.put("result", Map.of("endResult", "OK", "documentNumber", session.identifier() + "-MOCK-Q"));
+        try {
+            status.put("cert", Map.of(
+                    "value", Base64.getEncoder().encodeToString(pki.getCertificate(session.identifier()).getEncoded()),
+                    "certificateLevel", "QUALIFIED"));
+        } catch (CertificateEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (session.hash() != null) {
+            FakeSmartIdPki.SignedHash signedHash = pki.signHash(session.identifier(), Base64.getDecoder().decode(session.hash()),
+                    session.hashType());
+            status.put("signature", Map.of("value", signedHash.valueInBase64(), "algorithm", signedHash.algorithm()));
+            status.put("interactionFlowUsed", "displayTextAndPIN");
+        }
+        return status;
+    }
+
+    private void writeJson(HttpExchange exchange, Object body) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+
+    private static long timeoutMillis(URI uri) {
+        String query = uri.getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("timeoutMs=")) {
+                    return Long.parseLong(parameter.substring("timeoutMs=".length()));
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Session(String operation, String identifier, String hash, String hashType, String endResult, long completesAt) {
+
+        long remainingMillis() {
+            return Math.max(0, Duration.ofNanos(completesAt - System.nanoTime()).toMillis());
+        }
+    }
+
+    public static class Builder {
+        private FakeSmartIdPki pki;
+        private LatencyDistribution latency = LatencyDistribution.none();
+        private LatencyDistribution thinkTime = LatencyDistribution.fixed(Duration.ofSeconds(2));
+        private double userRefusedRate;
+        private double timeoutRate;
+        private double maintenanceRate;
+
+        private Builder() {
+        }
+
+        /**
+         * Shares certificates between server instances, by default every server has its own CA.
+         */
+        public Builder withPki(FakeSmartIdPki pki) {
+            this.pki = pki;
+            return this;
+        }
+
+        public Builder withLatency(LatencyDistribution latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        public Builder withThinkTime(LatencyDistribution thinkTime) {
+            this.thinkTime = thinkTime;
+            return this;
+        }
+
+        public Builder withUserRefusedRate(double userRefusedRate) {
+            this.userRefusedRate = userRefusedRate;
+            return this;
+        }
+
+        public Builder withTimeoutRate(double timeoutRate) {
+            this.timeoutRate = timeoutRate;
+            return this;
+        }
+
+        public Builder withMaintenanceRate(double maintenanceRate) {
+            this.maintenanceRate = maintenanceRate;
+            return this;
+        }
+
+        public FakeSmartIdServer build() {
+            return new FakeSmartIdServer(this);
+        }
+    }
+}
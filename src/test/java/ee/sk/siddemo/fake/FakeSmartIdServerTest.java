@@ -0,0 +1,126 @@
+package ee.sk.siddemo.fake;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import ee.sk.smartid.AuthenticationHash;
+import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.AuthenticationRequestBuilder;
+import ee.sk.smartid.AuthenticationResponseValidator;
+import ee.sk.smartid.SmartIdAuthenticationResponse;
+import ee.sk.smartid.SmartIdClient;
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.exception.useraction.UserRefusedException;
+import ee.sk.smartid.rest.dao.Interaction;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+
+public class FakeSmartIdServerTest {
+
+    private static final SemanticsIdentifier PERSON = new SemanticsIdentifier("PNOEE-30303039914");
+
+    private FakeSmartIdServer server;
+
+    @AfterEach
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void authenticationIsValidatedAgainstFakeCa() throws IOException {
+        server = FakeSmartIdServer.newBuilder()
+                .withThinkTime(LatencyDistribution.fixed(Duration.ofMillis(200)))
+                .build()
+                .start(0);
+
+        AuthenticationHash authenticationHash = AuthenticationHash.generateRandomHash();
+        SmartIdAuthenticationResponse response = authentication(authenticationHash).authenticate();
+
+        var validator = new AuthenticationResponseValidator(new X509Certificate[]{server.getPki().getCaCertificate()});
+        AuthenticationIdentity identity = validator.validate(response);
+
+        assertEquals("OK", identity.getGivenName());
+        assertEquals("30303039914", identity.getIdentityCode());
+        assertEquals("EE", identity.getCountry());
+    }
+
+    @Test
+    public void userRefusalIsInjected() throws IOException {
+        server = FakeSmartIdServer.newBuilder()
+                .withThinkTime(LatencyDistribution.none())
+                .withUserRefusedRate(1.0)
+                .build()
+                .start(0);
+
+        AuthenticationRequestBuilder authentication = authentication(AuthenticationHash.generateRandomHash());
+
+        assertThrows(UserRefusedException.class, authentication::authenticate);
+    }
+
+    @Test
+    public void completedSessionIsForgotten() throws IOException {
+        server = FakeSmartIdServer.newBuilder()
+                .withThinkTime(LatencyDistribution.fixed(Duration.ofMillis(200)))
+                .build()
+                .start(0);
+
+        authentication(AuthenticationHash.generateRandomHash()).authenticate();
+
+        assertEquals(0, server.getSessionCount());
+    }
+
+    @Test
+    public void maintenanceIsInjected() throws IOException {
+        server = FakeSmartIdServer.newBuilder()
+                .withMaintenanceRate(1.0)
+                .build()
+                .start(0);
+
+        AuthenticationRequestBuilder authentication = authentication(AuthenticationHash.generateRandomHash());
+
+        assertThrows(ServerMaintenanceException.class, authentication::initiateAuthentication);
+    }
+
+    private AuthenticationRequestBuilder authentication(AuthenticationHash authenticationHash) {
+        var client = new SmartIdClient();
+        client.setRelyingPartyUUID("00000000-0000-0000-0000-000000000000");
+        client.setRelyingPartyName("DEMO");
+        client.setHostUrl(server.getHostUrl());
+        client.setTrustStore(server.getPki().trustStore());
+
+        return client.createAuthentication()
+                .withSemanticsIdentifier(PERSON)
+                .withAuthenticationHash(authenticationHash)
+                .withCertificateLevel("QUALIFIED")
+                .withAllowedInteractionsOrder(List.of(Interaction.displayTextAndPIN("Log in?")));
+    }
+}
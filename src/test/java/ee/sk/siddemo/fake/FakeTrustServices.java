@@ -0,0 +1,234 @@
+package ee.sk.siddemo.fake;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.jcajce.JcaBasicOCSPRespBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TSPException;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampResponseGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in RFC 3161 time-stamping authority (POST /tsa) and OCSP responder (POST /ocsp) with certificates of
+ * {@link FakeSmartIdPki}, so that LT signatures can be created without network access.
+ * Every certificate is reported good. Plain HTTP like the real services.
+ */
+public class FakeTrustServices implements AutoCloseable {
+
+    // any policy will do, the stand-in is not a qualified service
+    private static final ASN1ObjectIdentifier TSA_POLICY = new ASN1ObjectIdentifier("1.3.6.1.4.1.99999.1");
+    private static final Duration OCSP_VALIDITY = Duration.ofHours(1);
+    private static final AtomicLong SERIAL = new AtomicLong(System.currentTimeMillis());
+
+    private final FakeSmartIdPki.IssuedKey tsa;
+    private final FakeSmartIdPki.IssuedKey ocspResponder;
+    private final LatencyDistribution latency;
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+    private final Map<String, String> userAgents = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeTrustServices(FakeSmartIdPki pki, LatencyDistribution latency) {
+        this.tsa = pki.issueServiceCertificate("Fake TSA", KeyPurposeId.id_kp_timeStamping);
+        this.ocspResponder = pki.issueServiceCertificate("Fake OCSP responder", KeyPurposeId.id_kp_OCSPSigning);
+        this.latency = latency;
+    }
+
+    /**
+     * @param port 0 for any free port
+     */
+    public FakeTrustServices start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "fake-trust-services");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/tsa", exchange -> handle(exchange, "application/timestamp-reply", this::timestamp));
+        server.createContext("/ocsp", exchange -> handle(exchange, "application/ocsp-response", this::ocsp));
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return value for digidoc4j Configuration.setTspSource
+     */
+    public String getTspUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/tsa";
+    }
+
+    /**
+     * @return value for digidoc4j Configuration.setOcspSource
+     */
+    public String getOcspUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/ocsp";
+    }
+
+    /**
+     * @param path /tsa or /ocsp
+     */
+    public long getRequestCount(String path) {
+        AtomicLong count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param path /tsa or /ocsp
+     * @return User-Agent header of the last request, null if there was none
+     */
+    public String getLastUserAgent(String path) {
+        return userAgents.get(path);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange, String contentType, Responder responder) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            requestCounts.computeIfAbsent(path, p -> new AtomicLong()).incrementAndGet();
+            String userAgent = exchange.getRequestHeaders().getFirst("User-Agent");
+            if (userAgent != null) {
+                userAgents.put(path, userAgent);
+            }
+            sleep(latency.sample(ThreadLocalRandom.current()).toMillis());
+
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] response;
+            try (InputStream in = exchange.getRequestBody()) {
+                response = responder.respond(in.readAllBytes());
+            } catch (IOException | GeneralSecurityException | OperatorCreationException | TSPException | OCSPException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+    }
+
+    private byte[] timestamp(byte[] request) throws IOException, GeneralSecurityException, OperatorCreationException, TSPException {
+        var tokenGenerator = new TimeStampTokenGenerator(
+                new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256withRSA", tsa.keys().getPrivate(), tsa.certificate()),
+                sha1(), TSA_POLICY);
+        tokenGenerator.addCertificates(new JcaCertStore(List.of(tsa.certificate())));
+
+        var responseGenerator = new TimeStampResponseGenerator(tokenGenerator, TSPAlgorithms.ALLOWED);
+        return responseGenerator.generate(new TimeStampRequest(request), BigInteger.valueOf(SERIAL.getAndIncrement()), new Date())
+                .getEncoded();
+    }
+
+    private byte[] ocsp(byte[] request) throws IOException, GeneralSecurityException, OperatorCreationException, OCSPException {
+        var ocspRequest = new OCSPReq(request);
+        Instant now = Instant.now();
+
+        BasicOCSPRespBuilder builder = new JcaBasicOCSPRespBuilder(ocspResponder.certificate().getPublicKey(), sha1());
+        for (Req req : ocspRequest.getRequestList()) {
+            builder.addResponse(req.getCertID(), CertificateStatus.GOOD, Date.from(now), Date.from(now.plus(OCSP_VALIDITY)), null);
+        }
+        Extension nonce = ocspRequest.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce);
+        if (nonce != null) {
+            builder.setResponseExtensions(new Extensions(nonce));
+        }
+
+        BasicOCSPResp response = builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(ocspResponder.keys().getPrivate()),
+                new X509CertificateHolder[]{new JcaX509CertificateHolder(ocspResponder.certificate())}, Date.from(now));
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, response).getEncoded();
+    }
+
+    private static DigestCalculator sha1() throws OperatorCreationException {
+        return new JcaDigestCalculatorProviderBuilder().build().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1));
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Responder {
+        byte[] respond(byte[] request) throws IOException, GeneralSecurityException, OperatorCreationException, TSPException, OCSPException;
+    }
+}
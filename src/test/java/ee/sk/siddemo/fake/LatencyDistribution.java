@@ -0,0 +1,57 @@
+package ee.sk.siddemo.fake;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Distribution of response latency or user think time of {@link FakeSmartIdServer}.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    Duration sample(Random random);
+
+    static LatencyDistribution none() {
+        return random -> Duration.ZERO;
+    }
+
+    static LatencyDistribution fixed(Duration duration) {
+        return random -> duration;
+    }
+
+    static LatencyDistribution uniform(Duration min, Duration max) {
+        long range = max.toMillis() - min.toMillis();
+        return random -> min.plusMillis(range <= 0 ? 0 : (long) (random.nextDouble() * range));
+    }
+
+    /**
+     * Long tailed distribution typical for network latency and human reaction time.
+     *
+     * @param sigma standard deviation of the underlying normal distribution, 0.5 gives p99 of about 3 times the median
+     */
+    static LatencyDistribution logNormal(Duration median, double sigma) {
+        return random -> Duration.ofNanos((long) (median.toNanos() * Math.exp(sigma * random.nextGaussian())));
+    }
+}
@@ -0,0 +1,218 @@
+package ee.sk.siddemo.load;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Open model load: sessions are started at a fixed arrival rate regardless of how fast the server answers,
+ * so a slow server shows up as growing latency instead of lower offered load.
+ * <p>
+ * Session latency is measured from the intended start time, which keeps coordinated omission out of the numbers.
+ */
+class LoadGenerator {
+
+    // rendered by error.html and sidOperationError.html, both are served with status 200
+    private static final String ERROR_MARKER = ">Error</h4>";
+
+    private final URI target;
+    private final LoadTestOptions options;
+    private final List<String> identityCodes;
+    private final byte[] document;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final AtomicLong sessionsStarted = new AtomicLong();
+    private final AtomicLong sessionsFinished = new AtomicLong();
+
+    LoadGenerator(URI target, LoadTestOptions options, List<String> identityCodes) {
+        this.target = target;
+        this.options = options;
+        this.identityCodes = identityCodes;
+        this.document = new byte[options.documentSize()];
+        new Random(1).nextBytes(document);
+    }
+
+    /**
+     * Runs the configured load and waits until started sessions have finished or the drain timeout has passed.
+     */
+    void run() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate());
+        long startNanos = System.nanoTime();
+        long sessionCount = (long) (options.rate() * options.duration().toSeconds());
+
+        var sequence = new AtomicLong();
+        scheduler.scheduleAtFixedRate(() -> {
+            long n = sequence.getAndIncrement();
+            if (n >= sessionCount) {
+                return;
+            }
+            sessionsStarted.incrementAndGet();
+            startSession(startNanos + n * periodNanos);
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        Thread.sleep(options.duration().toMillis());
+        scheduler.shutdown();
+
+        long drainDeadline = System.nanoTime() + options.drainTimeout().toNanos();
+        while (sessionsFinished.get() < sessionsStarted.get() && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+    }
+
+    Map<String, Histogram> getLatencies() {
+        return latencies;
+    }
+
+    long getErrors(String endpoint) {
+        LongAdder count = errors.get(endpoint);
+        return count == null ? 0 : count.sum();
+    }
+
+    long getSessionsStarted() {
+        return sessionsStarted.get();
+    }
+
+    long getSessionsFinished() {
+        return sessionsFinished.get();
+    }
+
+    private void startSession(long intendedStartNanos) {
+        var cookies = new ConcurrentHashMap<String, String>();
+        String identityCode = identityCodes.get(ThreadLocalRandom.current().nextInt(identityCodes.size()));
+
+        CompletableFuture<Boolean> session = ThreadLocalRandom.current().nextDouble() < options.signRatio()
+                ? call("signatureRequest", signatureRequest(identityCode), cookies)
+                        .thenCompose(ok -> ok ? call("sign", post("/sign", HttpRequest.BodyPublishers.noBody(), null), cookies)
+                                : CompletableFuture.completedFuture(false))
+                : call("authenticationRequest", authenticationRequest(identityCode), cookies)
+                        .thenCompose(ok -> ok ? call("authenticate", post("/authenticate", HttpRequest.BodyPublishers.noBody(), null), cookies)
+                                : CompletableFuture.completedFuture(false));
+
+        session.whenComplete((ok, exception) -> {
+            record("session", System.nanoTime() - intendedStartNanos, Boolean.TRUE.equals(ok));
+            sessionsFinished.incrementAndGet();
+        });
+    }
+
+    private CompletableFuture<Boolean> call(String endpoint, HttpRequest.Builder request, Map<String, String> cookies) {
+        if (!cookies.isEmpty()) {
+            request.header("Cookie", String.join("; ", cookies.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).toList()));
+        }
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+                .handle((response, exception) -> {
+                    boolean ok = exception == null && response.statusCode() == 200 && !response.body().contains(ERROR_MARKER);
+                    if (response != null) {
+                        rememberCookies(response, cookies);
+                    }
+                    record(endpoint, System.nanoTime() - start, ok);
+                    return ok;
+                });
+    }
+
+    private void record(String endpoint, long nanos, boolean ok) {
+        latencies.computeIfAbsent(endpoint, e -> new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(10), 3))
+                .recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), TimeUnit.MINUTES.toMicros(10)));
+        if (!ok) {
+            errors.computeIfAbsent(endpoint, e -> new LongAdder()).increment();
+        }
+    }
+
+    private static void rememberCookies(HttpResponse<?> response, Map<String, String> cookies) {
+        for (String header : response.headers().allValues("Set-Cookie")) {
+            String pair = header.split(";", 2)[0];
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                String value = pair.substring(separator + 1);
+                if (value.isEmpty()) {
+                    cookies.remove(pair.substring(0, separator));
+                } else {
+                    cookies.put(pair.substring(0, separator), value);
+                }
+            }
+        }
+    }
+
+    private HttpRequest.Builder authenticationRequest(String identityCode) {
+        String form = "country=EE&nationalIdentityNumber=" + URLEncoder.encode(identityCode, StandardCharsets.UTF_8);
+        return post("/authenticationRequest", HttpRequest.BodyPublishers.ofString(form), "application/x-www-form-urlencoded");
+    }
+
+    private HttpRequest.Builder signatureRequest(String identityCode) {
+        String boundary = "load-" + UUID.randomUUID();
+        List<byte[]> parts = new ArrayList<>();
+        parts.add(formField(boundary, "country", "EE"));
+        parts.add(formField(boundary, "nationalIdentityNumber", identityCode));
+        parts.add(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"document.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        parts.add(document);
+        parts.add(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return post("/signatureRequest", HttpRequest.BodyPublishers.ofByteArrays(parts), "multipart/form-data; boundary=" + boundary);
+    }
+
+    private static byte[] formField(String boundary, String name, String value) {
+        return ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n"
+                + value + "\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private HttpRequest.Builder post(String path, HttpRequest.BodyPublisher body, String contentType) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(target.resolve(path))
+                // long poll of /sign and /authenticate lasts as long as the user thinks
+                .timeout(Duration.ofMinutes(5))
+                .POST(body);
+        if (contentType != null) {
+            request.header("Content-Type", contentType);
+        }
+        return request;
+    }
+}
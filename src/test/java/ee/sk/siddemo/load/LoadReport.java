@@ -0,0 +1,142 @@
+package ee.sk.siddemo.load;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Latency percentiles, error rates and resource usage of one load test run as JSON, optionally compared to an earlier run.
+ */
+class LoadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    // p99 growing more than this compared to the baseline is reported as a regression
+    private static final double REGRESSION_THRESHOLD = 1.2;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final ObjectNode report = objectMapper.createObjectNode();
+
+    LoadReport(LoadTestOptions options, LoadGenerator generator, ServerMonitor monitor) {
+        ObjectNode config = report.putObject("config");
+        config.put("target", options.target() == null ? "in-process" : options.target());
+        config.put("rate", options.rate());
+        config.put("durationSeconds", options.duration().toSeconds());
+        config.put("signRatio", options.signRatio());
+        config.put("documentSize", options.documentSize());
+        config.put("persons", options.persons());
+        config.put("thinkTimeMs", options.thinkTime().toMillis());
+        config.put("apiLatencyMs", options.apiLatency().toMillis());
+
+        report.put("sessionsStarted", generator.getSessionsStarted());
+        report.put("sessionsFinished", generator.getSessionsFinished());
+
+        ObjectNode endpoints = report.putObject("endpoints");
+        double seconds = options.duration().toMillis() / 1000.0;
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(generator.getLatencies()).entrySet()) {
+            Histogram histogram = entry.getValue();
+            long errors = generator.getErrors(entry.getKey());
+            ObjectNode endpoint = endpoints.putObject(entry.getKey());
+            endpoint.put("count", histogram.getTotalCount());
+            endpoint.put("errors", errors);
+            endpoint.put("errorRate", histogram.getTotalCount() == 0 ? 0 : (double) errors / histogram.getTotalCount());
+            endpoint.put("throughputPerSecond", histogram.getTotalCount() / seconds);
+            for (double percentile : PERCENTILES) {
+                endpoint.put(percentileName(percentile), millis(histogram.getValueAtPercentile(percentile)));
+            }
+            endpoint.put("maxMs", millis(histogram.getMaxValue()));
+        }
+
+        ObjectNode server = report.putObject("server");
+        server.put("heapUsedMaxBytes", monitor.getHeapUsedMax());
+        server.put("threadsLiveMax", monitor.getThreadsLiveMax());
+        server.put("failedSamples", monitor.getFailedSamples());
+    }
+
+    void write(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        objectMapper.writeValue(path.toFile(), report);
+    }
+
+    void print(PrintStream out) {
+        out.printf("%n%-24s %8s %7s %9s %9s %9s %9s %9s%n", "endpoint", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        report.path("endpoints").fields().forEachRemaining(entry -> {
+            JsonNode endpoint = entry.getValue();
+            out.printf("%-24s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", entry.getKey(),
+                    endpoint.path("count").asLong(), endpoint.path("errors").asLong(),
+                    endpoint.path("p50Ms").asDouble(), endpoint.path("p90Ms").asDouble(), endpoint.path("p99Ms").asDouble(),
+                    endpoint.path("p99_9Ms").asDouble(), endpoint.path("maxMs").asDouble());
+        });
+        out.printf("sessions started %d, finished %d, max heap %d MB, max threads %d%n",
+                report.path("sessionsStarted").asLong(), report.path("sessionsFinished").asLong(),
+                report.path("server").path("heapUsedMaxBytes").asLong() / (1024 * 1024),
+                report.path("server").path("threadsLiveMax").asLong());
+    }
+
+    /**
+     * Prints p99 of every endpoint next to the baseline.
+     *
+     * @return true if no endpoint got slower than the regression threshold allows
+     */
+    boolean compare(Path baselinePath, PrintStream out) throws IOException {
+        JsonNode baseline = objectMapper.readTree(baselinePath.toFile()).path("endpoints");
+        boolean ok = true;
+        out.printf("%n%-24s %12s %12s %8s%n", "p99 vs baseline", "baseline ms", "current ms", "change");
+        for (var it = report.path("endpoints").fields(); it.hasNext(); ) {
+            var entry = it.next();
+            if (!baseline.has(entry.getKey())) {
+                continue;
+            }
+            double before = baseline.path(entry.getKey()).path("p99Ms").asDouble();
+            double now = entry.getValue().path("p99Ms").asDouble();
+            double change = before == 0 ? 0 : now / before - 1;
+            boolean regression = before > 0 && now > before * REGRESSION_THRESHOLD;
+            ok &= !regression;
+            out.printf("%-24s %12.1f %12.1f %+7.0f%%%s%n", entry.getKey(), before, now, change * 100, regression ? " REGRESSION" : "");
+        }
+        return ok;
+    }
+
+    private static String percentileName(double percentile) {
+        String value = percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile).replace('.', '_');
+        return "p" + value + "Ms";
+    }
+
+    // histograms are recorded in microseconds
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
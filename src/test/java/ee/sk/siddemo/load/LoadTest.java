@@ -0,0 +1,167 @@
+package ee.sk.siddemo.load;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.TSLCertificateSource;
+import org.digidoc4j.impl.asic.tsl.TSLCertificateSourceImpl;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import ee.sk.siddemo.SmartIdJavaDemoApplication;
+import ee.sk.siddemo.fake.FakeSmartIdServer;
+import ee.sk.siddemo.fake.LatencyDistribution;
+
+/**
+ * End-to-end load test: drives authentication and signing sessions through the web endpoints at a fixed arrival rate
+ * and writes latency percentiles per endpoint to a JSON report.
+ * <p>
+ * Without --target the application is started in this JVM against {@link FakeSmartIdServer} with B_BES signatures
+ * and a trusted list containing only the fake CA, so that the run needs no network access.
+ * Run with {@code mvn -Ploadtest test-compile exec:java -Dexec.args="--rate=20 --duration=120"}.
+ */
+public class LoadTest {
+
+    private static final String TRUST_STORE_PASSWORD = "changeit";
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        List<String> identityCodes = identityCodes(options.persons());
+
+        FakeSmartIdServer smartId = null;
+        ConfigurableApplicationContext application = null;
+        boolean ok;
+        try {
+            URI target;
+            if (options.target() != null) {
+                target = URI.create(options.target());
+            } else {
+                smartId = startFakeSmartId(options, identityCodes);
+                application = startApplication(smartId);
+                target = URI.create("http://localhost:" + ((WebServerApplicationContext) application).getWebServer().getPort());
+            }
+
+            LoadGenerator generator = new LoadGenerator(target, options, identityCodes);
+            LoadReport report;
+            try (ServerMonitor monitor = new ServerMonitor(target)) {
+                monitor.start();
+                generator.run();
+                report = new LoadReport(options, generator, monitor);
+            }
+
+            report.write(options.report());
+            report.print(System.out);
+            System.out.println("Report written to " + options.report().toAbsolutePath());
+            ok = options.baseline() == null || report.compare(options.baseline(), System.out);
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+            if (smartId != null) {
+                smartId.close();
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static FakeSmartIdServer startFakeSmartId(LoadTestOptions options, List<String> identityCodes) throws Exception {
+        FakeSmartIdServer smartId = FakeSmartIdServer.newBuilder()
+                .withLatency(LatencyDistribution.logNormal(options.apiLatency(), 0.5))
+                .withThinkTime(LatencyDistribution.logNormal(options.thinkTime(), 0.5))
+                .withUserRefusedRate(options.userRefusedRate())
+                .build()
+                .start(0);
+        // key generation would otherwise be measured as latency of the first session of every person
+        identityCodes.forEach(code -> smartId.getPki().getCertificate("PNOEE-" + code));
+        return smartId;
+    }
+
+    private static ConfigurableApplicationContext startApplication(FakeSmartIdServer smartId) throws Exception {
+        Path workDirectory = Files.createTempDirectory("sid-demo-load");
+        Path trustStore = workDirectory.resolve("truststore.p12");
+        smartId.getPki().writeTrustStore(trustStore, TRUST_STORE_PASSWORD);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", 0);
+        properties.put("sid.client.applicationProviderHost", smartId.getHostUrl());
+        properties.put("sid.truststore.trusted-server-ssl-certs.filename", "file:" + trustStore);
+        properties.put("sid.truststore.trusted-server-ssl-certs.password", TRUST_STORE_PASSWORD);
+        properties.put("sid.truststore.trusted-root-certs.filename", "file:" + trustStore);
+        properties.put("sid.truststore.trusted-root-certs.password", TRUST_STORE_PASSWORD);
+        properties.put("app.sign.signature-profile", "B_BES");
+        properties.put("app.digidoc4j.tsl-preload", false);
+        properties.put("app.signed-files-directory", workDirectory.resolve("signed-files").toString());
+        properties.put("app.upload.spool-directory", workDirectory.resolve("uploads").toString());
+        properties.put("app.pending-sessions.directory", workDirectory.resolve("sessions").toString());
+        properties.put("logging.level.root", "WARN");
+
+        SpringApplication springApplication = new SpringApplication(SmartIdJavaDemoApplication.class);
+        springApplication.setDefaultProperties(properties);
+        ConfigurableApplicationContext context = springApplication.run();
+
+        TSLCertificateSource trustedList = new TSLCertificateSourceImpl();
+        trustedList.addTSLCertificate(smartId.getPki().getCaCertificate());
+        context.getBean("digiDocConfiguration", Configuration.class).setTSL(trustedList);
+        context.getBean("validationConfiguration", Configuration.class).setTSL(trustedList);
+        return context;
+    }
+
+    /**
+     * Estonian personal codes of people born on 1 January 1980 with a valid check digit.
+     */
+    static List<String> identityCodes(int count) {
+        List<String> codes = new ArrayList<>();
+        for (int serial = 0; codes.size() < count && serial < 1000; serial++) {
+            String code = String.format("3800101%03d", serial);
+            codes.add(code + checkDigit(code));
+        }
+        return codes;
+    }
+
+    private static int checkDigit(String code) {
+        int sum = weightedSum(code, 1);
+        if (sum % 11 < 10) {
+            return sum % 11;
+        }
+        sum = weightedSum(code, 3);
+        return sum % 11 < 10 ? sum % 11 : 0;
+    }
+
+    private static int weightedSum(String code, int firstWeight) {
+        int sum = 0;
+        for (int i = 0; i < code.length(); i++) {
+            int weight = (firstWeight + i - 1) % 9 + 1;
+            sum += (code.charAt(i) - '0') * weight;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,79 @@
+package ee.sk.siddemo.load;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options of {@link LoadTest}, given as --name=value.
+ *
+ * @param target        URL of an already running application, empty to start the application and a fake Smart-ID API in process
+ * @param rate          sessions started per second
+ * @param signRatio     share of signing sessions, the rest are authentications
+ * @param thinkTime     median time the user takes to enter PIN, fake Smart-ID API only
+ * @param apiLatency    median latency of fake Smart-ID API responses
+ * @param userRefusedRate share of sessions the user refuses, fake Smart-ID API only
+ */
+record LoadTestOptions(String target, double rate, Duration duration, Duration drainTimeout, double signRatio, int documentSize,
+                       int persons, Duration thinkTime, Duration apiLatency, double userRefusedRate, Path report, Path baseline) {
+
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        var options = new LoadTestOptions(
+                values.remove("target"),
+                Double.parseDouble(values.getOrDefault("rate", "10")),
+                seconds(values.getOrDefault("duration", "60")),
+                seconds(values.getOrDefault("drain-timeout", "120")),
+                Double.parseDouble(values.getOrDefault("sign-ratio", "0.3")),
+                Integer.parseInt(values.getOrDefault("document-size", "102400")),
+                Integer.parseInt(values.getOrDefault("persons", "50")),
+                Duration.ofMillis(Long.parseLong(values.getOrDefault("think-time-ms", "3000"))),
+                Duration.ofMillis(Long.parseLong(values.getOrDefault("api-latency-ms", "50"))),
+                Double.parseDouble(values.getOrDefault("user-refused-rate", "0.05")),
+                Paths.get(values.getOrDefault("report", "target/load-report.json")),
+                values.containsKey("baseline") ? Paths.get(values.get("baseline")) : null);
+
+        values.keySet().removeAll(Set.of("rate", "duration", "drain-timeout", "sign-ratio", "document-size", "persons",
+                "think-time-ms", "api-latency-ms", "user-refused-rate", "report", "baseline"));
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        }
+        return options;
+    }
+
+    private static Duration seconds(String value) {
+        return Duration.ofSeconds(Long.parseLong(value));
+    }
+}
@@ -0,0 +1,95 @@
+package ee.sk.siddemo.load;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Samples heap and thread usage of the application under test from its actuator metrics endpoint,
+ * so that the numbers are comparable whether the application runs in process or on another machine.
+ */
+class ServerMonitor implements AutoCloseable {
+
+    private final URI target;
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicLong heapUsedMax = new AtomicLong();
+    private final AtomicLong threadsLiveMax = new AtomicLong();
+    private final AtomicLong failedSamples = new AtomicLong();
+
+    ServerMonitor(URI target) {
+        this.target = target;
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::sample, 0, 1, TimeUnit.SECONDS);
+    }
+
+    long getHeapUsedMax() {
+        return heapUsedMax.get();
+    }
+
+    long getThreadsLiveMax() {
+        return threadsLiveMax.get();
+    }
+
+    long getFailedSamples() {
+        return failedSamples.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void sample() {
+        try {
+            heapUsedMax.accumulateAndGet((long) metric("jvm.memory.used?tag=area:heap"), Math::max);
+            threadsLiveMax.accumulateAndGet((long) metric("jvm.threads.live"), Math::max);
+        } catch (Exception e) {
+            failedSamples.incrementAndGet();
+        }
+    }
+
+    private double metric(String name) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(target.resolve("/actuator/metrics/" + name))
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        String body = httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        JsonNode measurements = objectMapper.readTree(body).path("measurements");
+        return measurements.path(0).path("value").asDouble();
+    }
+}
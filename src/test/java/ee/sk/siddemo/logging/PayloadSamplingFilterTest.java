@@ -0,0 +1,70 @@
+package ee.sk.siddemo.logging;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+
+public class PayloadSamplingFilterTest {
+
+    private final LoggerContext context = new LoggerContext();
+    private final PayloadSamplingFilter filter = new PayloadSamplingFilter();
+
+    @BeforeEach
+    public void startFilter() {
+        filter.setContext(context);
+        filter.setLoggerName("ee.sk.smartid.rest");
+        filter.setRate(0);
+        filter.start();
+    }
+
+    @Test
+    public void eventsOfSampledLoggersAreDropped() {
+        Logger logger = context.getLogger("ee.sk.smartid.rest.LoggingFilter");
+
+        assertEquals(FilterReply.DENY, filter.decide(null, logger, Level.TRACE, "Request body: {}", new Object[]{"{}"}, null));
+        assertEquals(FilterReply.NEUTRAL, filter.decide(null, logger, Level.WARN, "Request failed", null, null));
+    }
+
+    @Test
+    public void levelChecksAreNotSampled() {
+        Logger logger = context.getLogger("ee.sk.smartid.rest.LoggingFilter");
+
+        assertEquals(FilterReply.NEUTRAL, filter.decide(null, logger, Level.TRACE, null, null, null));
+    }
+
+    @Test
+    public void otherLoggersAreNotSampled() {
+        assertEquals(FilterReply.NEUTRAL,
+                filter.decide(null, context.getLogger("ee.sk.smartid.restore"), Level.TRACE, "Request body: {}", null, null));
+        assertEquals(FilterReply.NEUTRAL,
+                filter.decide(null, context.getLogger("ee.sk.siddemo"), Level.TRACE, "Request body: {}", null, null));
+    }
+}
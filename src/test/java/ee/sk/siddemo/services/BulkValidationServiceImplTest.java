@@ -0,0 +1,165 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.siddemo.model.BulkValidationStatus;
+import ee.sk.siddemo.model.BulkValidationStatus.State;
+import ee.sk.siddemo.model.ValidationReport;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BulkValidationServiceImplTest {
+
+    @TempDir
+    private Path reportDirectory;
+
+    private final SignatureValidationService validationService = mock(SignatureValidationService.class);
+    private final ContainerStorage containerStorage = mock(ContainerStorage.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BulkValidationServiceImpl bulkValidationService;
+
+    @BeforeEach
+    public void createService() {
+        bulkValidationService = new BulkValidationServiceImpl(validationService, containerStorage,
+                new ObjectMapper().findAndRegisterModules(), meterRegistry);
+        ReflectionTestUtils.setField(bulkValidationService, "reportDirectory", reportDirectory.toString());
+        ReflectionTestUtils.setField(bulkValidationService, "parallelism", 2);
+    }
+
+    @Test
+    public void everyContainerIsReported() throws Exception {
+        StoredContainer valid = container("valid", "asice");
+        StoredContainer invalid = container("invalid", "asice");
+        StoredContainer broken = container("broken", "asice");
+        when(containerStorage.list()).thenReturn(Stream.of(valid, invalid, broken, container("detached", "xml")));
+        when(validationService.revalidate(valid)).thenReturn(report(valid, true));
+        when(validationService.revalidate(invalid)).thenReturn(report(invalid, false));
+        when(validationService.revalidate(broken)).thenThrow(new IllegalStateException("OCSP not reachable"));
+
+        BulkValidationStatus status = bulkValidationService.start(false).get(10, TimeUnit.SECONDS);
+
+        assertEquals(State.DONE, status.state());
+        assertEquals(2, status.validated());
+        assertEquals(1, status.invalid());
+        assertEquals(1, status.failed());
+        List<String> lines = reportLines();
+        assertEquals(3, lines.size());
+        assertTrue(lines.stream().anyMatch(line -> line.contains("\"container\":\"broken\"") && line.contains("\"state\":\"FAILED\"")));
+        assertEquals(1, meterRegistry.counter("sid.demo.bulk.validation.containers", "result", "valid").count());
+    }
+
+    @Test
+    public void resumedRunSkipsReportedContainers() throws Exception {
+        StoredContainer reported = container("reported", "asice");
+        StoredContainer failed = container("failed", "asice");
+        StoredContainer remaining = container("remaining", "asice");
+        // failed containers are tried again, the last line was cut short by the interruption
+        Files.writeString(reportDirectory.resolve("bulk-validation.ndjson"), """
+                {"container":"reported","state":"DONE","valid":true,"errors":[],"warnings":[],"millis":5}
+                {"container":"failed","state":"FAILED","valid":null,"errors":["OCSP not reachable"],"warnings":[],"millis":5}
+                {"container":"remain""", StandardCharsets.UTF_8);
+        when(containerStorage.list()).thenReturn(Stream.of(reported, failed, remaining));
+        when(validationService.revalidate(any())).thenAnswer(invocation -> report(invocation.getArgument(0), true));
+
+        BulkValidationStatus status = bulkValidationService.start(true).get(10, TimeUnit.SECONDS);
+
+        assertEquals(State.DONE, status.state());
+        assertTrue(status.resumed());
+        assertEquals(1, status.skipped());
+        assertEquals(2, status.validated());
+        verify(validationService, never()).revalidate(reported);
+        List<String> lines = reportLines();
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(3).startsWith("{\"container\":"), lines.get(3));
+        assertTrue(lines.get(4).startsWith("{\"container\":"), lines.get(4));
+    }
+
+    @Test
+    public void containersAreQueuedTwoPerWorker() throws Exception {
+        ReflectionTestUtils.setField(bulkValidationService, "parallelism", 1);
+        var read = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        when(containerStorage.list()).thenReturn(IntStream.range(0, 100)
+                .mapToObj(i -> container("container-" + i, "asice"))
+                .peek(container -> read.incrementAndGet()));
+        when(validationService.revalidate(any())).thenAnswer(invocation -> {
+            release.await();
+            return report(invocation.getArgument(0), true);
+        });
+
+        var completion = bulkValidationService.start(false);
+        // two containers are queued for the single worker, the next one waits for a free place
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (read.get() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(3, read.get());
+        assertFalse(completion.isDone());
+
+        release.countDown();
+        assertEquals(100, completion.get(10, TimeUnit.SECONDS).validated());
+    }
+
+    private List<String> reportLines() throws IOException {
+        return Files.readAllLines(reportDirectory.resolve("bulk-validation.ndjson"), StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.isBlank())
+                .toList();
+    }
+
+    private static StoredContainer container(String id, String extension) {
+        return new StoredContainer(id, id, extension, "TESTNUMBER,OK", Instant.now(), 100, Instant.now());
+    }
+
+    private static ValidationReport report(StoredContainer container, boolean valid) {
+        return new ValidationReport(container.digest(), ValidationReport.State.DONE, valid, List.of(), List.of(), Instant.now());
+    }
+}
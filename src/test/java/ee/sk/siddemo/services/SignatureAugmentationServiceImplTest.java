@@ -0,0 +1,264 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.TSLCertificateSource;
+import org.digidoc4j.impl.asic.tsl.TSLCertificateSourceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.siddemo.fake.FakeSigner;
+import ee.sk.siddemo.fake.FakeSmartIdPki;
+import ee.sk.siddemo.fake.FakeTrustServices;
+import ee.sk.siddemo.fake.LatencyDistribution;
+import ee.sk.siddemo.metrics.StageTimers;
+import ee.sk.siddemo.model.AugmentationStatus;
+import ee.sk.siddemo.model.AugmentationStatus.State;
+import ee.sk.siddemo.storage.ShardedContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SignatureAugmentationServiceImplTest {
+
+    private static final String PERSON = "PNOEE-30303039914";
+
+    @TempDir
+    private Path signedFilesDirectory;
+
+    private final FakeSmartIdPki pki = new FakeSmartIdPki();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Configuration configuration = new Configuration(Configuration.Mode.TEST);
+    private FakeTrustServices services;
+    private ShardedContainerStorage storage;
+
+    @BeforeEach
+    public void configure() throws IOException {
+        services = new FakeTrustServices(pki, LatencyDistribution.none()).start(0);
+        configuration.setTspSource(services.getTspUrl());
+        configuration.setOcspSource(services.getOcspUrl());
+        TSLCertificateSource trustedList = new TSLCertificateSourceImpl();
+        trustedList.addTSLCertificate(pki.getCaCertificate());
+        configuration.setTSL(trustedList);
+
+        storage = new ShardedContainerStorage(signedFilesDirectory, ShardedContainerStorage.Fsync.NONE, Duration.ZERO,
+                new ObjectMapper().findAndRegisterModules(), meterRegistry);
+    }
+
+    @AfterEach
+    public void stopServices() {
+        services.close();
+    }
+
+    @Test
+    public void extendedContainerKeepsIdWithNewDigest() {
+        StoredContainer signed = storeSignedContainer();
+        var executor = new HeldTasks();
+        SignatureAugmentationServiceImpl service = service(executor);
+
+        service.schedule(signed.id());
+        service.processBatch();
+        executor.runAll();
+
+        assertEquals(State.DONE, service.getStatus(signed.id()).state());
+        StoredContainer extended = storage.find(signed.id());
+        assertEquals(signed.id(), extended.id());
+        assertNotEquals(signed.digest(), extended.digest());
+        assertEquals(SignatureProfile.LT, open(storage.resolve(extended)).getSignatures().get(0).getProfile());
+        assertFalse(Files.exists(marker(signed.id(), ".augment")));
+        assertFalse(Files.exists(marker(signed.id(), ".augment-claimed")));
+    }
+
+    @Test
+    public void queuedContainerIsSeenByEveryNode() {
+        StoredContainer signed = storeSignedContainer();
+        var executor = new HeldTasks();
+        SignatureAugmentationServiceImpl first = service(executor);
+        // shares the signed files directory, has not recovered the markers yet
+        SignatureAugmentationServiceImpl second = service(new HeldTasks());
+
+        first.schedule(signed.id());
+        assertTrue(second.isQueued(signed.id()));
+        first.processBatch();
+        assertTrue(second.isQueued(signed.id()));
+        executor.runAll();
+
+        assertFalse(first.isQueued(signed.id()));
+        assertFalse(second.isQueued(signed.id()));
+    }
+
+    @Test
+    public void queuedContainerIsExtendedByOneNode() throws Exception {
+        StoredContainer signed = storeSignedContainer();
+        var firstExecutor = new HeldTasks();
+        var secondExecutor = new HeldTasks();
+        SignatureAugmentationServiceImpl first = service(firstExecutor);
+        SignatureAugmentationServiceImpl second = service(secondExecutor);
+
+        first.schedule(signed.id());
+        // the second node finds the marker after a restart
+        second.recover();
+        first.processBatch();
+        second.processBatch();
+
+        var start = new CompletableFuture<Void>();
+        CompletableFuture<Void> extended = CompletableFuture.allOf(start.thenRunAsync(firstExecutor::runAll),
+                start.thenRunAsync(secondExecutor::runAll));
+        start.complete(null);
+        extended.get(30, TimeUnit.SECONDS);
+
+        List<AugmentationStatus> statuses = Stream.of(first, second)
+                .map(service -> service.getStatus(signed.id()))
+                .filter(Objects::nonNull)
+                .toList();
+        assertEquals(1, statuses.size());
+        assertEquals(State.DONE, statuses.get(0).state());
+        assertEquals(1, services.getRequestCount("/tsa"));
+    }
+
+    @Test
+    public void failedExtensionIsRetriedWithBackoffUntilGivenUp() throws Exception {
+        StoredContainer broken = storage.save("asice", "TESTNUMBER,OK", Instant.now(),
+                out -> out.write("not a container".getBytes(StandardCharsets.UTF_8)));
+        var executor = new HeldTasks();
+        SignatureAugmentationServiceImpl service = service(executor);
+        ReflectionTestUtils.setField(service, "retryDelay", Duration.ofMillis(500));
+
+        service.schedule(broken.id());
+        service.processBatch();
+        executor.runAll();
+        assertEquals(State.PENDING, service.getStatus(broken.id()).state());
+        assertEquals(1, service.getStatus(broken.id()).attempts());
+        assertTrue(Files.exists(marker(broken.id(), ".augment")));
+
+        // retried after retry-delay
+        Thread.sleep(250);
+        service.processBatch();
+        assertTrue(executor.isEmpty());
+        Thread.sleep(350);
+        service.processBatch();
+        executor.runAll();
+        assertEquals(2, service.getStatus(broken.id()).attempts());
+
+        // then after twice the delay
+        Thread.sleep(600);
+        service.processBatch();
+        assertTrue(executor.isEmpty());
+        Thread.sleep(500);
+        service.processBatch();
+        executor.runAll();
+
+        AugmentationStatus status = service.getStatus(broken.id());
+        assertEquals(State.FAILED, status.state());
+        assertEquals(3, status.attempts());
+        assertTrue(Files.exists(marker(broken.id(), ".augment-failed")));
+        assertFalse(Files.exists(marker(broken.id(), ".augment")));
+        assertFalse(Files.exists(marker(broken.id(), ".augment-claimed")));
+        assertEquals(2, meterRegistry.counter("sid.demo.augmentation.attempts", "result", "retry").count());
+        assertEquals(1, meterRegistry.counter("sid.demo.augmentation.attempts", "result", "failed").count());
+    }
+
+    private SignatureAugmentationServiceImpl service(ThreadPoolTaskExecutor executor) {
+        var service = new SignatureAugmentationServiceImpl(configuration, storage, executor, new StageTimers(meterRegistry),
+                meterRegistry);
+        ReflectionTestUtils.setField(service, "signedFilesDirectory", signedFilesDirectory.toString());
+        ReflectionTestUtils.setField(service, "targetProfile", SignatureProfile.LT);
+        ReflectionTestUtils.setField(service, "batchSize", 10);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "retryDelay", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(service, "claimTimeout", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(service, "statusRetention", Duration.ofHours(1));
+        return service;
+    }
+
+    private StoredContainer storeSignedContainer() {
+        Container container = ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .withDataFile(new ByteArrayInputStream("document".getBytes(StandardCharsets.UTF_8)), "document.txt", "text/plain")
+                .build();
+        // signed at B level, as with deferred augmentation enabled
+        FakeSigner.sign(container, pki, PERSON, SignatureProfile.B_BES);
+        return storage.save("asice", "TESTNUMBER,OK", Instant.now(), out -> container.save(out));
+    }
+
+    private Container open(Path path) {
+        return ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .fromExistingFile(path.toString())
+                .build();
+    }
+
+    private Path marker(String container, String suffix) {
+        return signedFilesDirectory.resolve("augmentation").resolve(container + suffix);
+    }
+
+    /**
+     * Extensions run when the test says so instead of on executor threads.
+     */
+    private static class HeldTasks extends ThreadPoolTaskExecutor {
+
+        private final List<Runnable> tasks = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> held = List.copyOf(tasks);
+            tasks.removeAll(held);
+            held.forEach(Runnable::run);
+        }
+
+        boolean isEmpty() {
+            return tasks.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.Container;
+import org.digidoc4j.ContainerBuilder;
+import org.digidoc4j.SignatureProfile;
+import org.digidoc4j.TSLCertificateSource;
+import org.digidoc4j.impl.asic.tsl.TSLCertificateSourceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.siddemo.fake.FakeSigner;
+import ee.sk.siddemo.fake.FakeSmartIdPki;
+import ee.sk.siddemo.fake.FakeTrustServices;
+import ee.sk.siddemo.fake.LatencyDistribution;
+import ee.sk.siddemo.metrics.StageTimers;
+import ee.sk.siddemo.model.ValidationReport;
+import ee.sk.siddemo.model.ValidationReport.State;
+import ee.sk.siddemo.storage.ShardedContainerStorage;
+import ee.sk.siddemo.storage.StoredContainer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SignatureValidationServiceImplTest {
+
+    private static final String PERSON = "PNOEE-30303039914";
+
+    @TempDir
+    private Path signedFilesDirectory;
+
+    private final FakeSmartIdPki pki = new FakeSmartIdPki();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Configuration configuration = new Configuration(Configuration.Mode.TEST);
+    private final TrustedListService trustedListService = mock(TrustedListService.class);
+    private final HeldTasks executor = new HeldTasks();
+    private FakeTrustServices services;
+    private ShardedContainerStorage storage;
+    private SignatureValidationServiceImpl validationService;
+
+    @BeforeEach
+    public void createService() throws IOException {
+        services = new FakeTrustServices(pki, LatencyDistribution.none()).start(0);
+        configuration.setTspSource(services.getTspUrl());
+        configuration.setOcspSource(services.getOcspUrl());
+        TSLCertificateSource trustedList = new TSLCertificateSourceImpl();
+        trustedList.addTSLCertificate(pki.getCaCertificate());
+        configuration.setTSL(trustedList);
+        when(trustedListService.getVersion()).thenReturn(1L);
+
+        storage = new ShardedContainerStorage(signedFilesDirectory, ShardedContainerStorage.Fsync.NONE, Duration.ZERO,
+                new ObjectMapper().findAndRegisterModules(), meterRegistry);
+        validationService = new SignatureValidationServiceImpl(configuration, storage, trustedListService, executor,
+                new StageTimers(meterRegistry), meterRegistry);
+        ReflectionTestUtils.setField(validationService, "reportCacheSize", 2);
+    }
+
+    @AfterEach
+    public void stopServices() {
+        services.close();
+    }
+
+    @Test
+    public void leastRecentlyUsedReportIsDropped() {
+        StoredContainer first = storeSignedContainer("first");
+        StoredContainer second = storeSignedContainer("second");
+        StoredContainer third = storeSignedContainer("third");
+        validated(first);
+        validated(second);
+
+        // reading the first report makes the second one the least recently used
+        assertTrue(validationService.validate(first).isDone());
+        validated(third);
+
+        assertTrue(validationService.validate(first).isDone());
+        assertTrue(validationService.validate(third).isDone());
+        assertFalse(validationService.validate(second).isDone());
+        assertEquals(3, lookups("cached"));
+        assertEquals(4, lookups("validated"));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneValidation() {
+        StoredContainer signed = storeSignedContainer("document");
+
+        CompletableFuture<ValidationReport> first = validationService.validate(signed);
+        CompletableFuture<ValidationReport> second = validationService.validate(signed);
+        assertSame(first, second);
+        assertEquals(1, executor.size());
+        executor.runAll();
+
+        assertEquals(State.DONE, second.join().state());
+        assertTrue(second.join().valid());
+        assertEquals(1, lookups("running"));
+    }
+
+    @Test
+    public void reportsAreDroppedWhenTrustedListChanges() {
+        StoredContainer signed = storeSignedContainer("document");
+        validated(signed);
+
+        when(trustedListService.getVersion()).thenReturn(2L);
+        CompletableFuture<ValidationReport> revalidation = validationService.validate(signed);
+
+        assertFalse(revalidation.isDone());
+        executor.runAll();
+        assertEquals(State.DONE, revalidation.join().state());
+        // report of the refreshed list is cached again
+        assertTrue(validationService.validate(signed).isDone());
+        assertEquals(2, lookups("validated"));
+    }
+
+    @Test
+    public void verifiedSignatureIsNotValidated() {
+        StoredContainer signed = storeSignedContainer("document");
+
+        validationService.recordVerified(signed);
+
+        ValidationReport report = validationService.validate(signed).join();
+        assertEquals(State.VERIFIED, report.state());
+        assertTrue(report.valid());
+        assertEquals(0, executor.size());
+    }
+
+    @Test
+    public void revalidationIsNotCached() {
+        StoredContainer signed = storeSignedContainer("document");
+
+        assertEquals(State.DONE, validationService.revalidate(signed).state());
+
+        assertFalse(validationService.validate(signed).isDone());
+        assertEquals(State.PENDING, validationService.getReport(signed.id()).state());
+    }
+
+    @Test
+    public void reportRequestDoesNotStartValidation() {
+        StoredContainer signed = storeSignedContainer("document");
+
+        assertEquals(State.PENDING, validationService.getReport(signed.id()).state());
+        assertEquals(0, executor.size());
+
+        validationService.validate(signed);
+        assertEquals(State.PENDING, validationService.getReport(signed.id()).state());
+        executor.runAll();
+        assertEquals(State.DONE, validationService.getReport(signed.id()).state());
+    }
+
+    private void validated(StoredContainer container) {
+        CompletableFuture<ValidationReport> validation = validationService.validate(container);
+        executor.runAll();
+        assertEquals(State.DONE, validation.join().state());
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.counter("sid.demo.validation.reports", "result", result).count();
+    }
+
+    private StoredContainer storeSignedContainer(String document) {
+        Container container = ContainerBuilder.aContainer()
+                .withConfiguration(configuration)
+                .withDataFile(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), "document.txt", "text/plain")
+                .build();
+        FakeSigner.sign(container, pki, PERSON, SignatureProfile.LT);
+        return storage.save("asice", "TESTNUMBER,OK", Instant.now(), out -> container.save(out));
+    }
+
+    /**
+     * Validations run when the test says so instead of on executor threads.
+     */
+    private static class HeldTasks extends ThreadPoolTaskExecutor {
+
+        private final List<Runnable> tasks = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> held = List.copyOf(tasks);
+            tasks.removeAll(held);
+            held.forEach(Runnable::run);
+        }
+
+        int size() {
+            return tasks.size();
+        }
+    }
+}
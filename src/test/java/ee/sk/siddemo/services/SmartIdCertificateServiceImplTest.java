@@ -0,0 +1,124 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ee.sk.siddemo.fake.FakeSmartIdServer;
+import ee.sk.siddemo.fake.LatencyDistribution;
+import ee.sk.siddemo.model.UserRequest;
+import ee.sk.smartid.SmartIdCertificate;
+import ee.sk.smartid.SmartIdClient;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SmartIdCertificateServiceImplTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FakeSmartIdServer server;
+    private SmartIdClient client;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = FakeSmartIdServer.newBuilder()
+                .withThinkTime(LatencyDistribution.none())
+                .build()
+                .start(0);
+        client = new SmartIdClient();
+        client.setRelyingPartyUUID("00000000-0000-0000-0000-000000000000");
+        client.setRelyingPartyName("DEMO");
+        client.setHostUrl(server.getHostUrl());
+        client.setTrustStore(server.getPki().trustStore());
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void certificateIsFetchedOncePerSigner() {
+        var certificateService = new SmartIdCertificateServiceImpl(client, Duration.ofMinutes(10), 10, meterRegistry);
+
+        SmartIdCertificate first = certificateService.getCertificate(userRequest("30303039914"));
+        long requests = server.getRequestCount();
+        SmartIdCertificate second = certificateService.getCertificate(userRequest("30303039914"));
+
+        assertSame(first, second);
+        assertEquals(requests, server.getRequestCount());
+        assertEquals(1, meterRegistry.counter("sid.demo.certificate.cache.requests", "result", "hit").count());
+    }
+
+    @Test
+    public void leastRecentlyUsedSignerIsEvicted() {
+        var certificateService = new SmartIdCertificateServiceImpl(client, Duration.ofMinutes(10), 2, meterRegistry);
+
+        SmartIdCertificate first = certificateService.getCertificate(userRequest("30303039914"));
+        certificateService.getCertificate(userRequest("30303039925"));
+        // first signer becomes the most recently used one
+        certificateService.getCertificate(userRequest("30303039914"));
+        certificateService.getCertificate(userRequest("30303039936"));
+
+        assertSame(first, certificateService.getCertificate(userRequest("30303039914")));
+        assertEquals(1, meterRegistry.counter("sid.demo.certificate.cache.evictions", "cause", "size").count());
+        assertEquals(3, meterRegistry.counter("sid.demo.certificate.cache.requests", "result", "miss").count());
+    }
+
+    @Test
+    public void expiredCertificateIsFetchedAgain() throws InterruptedException {
+        var certificateService = new SmartIdCertificateServiceImpl(client, Duration.ofMillis(1), 10, meterRegistry);
+
+        SmartIdCertificate first = certificateService.getCertificate(userRequest("30303039914"));
+        Thread.sleep(20);
+
+        assertNotSame(first, certificateService.getCertificate(userRequest("30303039914")));
+        assertEquals(1, meterRegistry.counter("sid.demo.certificate.cache.evictions", "cause", "expired").count());
+    }
+
+    @Test
+    public void invalidatedCertificateIsFetchedAgain() {
+        var certificateService = new SmartIdCertificateServiceImpl(client, Duration.ofMinutes(10), 10, meterRegistry);
+
+        SmartIdCertificate first = certificateService.getCertificate(userRequest("30303039914"));
+        certificateService.invalidate(new SemanticsIdentifier(SemanticsIdentifier.IdentityType.PNO, "EE", "30303039914"));
+
+        assertNotSame(first, certificateService.getCertificate(userRequest("30303039914")));
+        assertEquals(1, meterRegistry.counter("sid.demo.certificate.cache.evictions", "cause", "invalidated").count());
+    }
+
+    private static UserRequest userRequest(String nationalIdentityNumber) {
+        var userRequest = new UserRequest();
+        userRequest.setCountry("EE");
+        userRequest.setNationalIdentityNumber(nationalIdentityNumber);
+        return userRequest;
+    }
+}
@@ -0,0 +1,203 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ee.sk.siddemo.exception.Outcomes;
+import ee.sk.siddemo.exception.ServiceBusyException;
+import ee.sk.siddemo.exception.SidOperationException;
+import ee.sk.siddemo.model.AuthenticationSessionInfo;
+import ee.sk.siddemo.store.AuthenticationSessionCodec;
+import ee.sk.siddemo.store.InMemoryPendingSessionStore;
+import ee.sk.siddemo.store.PendingSessions;
+import ee.sk.smartid.AuthenticationHash;
+import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.SmartIdClient;
+import ee.sk.smartid.exception.useraction.SessionTimeoutException;
+import ee.sk.smartid.rest.SmartIdConnector;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.ProcessingException;
+
+public class SmartIdSessionPollerImplTest {
+
+    private static final Duration INITIAL_INTERVAL = Duration.ofMillis(10);
+    private static final Duration MAX_INTERVAL = Duration.ofMillis(40);
+
+    private final SmartIdConnector connector = mock(SmartIdConnector.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ThreadPoolTaskExecutor sessionStatusExecutor = new ThreadPoolTaskExecutor();
+    private SmartIdSessionPollerImpl poller;
+
+    @BeforeEach
+    public void createPoller() {
+        SmartIdClient client = mock(SmartIdClient.class);
+        when(client.getSmartIdConnector()).thenReturn(connector);
+
+        sessionStatusExecutor.setCorePoolSize(2);
+        sessionStatusExecutor.setMaxPoolSize(2);
+        sessionStatusExecutor.setQueueCapacity(0);
+        sessionStatusExecutor.initialize();
+
+        poller = new SmartIdSessionPollerImpl(client, sessionStatusExecutor, 1, meterRegistry);
+        ReflectionTestUtils.setField(poller, "maxSessions", 1);
+        ReflectionTestUtils.setField(poller, "initialInterval", INITIAL_INTERVAL);
+        ReflectionTestUtils.setField(poller, "maxInterval", MAX_INTERVAL);
+        ReflectionTestUtils.setField(poller, "sessionTimeout", Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    public void shutdown() {
+        poller.shutdown();
+        sessionStatusExecutor.shutdown();
+    }
+
+    @Test
+    public void connectionErrorIsRetried() throws Exception {
+        when(connector.getSessionStatus("session"))
+                .thenThrow(new ProcessingException("Connection reset"))
+                .thenReturn(status("RUNNING"))
+                .thenReturn(status("COMPLETE"));
+
+        SessionStatus status = poller.pollUntilComplete("session").get(5, TimeUnit.SECONDS);
+
+        assertEquals("COMPLETE", status.getState());
+        assertEquals(1, meterRegistry.counter("sid.demo.poller.requests", "state", "error").count());
+        assertEquals(1, meterRegistry.counter("sid.demo.poller.requests", "state", "RUNNING").count());
+        assertEquals(0, poller.getPendingSessionCount());
+    }
+
+    @Test
+    public void otherErrorsCompleteTheSession() {
+        when(connector.getSessionStatus("session")).thenThrow(new IllegalStateException("Unexpected response"));
+
+        CompletableFuture<SessionStatus> result = poller.pollUntilComplete("session");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    public void sessionTimesOut() {
+        ReflectionTestUtils.setField(poller, "sessionTimeout", Duration.ofMillis(100));
+        when(connector.getSessionStatus("session")).thenReturn(status("RUNNING"));
+
+        CompletableFuture<SessionStatus> result = poller.pollUntilComplete("session");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SidOperationException.class, e.getCause());
+        assertInstanceOf(SessionTimeoutException.class, e.getCause().getCause());
+        assertEquals("timeout", Outcomes.outcome(e));
+        assertEquals(0, poller.getPendingSessionCount());
+    }
+
+    @Test
+    public void sessionsOverCapacityAreRejected() throws Exception {
+        var complete = new CompletableFuture<Void>();
+        when(connector.getSessionStatus("first")).thenAnswer(invocation -> complete.isDone() ? status("COMPLETE") : status("RUNNING"));
+
+        CompletableFuture<SessionStatus> first = poller.pollUntilComplete("first");
+
+        assertFalse(poller.hasCapacity());
+        assertThrows(ServiceBusyException.class, () -> poller.pollUntilComplete("second"));
+
+        complete.complete(null);
+        first.get(5, TimeUnit.SECONDS);
+        assertTrue(poller.hasCapacity());
+    }
+
+    @Test
+    public void removedSessionIsNoLongerPolled() {
+        when(connector.getSessionStatus("session")).thenReturn(status("RUNNING"));
+        var scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+        try {
+            var store = new InMemoryPendingSessionStore("memory", Duration.ofMinutes(5), 10, Long.MAX_VALUE, meterRegistry);
+            var authenticationSessions = new PendingSessions<AuthenticationSessionInfo, AuthenticationIdentity>("authentication",
+                    store, new AuthenticationSessionCodec(),
+                    (sessionInfo, claim) -> poller.pollUntilComplete(sessionInfo.getSessionID()).thenApply(status -> new AuthenticationIdentity()),
+                    sessionInfo -> poller.cancel(sessionInfo.getSessionID()), scheduler, Duration.ofMillis(100));
+
+            String key = authenticationSessions.start(authenticationSessionInfo());
+            CompletableFuture<AuthenticationIdentity> result = authenticationSessions.result(key);
+            assertEquals(1, poller.getPendingSessionCount());
+
+            authenticationSessions.remove(key);
+
+            assertEquals(0, poller.getPendingSessionCount());
+            assertTrue(result.isCompletedExceptionally());
+            assertEquals(0, store.size());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void delayGrowsExponentiallyWithJitterUpToMaxInterval() {
+        for (int attempts = 0; attempts < 40; attempts++) {
+            long expected = Math.min(INITIAL_INTERVAL.toMillis() << Math.min(attempts, 16), MAX_INTERVAL.toMillis());
+            long delay = poller.nextDelay(attempts).toMillis();
+            assertTrue(delay >= expected * 0.8 - 1 && delay <= expected * 1.2,
+                    "attempt " + attempts + " delay " + delay + " expected about " + expected);
+        }
+    }
+
+    private static AuthenticationSessionInfo authenticationSessionInfo() {
+        var authenticationHash = new AuthenticationHash();
+        authenticationHash.setHash(new byte[64]);
+        authenticationHash.setHashType(HashType.SHA512);
+        return AuthenticationSessionInfo.newBuilder()
+                .withSessionID("session")
+                .withVerificationCode("1234")
+                .withAuthenticationHash(authenticationHash)
+                .withSemanticsIdentifier(new SemanticsIdentifier("PNOEE-30303039914"))
+                .build();
+    }
+
+    private static SessionStatus status(String state) {
+        var status = new SessionStatus();
+        status.setState(state);
+        return status;
+    }
+}
@@ -0,0 +1,113 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.digidoc4j.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import ee.sk.siddemo.asic.AsicContainerWriter;
+import ee.sk.siddemo.exception.SidOperationException;
+import ee.sk.siddemo.logging.AuditLog;
+import ee.sk.siddemo.metrics.StageTimers;
+import ee.sk.siddemo.model.SigningResult;
+import ee.sk.siddemo.model.SigningSessionInfo;
+import ee.sk.siddemo.storage.ContainerStorage;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.SignableHash;
+import ee.sk.smartid.SmartIdClient;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+import ee.sk.smartid.rest.dao.SessionResult;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SmartIdSignatureServiceImplTest {
+
+    private static final SemanticsIdentifier SIGNER = new SemanticsIdentifier("PNOEE-30303039914");
+
+    private final SmartIdCertificateService certificateService = mock(SmartIdCertificateService.class);
+    private final SmartIdSessionPoller sessionPoller = mock(SmartIdSessionPoller.class);
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private SmartIdSignatureServiceImpl signatureService;
+
+    @BeforeEach
+    public void createService() {
+        executor.initialize();
+
+        var client = new SmartIdClient();
+        client.setRelyingPartyUUID("00000000-0000-0000-0000-000000000000");
+        client.setRelyingPartyName("DEMO");
+        // no request is sent, the session status is returned by the poller
+        client.setHostUrl("https://localhost/");
+
+        signatureService = new SmartIdSignatureServiceImpl(certificateService, client, mock(Configuration.class), sessionPoller,
+                mock(UploadSpoolService.class), mock(SignatureAugmentationService.class), mock(SignatureValidationService.class),
+                mock(ContainerStorage.class), new AsicContainerWriter(true, 6, 7.5), new StageTimers(new SimpleMeterRegistry()),
+                new AuditLog(), executor, executor, executor);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void unusableDocumentInvalidatesCachedCertificate() {
+        var result = new SessionResult();
+        result.setEndResult("DOCUMENT_UNUSABLE");
+        var status = new SessionStatus();
+        status.setState("COMPLETE");
+        status.setResult(result);
+        when(sessionPoller.pollUntilComplete("session")).thenReturn(CompletableFuture.completedFuture(status));
+
+        CompletableFuture<SigningResult> signing = signatureService.sign(signingSessionInfo(), () -> true);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> signing.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SidOperationException.class, e.getCause());
+        verify(certificateService).invalidate(SIGNER);
+    }
+
+    private static SigningSessionInfo signingSessionInfo() {
+        var hashToSign = new SignableHash();
+        hashToSign.setHash(new byte[32]);
+        hashToSign.setHashType(HashType.SHA256);
+        return SigningSessionInfo.newBuilder()
+                .withSessionID("session")
+                .withDocumentNumber("PNOEE-30303039914-MOCK-Q")
+                .withHashToSign(hashToSign)
+                .withSemanticsIdentifier(SIGNER)
+                .build();
+    }
+}
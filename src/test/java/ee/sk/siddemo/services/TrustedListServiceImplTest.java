@@ -0,0 +1,97 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.digidoc4j.Configuration;
+import org.digidoc4j.TSLCertificateSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class TrustedListServiceImplTest {
+
+    private final TSLCertificateSource tsl = mock(TSLCertificateSource.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private TrustedListServiceImpl trustedListService;
+
+    @BeforeEach
+    public void createService() {
+        var configuration = mock(Configuration.class);
+        when(configuration.getTSL()).thenReturn(tsl);
+        trustedListService = new TrustedListServiceImpl(configuration, mock(ThreadPoolTaskExecutor.class), meterRegistry);
+    }
+
+    @Test
+    public void readyOnceTrustedListHasCertificates() {
+        assertFalse(trustedListService.isReady());
+        when(tsl.getCertificates()).thenReturn(List.of(mock(CertificateToken.class), mock(CertificateToken.class)));
+
+        trustedListService.refresh();
+
+        assertTrue(trustedListService.isReady());
+        assertEquals(2, trustedListService.getTrustedCertificateCount());
+        assertEquals(1, trustedListService.getVersion());
+        assertEquals(1.0, meterRegistry.get("sid.demo.tsl.ready").gauge().value());
+        assertEquals(1, meterRegistry.get("sid.demo.tsl.refresh").timer().count());
+    }
+
+    @Test
+    public void emptyTrustedListIsNotReady() {
+        when(tsl.getCertificates()).thenReturn(List.of(mock(CertificateToken.class)));
+        trustedListService.refresh();
+
+        when(tsl.getCertificates()).thenReturn(List.of());
+        trustedListService.refresh();
+
+        assertFalse(trustedListService.isReady());
+        assertEquals(0, trustedListService.getTrustedCertificateCount());
+        // reports of the last loaded list are not dropped for an empty one
+        assertEquals(1, trustedListService.getVersion());
+    }
+
+    @Test
+    public void failedRefreshKeepsLoadedList() {
+        when(tsl.getCertificates()).thenReturn(List.of(mock(CertificateToken.class)));
+        trustedListService.refresh();
+
+        doThrow(new IllegalStateException("LOTL not reachable")).when(tsl).refresh();
+        trustedListService.refresh();
+
+        assertTrue(trustedListService.isReady());
+        assertEquals(1, trustedListService.getTrustedCertificateCount());
+        assertEquals(1, trustedListService.getVersion());
+        assertEquals(2, meterRegistry.get("sid.demo.tsl.refresh").timer().count());
+    }
+}
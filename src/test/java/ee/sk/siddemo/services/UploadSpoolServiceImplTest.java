@@ -0,0 +1,79 @@
+package ee.sk.siddemo.services;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ee.sk.siddemo.model.SpooledUpload;
+
+public class UploadSpoolServiceImplTest {
+
+    private static final byte[] CONTENT = {1, 2, 3};
+
+    @TempDir
+    private Path spoolDirectory;
+
+    private final UploadSpoolServiceImpl uploadSpoolService = new UploadSpoolServiceImpl();
+
+    @BeforeEach
+    public void configure() {
+        ReflectionTestUtils.setField(uploadSpoolService, "spoolDirectory", spoolDirectory.toString());
+        ReflectionTestUtils.setField(uploadSpoolService, "maxAge", Duration.ofMinutes(30));
+    }
+
+    @Test
+    public void originalFileNameIsKept() throws Exception {
+        SpooledUpload upload = uploadSpoolService.spool(new MockMultipartFile("file", "C:\\Users\\me\\a(1)+b&c.pdf", "application/pdf", CONTENT));
+
+        assertEquals("a(1)+b&c.pdf", upload.getFileName());
+        assertEquals("a_1__b_c.pdf", upload.getPath().getFileName().toString());
+        assertArrayEquals(CONTENT, Files.readAllBytes(upload.getPath()));
+    }
+
+    @Test
+    public void orphanedUploadsAreDeleted() throws Exception {
+        SpooledUpload orphaned = uploadSpoolService.spool(new MockMultipartFile("file", "old.pdf", "application/pdf", CONTENT));
+        SpooledUpload pending = uploadSpoolService.spool(new MockMultipartFile("file", "new.pdf", "application/pdf", CONTENT));
+        Files.setLastModifiedTime(orphaned.getPath().getParent(), FileTime.from(Instant.now().minus(Duration.ofHours(1))));
+
+        uploadSpoolService.deleteOrphans();
+
+        assertFalse(Files.exists(orphaned.getPath().getParent()));
+        assertTrue(Files.exists(pending.getPath()));
+    }
+}
@@ -0,0 +1,111 @@
+package ee.sk.siddemo.storage;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ShardedContainerStorageTest {
+
+    private static final byte[] CONTENT = "signed container".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    private Path root;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ShardedContainerStorage storage;
+
+    @BeforeEach
+    public void createStorage() {
+        storage = new ShardedContainerStorage(root, ShardedContainerStorage.Fsync.DIRECTORY, Duration.ZERO,
+                new ObjectMapper().findAndRegisterModules(), meterRegistry);
+    }
+
+    @Test
+    public void identicalContentIsStoredOnce() throws Exception {
+        Instant signedAt = Instant.parse("2024-10-01T10:00:00Z");
+        StoredContainer first = storage.save("asice", "OK,TESTNUMBER", signedAt, out -> out.write(CONTENT));
+        StoredContainer second = storage.save("asice", "OK,TESTNUMBER", signedAt, out -> out.write(CONTENT));
+
+        assertEquals(first, second);
+        assertEquals(first, storage.find(first.id()));
+        assertArrayEquals(CONTENT, Files.readAllBytes(storage.resolve(first)));
+        assertEquals(root.resolve("objects").resolve(first.id().substring(0, 2)).resolve(first.id().substring(2, 4))
+                .resolve(first.id() + ".asice"), storage.resolve(first));
+        assertEquals(1, meterRegistry.counter("sid.demo.storage.writes", "result", "deduplicated").count());
+        try (Stream<Path> temp = Files.list(root.resolve("tmp"))) {
+            assertEquals(0, temp.count());
+        }
+    }
+
+    @Test
+    public void replacedContentKeepsId() throws Exception {
+        StoredContainer original = storage.save("asice", "OK,TESTNUMBER", Instant.now(), out -> out.write(CONTENT));
+        StoredContainer extended = storage.replace(original.id(), out -> out.write("extended container".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(original.id(), extended.id());
+        assertEquals(extended, storage.find(original.id()));
+        assertTrue(Files.exists(storage.resolve(extended)));
+        try (Stream<StoredContainer> containers = storage.list()) {
+            assertEquals(1, containers.count());
+        }
+    }
+
+    @Test
+    public void replacedContentIsDeletedAfterRetention() throws Exception {
+        StoredContainer original = storage.save("asice", "OK,TESTNUMBER", Instant.now(), out -> out.write(CONTENT));
+        StoredContainer extended = storage.replace(original.id(), out -> out.write("extended container".getBytes(StandardCharsets.UTF_8)));
+
+        // a download that looked up the original entry can still open it
+        assertTrue(Files.exists(storage.resolve(original)));
+
+        StoredContainer extendedAgain = storage.replace(original.id(), out -> out.write("extended again".getBytes(StandardCharsets.UTF_8)));
+
+        assertFalse(Files.exists(storage.resolve(original)));
+        assertTrue(Files.exists(storage.resolve(extended)));
+        assertTrue(Files.exists(storage.resolve(extendedAgain)));
+    }
+
+    @Test
+    public void idOutsideStoreIsNotFound() {
+        assertNull(storage.find("../../etc/passwd"));
+        assertNull(storage.find("0".repeat(64)));
+    }
+}
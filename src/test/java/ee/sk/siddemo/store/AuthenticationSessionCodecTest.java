@@ -0,0 +1,112 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import ee.sk.siddemo.model.AuthenticationSessionInfo;
+import ee.sk.smartid.AuthenticationHash;
+import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+
+public class AuthenticationSessionCodecTest {
+
+    private final AuthenticationSessionCodec codec = new AuthenticationSessionCodec();
+
+    @Test
+    public void sessionInfoRoundTrip() throws IOException {
+        var authenticationHash = new AuthenticationHash();
+        authenticationHash.setHash(new byte[]{5, 6, 7, 8});
+        authenticationHash.setHashType(HashType.SHA512);
+        var sessionInfo = AuthenticationSessionInfo.newBuilder()
+                .withSessionID("session")
+                .withVerificationCode("4321")
+                .withAuthenticationHash(authenticationHash)
+                .withSemanticsIdentifier(new SemanticsIdentifier("PNOEE-30303039914"))
+                .build();
+
+        var bytes = new ByteArrayOutputStream();
+        codec.writeSessionInfo(sessionInfo, new DataOutputStream(bytes));
+        AuthenticationSessionInfo read = codec.readSessionInfo(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals("session", read.getSessionID());
+        assertEquals("4321", read.getVerificationCode());
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, read.getAuthenticationHash().getHash());
+        assertEquals(HashType.SHA512, read.getAuthenticationHash().getHashType());
+        assertEquals("PNOEE-30303039914", read.getSemanticsIdentifier().getIdentifier());
+        // user request is not kept
+        assertNull(read.getUserRequest());
+    }
+
+    @Test
+    public void identityRoundTrip() throws IOException {
+        var identity = new AuthenticationIdentity();
+        identity.setGivenName("MARI-LIIS");
+        identity.setSurname("MÄNNIK");
+        identity.setIdentityCode("47101010033");
+        identity.setCountry("EE");
+        identity.setDateOfBirth(LocalDate.of(1971, 1, 1));
+
+        AuthenticationIdentity read = roundTrip(identity);
+
+        assertEquals("MARI-LIIS", read.getGivenName());
+        assertEquals("MÄNNIK", read.getSurname());
+        assertEquals("47101010033", read.getIdentityCode());
+        assertEquals("EE", read.getCountry());
+        assertEquals(Optional.of(LocalDate.of(1971, 1, 1)), read.getDateOfBirth());
+    }
+
+    @Test
+    public void identityWithoutDateOfBirthRoundTrip() throws IOException {
+        var identity = new AuthenticationIdentity();
+        identity.setGivenName("JOHN");
+        identity.setSurname("SMITH");
+        identity.setIdentityCode("30303039914");
+        identity.setCountry("LV");
+
+        AuthenticationIdentity read = roundTrip(identity);
+
+        assertEquals("SMITH", read.getSurname());
+        assertTrue(read.getDateOfBirth().isEmpty());
+    }
+
+    private AuthenticationIdentity roundTrip(AuthenticationIdentity identity) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        codec.writeResult(identity, new DataOutputStream(bytes));
+        return codec.readResult(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
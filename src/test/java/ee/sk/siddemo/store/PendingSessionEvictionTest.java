@@ -0,0 +1,150 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ee.sk.siddemo.model.SigningResult;
+import ee.sk.siddemo.model.SigningSessionInfo;
+import ee.sk.siddemo.model.SpooledUpload;
+import ee.sk.siddemo.services.UploadSpoolServiceImpl;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.SignableHash;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PendingSessionEvictionTest {
+
+    @TempDir
+    private Path spoolDirectory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final UploadSpoolServiceImpl uploadSpoolService = new UploadSpoolServiceImpl();
+    private final List<String> cancelled = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void configure() {
+        scheduler.initialize();
+        ReflectionTestUtils.setField(uploadSpoolService, "spoolDirectory", spoolDirectory.toString());
+    }
+
+    @AfterEach
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void sessionOverEntryLimitIsCancelled() {
+        var store = new InMemoryPendingSessionStore("memory", Duration.ofMinutes(5), 2, Long.MAX_VALUE, meterRegistry);
+        PendingSessions<SigningSessionInfo, SigningResult> sessions = signingSessions(store);
+
+        SpooledUpload evictedUpload = spool();
+        String evicted = sessions.start(signingSessionInfo("first", evictedUpload));
+        CompletableFuture<SigningResult> evictedResult = sessions.result(evicted);
+        SpooledUpload keptUpload = spool();
+        String kept = sessions.start(signingSessionInfo("second", keptUpload));
+        sessions.start(signingSessionInfo("third", spool()));
+
+        assertCancelled(sessions, evicted, evictedResult, evictedUpload);
+        assertEquals(List.of("first"), cancelled);
+        assertFalse(sessions.result(kept).isDone());
+        assertTrue(Files.exists(keptUpload.getPath()));
+        assertEquals(1, meterRegistry.counter("sid.demo.pending.sessions.evictions", "store", "memory", "cause", "entries").count());
+    }
+
+    @Test
+    public void sessionOverByteLimitIsCancelled() {
+        // weight of one session, spool paths differ by a few characters at most
+        var probe = new InMemoryPendingSessionStore("probe", Duration.ofMinutes(5), 10, Long.MAX_VALUE, meterRegistry);
+        signingSessions(probe).start(signingSessionInfo("probe", spool()));
+        long weight = probe.getResidentBytes();
+
+        var store = new InMemoryPendingSessionStore("memory", Duration.ofMinutes(5), 10, weight * 5 / 2, meterRegistry);
+        PendingSessions<SigningSessionInfo, SigningResult> sessions = signingSessions(store);
+
+        SpooledUpload evictedUpload = spool();
+        String evicted = sessions.start(signingSessionInfo("first", evictedUpload));
+        CompletableFuture<SigningResult> evictedResult = sessions.result(evicted);
+        sessions.start(signingSessionInfo("second", spool()));
+        sessions.start(signingSessionInfo("third", spool()));
+
+        assertCancelled(sessions, evicted, evictedResult, evictedUpload);
+        assertEquals(List.of("first"), cancelled);
+        assertEquals(2, store.size());
+        assertEquals(1, meterRegistry.counter("sid.demo.pending.sessions.evictions", "store", "memory", "cause", "bytes").count());
+    }
+
+    private static void assertCancelled(PendingSessions<SigningSessionInfo, SigningResult> sessions, String key,
+                                        CompletableFuture<SigningResult> result, SpooledUpload upload) {
+        assertTrue(result.isCompletedExceptionally());
+        assertNull(sessions.result(key));
+        assertFalse(Files.exists(upload.getPath().getParent()));
+    }
+
+    private PendingSessions<SigningSessionInfo, SigningResult> signingSessions(PendingSessionStore store) {
+        // Smart-ID sessions never complete, the user has walked away
+        return new PendingSessions<>("signing", store, new SigningSessionCodec(), (sessionInfo, claim) -> new CompletableFuture<>(),
+                sessionInfo -> {
+                    cancelled.add(sessionInfo.getSessionID());
+                    uploadSpoolService.delete(sessionInfo.getSpooledUpload());
+                },
+                scheduler, Duration.ofMillis(100));
+    }
+
+    private SpooledUpload spool() {
+        return uploadSpoolService.spool(new MockMultipartFile("file", "document.pdf", "application/pdf", new byte[]{1, 2, 3}));
+    }
+
+    private static SigningSessionInfo signingSessionInfo(String sessionId, SpooledUpload spooledUpload) {
+        var hashToSign = new SignableHash();
+        hashToSign.setHash(new byte[32]);
+        hashToSign.setHashType(HashType.SHA256);
+        return SigningSessionInfo.newBuilder()
+                .withSessionID(sessionId)
+                .withVerificationCode("1234")
+                .withDocumentNumber("PNOEE-30303039914-MOCK-Q")
+                .withHashToSign(hashToSign)
+                .withSemanticsIdentifier(new SemanticsIdentifier("PNOEE-30303039914"))
+                .withSpooledUpload(spooledUpload)
+                .build();
+    }
+}
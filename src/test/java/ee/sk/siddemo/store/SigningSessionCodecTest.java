@@ -0,0 +1,194 @@
+package ee.sk.siddemo.store;
+
+/*-
+ * #%L
+ * Smart-ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Date;
+
+import org.digidoc4j.DigestAlgorithm;
+import org.digidoc4j.EncryptionAlgorithm;
+import org.digidoc4j.SignatureParameters;
+import org.digidoc4j.SignatureProfile;
+import org.junit.jupiter.api.Test;
+
+import ee.sk.siddemo.fake.FakeSmartIdPki;
+import ee.sk.siddemo.model.DetachedDocument;
+import ee.sk.siddemo.model.SigningResult;
+import ee.sk.siddemo.model.SigningSessionInfo;
+import ee.sk.siddemo.model.SpooledUpload;
+import ee.sk.smartid.HashType;
+import ee.sk.smartid.SignableHash;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier;
+
+public class SigningSessionCodecTest {
+
+    private static final String SIGNER = "PNOEE-30303039914";
+
+    private final SigningSessionCodec codec = new SigningSessionCodec();
+
+    @Test
+    public void containerSessionRoundTrip() throws IOException {
+        var spooledUpload = SpooledUpload.newBuilder()
+                .withPath(Paths.get("/tmp/sid-demo-uploads/upload-1/document.pdf"))
+                .withFileName("dokument ÕÄÖÜ.pdf")
+                .withMimeType("application/pdf")
+                .withSize(1234)
+                .build();
+        SignatureParameters parameters = signatureParameters();
+
+        SigningSessionInfo read = roundTrip(signingSessionInfo()
+                .withSignatureParameters(parameters)
+                .withSpooledUpload(spooledUpload)
+                .build());
+
+        assertSessionFields(read);
+        assertSignatureParameters(parameters, read.getSignatureParameters());
+        assertEquals(spooledUpload.getPath(), read.getSpooledUpload().getPath());
+        assertEquals(spooledUpload.getFileName(), read.getSpooledUpload().getFileName());
+        assertEquals(spooledUpload.getMimeType(), read.getSpooledUpload().getMimeType());
+        assertEquals(spooledUpload.getSize(), read.getSpooledUpload().getSize());
+        assertNull(read.getDetachedDocument());
+        assertNull(read.getDataToSign());
+        assertNull(read.getContainer());
+    }
+
+    @Test
+    public void detachedSessionRoundTrip() throws IOException {
+        var document = new DetachedDocument("report.pdf", DigestAlgorithm.SHA512, new byte[64], null);
+        SignatureParameters parameters = signatureParameters();
+
+        SigningSessionInfo read = roundTrip(signingSessionInfo()
+                .withSignatureParameters(parameters)
+                .withDetachedDocument(document)
+                .build());
+
+        assertSessionFields(read);
+        assertSignatureParameters(parameters, read.getSignatureParameters());
+        assertEquals(document.fileName(), read.getDetachedDocument().fileName());
+        assertEquals(document.digestAlgorithm(), read.getDetachedDocument().digestAlgorithm());
+        assertArrayEquals(document.digest(), read.getDetachedDocument().digest());
+        assertNull(read.getDetachedDocument().mimeType());
+        assertNull(read.getSpooledUpload());
+    }
+
+    @Test
+    public void sessionWithoutSignatureParametersRoundTrip() throws IOException {
+        SigningSessionInfo read = roundTrip(signingSessionInfo().build());
+
+        assertSessionFields(read);
+        assertNull(read.getSignatureParameters());
+        assertNull(read.getDetachedDocument());
+        assertNull(read.getSpooledUpload());
+    }
+
+    @Test
+    public void resultRoundTrip() throws IOException {
+        var result = SigningResult.newBuilder()
+                .withResult("Signing successful")
+                .withValid(true)
+                .withTimestamp(new Date(1_700_000_000_000L))
+                .withContainerFilePath("/data/containers/ab/cd/abcd.asice")
+                .withContainerId("abcd")
+                .withAugmentationPending(false)
+                .withValidationPending(true)
+                .build();
+
+        var bytes = new ByteArrayOutputStream();
+        codec.writeResult(result, new DataOutputStream(bytes));
+        SigningResult read = codec.readResult(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(result.getResult(), read.getResult());
+        assertEquals(result.getValid(), read.getValid());
+        assertEquals(result.getTimestamp(), read.getTimestamp());
+        assertEquals(result.getContainerFilePath(), read.getContainerFilePath());
+        assertEquals(result.getContainerId(), read.getContainerId());
+        assertFalse(read.isAugmentationPending());
+        assertTrue(read.isValidationPending());
+    }
+
+    private SigningSessionInfo roundTrip(SigningSessionInfo sessionInfo) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        codec.writeSessionInfo(sessionInfo, out);
+        out.flush();
+
+        var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SigningSessionInfo read = codec.readSessionInfo(in);
+        assertEquals(0, in.available());
+        return read;
+    }
+
+    private static SigningSessionInfo.Builder signingSessionInfo() {
+        var hashToSign = new SignableHash();
+        hashToSign.setHash(new byte[]{1, 2, 3, 4});
+        hashToSign.setHashType(HashType.SHA256);
+        return SigningSessionInfo.newBuilder()
+                .withSessionID("session")
+                .withVerificationCode("1234")
+                .withDocumentNumber("PNOEE-30303039914-MOCK-Q")
+                .withHashToSign(hashToSign)
+                .withSemanticsIdentifier(new SemanticsIdentifier(SIGNER));
+    }
+
+    private static void assertSessionFields(SigningSessionInfo read) {
+        assertEquals("session", read.getSessionID());
+        assertEquals("1234", read.getVerificationCode());
+        assertEquals("PNOEE-30303039914-MOCK-Q", read.getDocumentNumber());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, read.getHashToSign().getHash());
+        assertEquals(HashType.SHA256, read.getHashToSign().getHashType());
+        assertEquals(SIGNER, read.getSemanticsIdentifier().getIdentifier());
+    }
+
+    private static SignatureParameters signatureParameters() {
+        var parameters = new SignatureParameters();
+        parameters.setSigningCertificate(new FakeSmartIdPki().getCertificate(SIGNER));
+        parameters.setClaimedSigningDate(new Date(1_700_000_000_000L));
+        parameters.setSignatureId("S-0123456789ABCDEF");
+        parameters.setSignatureDigestAlgorithm(DigestAlgorithm.SHA256);
+        parameters.setDataFileDigestAlgorithm(DigestAlgorithm.SHA256);
+        parameters.setEncryptionAlgorithm(EncryptionAlgorithm.RSA);
+        parameters.setSignatureProfile(SignatureProfile.LT);
+        return parameters;
+    }
+
+    private static void assertSignatureParameters(SignatureParameters expected, SignatureParameters actual) {
+        assertEquals(expected.getSigningCertificate(), actual.getSigningCertificate());
+        assertEquals(expected.getClaimedSigningDate(), actual.getClaimedSigningDate());
+        assertEquals(expected.getSignatureId(), actual.getSignatureId());
+        assertEquals(expected.getSignatureDigestAlgorithm(), actual.getSignatureDigestAlgorithm());
+        assertEquals(expected.getDataFileDigestAlgorithm(), actual.getDataFileDigestAlgorithm());
+        assertEquals(expected.getEncryptionAlgorithm(), actual.getEncryptionAlgorithm());
+        assertEquals(expected.getSignatureProfile(), actual.getSignatureProfile());
+    }
+}